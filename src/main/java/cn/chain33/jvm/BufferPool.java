@@ -0,0 +1,66 @@
+package cn.chain33.jvm;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * 线程内复用的直接内存缓冲区
+ * 类字节码读到这里后直接交给 defineClass，不在堆上留下 byte[] 副本。
+ * 定义一个类时可能递归加载父类，所以每个线程维护一个空闲栈而不是单个缓冲区
+ */
+final class BufferPool {
+    /**
+     * 每个线程最多保留的空闲缓冲区
+     */
+    private static final int MAX_FREE = 4;
+    /**
+     * 最小分配单位，按它向上取整减少重新分配
+     */
+    private static final int MIN_CAPACITY = 16 * 1024;
+
+    private static final ThreadLocal<ArrayDeque<ByteBuffer>> FREE = new ThreadLocal<ArrayDeque<ByteBuffer>>() {
+        @Override
+        protected ArrayDeque<ByteBuffer> initialValue() {
+            return new ArrayDeque<ByteBuffer>(MAX_FREE);
+        }
+    };
+
+    private BufferPool() {
+    }
+
+    /**
+     * 取一个容量不小于capacity的缓冲区，用完必须调用release归还
+     *
+     * @param capacity
+     * @return
+     */
+    static ByteBuffer acquire(int capacity) {
+        ArrayDeque<ByteBuffer> free = FREE.get();
+        ByteBuffer buffer = free.pollFirst();
+        if (buffer == null || buffer.capacity() < capacity) {
+            int size = MIN_CAPACITY;
+            while (size < capacity) {
+                size <<= 1;
+            }
+            buffer = ByteBuffer.allocateDirect(size);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * 归还缓冲区，合约镜像的只读切片等不是从池中取出的缓冲区会被忽略
+     *
+     * @param buffer
+     */
+    static void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect() || buffer.isReadOnly()) {
+            return;
+        }
+        ArrayDeque<ByteBuffer> free = FREE.get();
+        if (free.size() < MAX_FREE) {
+            buffer.clear();
+            free.offerFirst(buffer);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package cn.chain33.jvm;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 执行器的CDS(Class Data Sharing)归档
+ * 训练时按一组有代表性的tx/query记录加载过的类，把宿主类、Gson和lib下的公共jar包生成CDS归档，
+ * 执行器启动时映射归档，这些类不再解析和校验。
+ * lib下的jar包放到classpath上后由父加载器从归档加载，Loader不再预读它们
+ *
+ * 训练: java -cp chain33-jvm.jar:gson.jar cn.chain33.jvm.CdsArchive dump workload.txt [chain33.jsa]
+ * 启动: java -Xshare:auto -XX:SharedArchiveFile=chain33.jsa -cp (dump输出的classpath) ...
+ *
+ * workload.txt 每行一次调用: tx|query 合约名称 参数...，#开头为注释
+ */
+public class CdsArchive {
+    public static final String CLASS_LIST = "chain33.classlist";
+    public static final String ARCHIVE = "chain33.jsa";
+
+    /**
+     * 启动时的classpath条目
+     */
+    private static Set<String> classPathEntries;
+
+    /**
+     * jar包是否已经在classpath上
+     *
+     * @param jar
+     * @return
+     */
+    public static synchronized boolean isOnClassPath(File jar) {
+        if (classPathEntries == null) {
+            Set<String> entries = new HashSet<String>();
+            for (String entry : System.getProperty("java.class.path", "").split(File.pathSeparator)) {
+                if (!entry.isEmpty()) {
+                    entries.add(canonical(new File(entry)));
+                }
+            }
+            classPathEntries = entries;
+        }
+        return classPathEntries.contains(canonical(jar));
+    }
+
+    /**
+     * 训练和归档使用的classpath: 当前classpath加上lib下的jar包
+     * 使用归档启动执行器时classpath必须与此一致
+     *
+     * @param lib
+     * @return
+     */
+    public static String classPath(File lib) {
+        StringBuilder cp = new StringBuilder(System.getProperty("java.class.path", ""));
+        File[] files = lib.listFiles();
+        if (files != null) {
+            Arrays.sort(files);
+            for (File f : files) {
+                if (f.isFile() && f.getName().endsWith(".jar") && !isOnClassPath(f)) {
+                    if (cp.length() > 0) {
+                        cp.append(File.pathSeparator);
+                    }
+                    cp.append(f.getAbsolutePath());
+                }
+            }
+        }
+        return cp.toString();
+    }
+
+    /**
+     * 在当前JVM中执行workload中的调用
+     *
+     * @param workload
+     * @return 执行的调用数
+     * @throws Exception
+     */
+    public static int train(File workload) throws Exception {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(workload), "UTF-8"));
+        int calls = 0;
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("\\s+");
+                String[] args = Arrays.copyOfRange(fields, 1, fields.length);
+                if ("tx".equals(fields[0])) {
+                    Loader.tx(args);
+                } else if ("query".equals(fields[0])) {
+                    Loader.query(args);
+                } else {
+                    System.out.println("unknown call:" + line);
+                    continue;
+                }
+                calls++;
+            }
+        } finally {
+            reader.close();
+        }
+        return calls;
+    }
+
+    /**
+     * 训练并生成归档
+     * 1. -XX:DumpLoadedClassList 下执行workload，记录加载的类
+     * 2. -Xshare:dump 按类列表生成归档
+     * 3. 分别在有无归档的情况下执行workload，输出耗时
+     *
+     * @param workload
+     * @param archive
+     * @return 0成功
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public static int dump(File workload, File archive) throws IOException, InterruptedException {
+        String cp = classPath(new File("lib"));
+        File classList = new File(archive.getAbsoluteFile().getParentFile(), CLASS_LIST);
+        int code = exec("-Xshare:off", "-XX:DumpLoadedClassList=" + classList.getAbsolutePath(),
+                "-cp", cp, CdsArchive.class.getName(), "train", workload.getPath());
+        if (code != 0) {
+            System.out.println("train failed:" + code);
+            return code;
+        }
+        code = exec("-Xshare:dump", "-XX:SharedClassListFile=" + classList.getAbsolutePath(),
+                "-XX:SharedArchiveFile=" + archive.getAbsolutePath(), "-cp", cp);
+        if (code != 0) {
+            System.out.println("dump failed:" + code);
+            return code;
+        }
+        long startTime = System.nanoTime();
+        exec("-Xshare:off", "-cp", cp, CdsArchive.class.getName(), "train", workload.getPath());
+        long coldTime = System.nanoTime() - startTime;
+        startTime = System.nanoTime();
+        exec("-Xshare:auto", "-XX:SharedArchiveFile=" + archive.getAbsolutePath(),
+                "-cp", cp, CdsArchive.class.getName(), "train", workload.getPath());
+        long sharedTime = System.nanoTime() - startTime;
+        System.out.println("archive:" + archive.getAbsolutePath());
+        System.out.println("classpath:" + cp);
+        System.out.println("without archive:" + coldTime / 1000000 + "ms,with archive:" + sharedTime / 1000000 + "ms");
+        return 0;
+    }
+
+    /**
+     * 用当前的java启动子进程
+     */
+    private static int exec(String... args) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<String>();
+        command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+        command.addAll(Arrays.asList(args));
+        Process process = new ProcessBuilder(command).inheritIO().start();
+        return process.waitFor();
+    }
+
+    private static String canonical(File file) {
+        try {
+            return file.getCanonicalPath();
+        } catch (IOException e) {
+            return file.getAbsolutePath();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length >= 2 && "train".equals(args[0])) {
+            int calls = train(new File(args[1]));
+            System.out.println("train calls:" + calls);
+            return;
+        }
+        if (args.length >= 2 && "dump".equals(args[0])) {
+            File archive = new File(args.length > 2 ? args[2] : ARCHIVE);
+            System.exit(dump(new File(args[1]), archive));
+        }
+        System.out.println("java cn.chain33.jvm.CdsArchive train <workload>");
+        System.out.println("java cn.chain33.jvm.CdsArchive dump <workload> [" + ARCHIVE + "]");
+    }
+}
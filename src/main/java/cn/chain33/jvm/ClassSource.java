@@ -0,0 +1,33 @@
+package cn.chain33.jvm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Set;
+
+/**
+ * 按需读取类字节码的来源，如jar包索引、合约镜像
+ */
+public interface ClassSource {
+    /**
+     * jar包中的非类条目(配置、ABI描述、数据表等)以 前缀+条目路径 为名，与类字节码放在同一个来源或存储中，
+     * 类名不会以该前缀开头
+     */
+    String RESOURCE_PREFIX = "/";
+
+    /**
+     * 来源包含的全部类名
+     *
+     * @return
+     */
+    Set<String> classNames();
+
+    /**
+     * 读取类字节码，名称以RESOURCE_PREFIX开头时读取资源
+     * 返回的缓冲区可直接交给 defineClass，使用完调用 BufferPool.release 归还
+     *
+     * @param clss
+     * @return 类不存在返回null
+     * @throws IOException
+     */
+    ByteBuffer read(String clss) throws IOException;
+}
@@ -0,0 +1,45 @@
+package cn.chain33.jvm;
+
+import java.io.File;
+import java.util.Map;
+
+/**
+ * 合约类字节码存储
+ * data (合约名称->(类文名-->类字节码)) 的存放方式，可以是堆上的表，
+ * 也可以是压缩后放在堆外的存储
+ */
+public interface ClassStore {
+
+    /**
+     * 保存一个合约的全部类字节码
+     *
+     * @param contractName 合约名称
+     * @param jar          合约jar包，存储淘汰字节码后可据此重新读取
+     * @param classes      类名->类字节码
+     */
+    void put(String contractName, File jar, Map<String, byte[]> classes);
+
+    /**
+     * 获取类字节码
+     *
+     * @param contractName
+     * @param clss
+     * @return 合约或类不存在返回null
+     */
+    byte[] get(String contractName, String clss);
+
+    /**
+     * 合约是否已加载
+     *
+     * @param contractName
+     * @return
+     */
+    boolean contains(String contractName);
+
+    /**
+     * 移除合约的全部类字节码
+     *
+     * @param contractName
+     */
+    void remove(String contractName);
+}
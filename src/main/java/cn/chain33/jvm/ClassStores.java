@@ -0,0 +1,20 @@
+package cn.chain33.jvm;
+
+/**
+ * 按系统属性创建类字节码存储
+ * -Dchain33.jvm.classStore=offheap        压缩后放在堆外，按容量淘汰
+ * -Dchain33.jvm.classStoreBytes=67108864  堆外存储的容量(字节)
+ * 默认使用堆上存储
+ */
+public final class ClassStores {
+
+    private ClassStores() {
+    }
+
+    public static ClassStore fromSystemProperties() {
+        if ("offheap".equals(System.getProperty("chain33.jvm.classStore"))) {
+            return new OffHeapClassStore(Long.getLong("chain33.jvm.classStoreBytes", OffHeapClassStore.DEFAULT_CAPACITY));
+        }
+        return new HeapClassStore();
+    }
+}
@@ -0,0 +1,148 @@
+package cn.chain33.jvm;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 合约的一个版本(generation)
+ * 每次加载或升级合约都会生成新的版本，每个版本有自己的类集合和类加载器，
+ * 升级后旧版本上正在执行的调用继续在旧版本上执行完，之后旧版本被释放，
+ * 它的类加载器和类不再被引用，可以被GC回收
+ */
+public class Contract {
+    /**
+     * 已释放
+     */
+    private static final int RELEASED = -1;
+
+    private final String name;
+    private final long version;
+    private final String entryClass;
+    /**
+     * 本版本包含的全部类名
+     */
+    private final Set<String> classes;
+    /**
+     * 本版本包含的全部资源路径(jar包中的非类条目)
+     */
+    private final Set<String> resources;
+    /**
+     * 按需读取类字节码的来源(lazyJar模式的jar包索引或合约镜像)，为null时从类字节码存储读取
+     */
+    private final ClassSource source;
+    /**
+     * 正在本版本上执行的调用数，RELEASED表示已释放
+     */
+    private final AtomicInteger inflight = new AtomicInteger();
+    private volatile boolean retired;
+
+    public Contract(String name, long version, String entryClass, Set<String> classes, ClassSource source) {
+        this(name, version, entryClass, classes, Collections.<String>emptySet(), source);
+    }
+
+    public Contract(String name, long version, String entryClass, Set<String> classes, Set<String> resources,
+                    ClassSource source) {
+        this.name = name;
+        this.version = version;
+        this.entryClass = entryClass;
+        this.classes = Collections.unmodifiableSet(new HashSet<String>(classes));
+        this.resources = Collections.unmodifiableSet(new HashSet<String>(resources));
+        this.source = source;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public String getEntryClass() {
+        return entryClass;
+    }
+
+    public Set<String> getClasses() {
+        return classes;
+    }
+
+    public boolean contains(String clss) {
+        return classes.contains(clss);
+    }
+
+    public Set<String> getResources() {
+        return resources;
+    }
+
+    public boolean containsResource(String path) {
+        return resources.contains(path);
+    }
+
+    public ClassSource getSource() {
+        return source;
+    }
+
+    /**
+     * 本版本在类字节码存储中的key
+     *
+     * @return
+     */
+    public String getStoreKey() {
+        return name + "@" + version;
+    }
+
+    public boolean isRetired() {
+        return retired;
+    }
+
+    public boolean isReleased() {
+        return inflight.get() == RELEASED;
+    }
+
+    public int getInflight() {
+        return Math.max(0, inflight.get());
+    }
+
+    /**
+     * 开始一次调用
+     *
+     * @return 版本已释放返回false，调用方应重新获取当前版本
+     */
+    public boolean enter() {
+        while (true) {
+            int n = inflight.get();
+            if (n == RELEASED) {
+                return false;
+            }
+            if (inflight.compareAndSet(n, n + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 结束一次调用
+     *
+     * @return 本版本已退役且这是最后一个调用，调用方负责释放资源
+     */
+    public boolean exit() {
+        return inflight.decrementAndGet() == 0 && retired && inflight.compareAndSet(0, RELEASED);
+    }
+
+    /**
+     * 退役，不再接受新的调用
+     *
+     * @return 没有正在执行的调用，调用方负责释放资源
+     */
+    public boolean retire() {
+        retired = true;
+        return inflight.compareAndSet(0, RELEASED);
+    }
+
+    @Override
+    public String toString() {
+        return name + "@" + version + (retired ? "(retired)" : "");
+    }
+}
@@ -0,0 +1,318 @@
+package cn.chain33.jvm;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.jar.JarFile;
+
+/**
+ * 合约镜像
+ * 部署时把合约jar包转成一个不压缩、带索引的镜像文件，加载时直接内存映射，
+ * 类字节码从映射区域切片后交给 defineClass，不需要枚举jar包和解压。
+ * 内容hash只在生成镜像时校验(部署工具)，加载时只检查文件结构和jar包的大小、修改时间，不读取类字节码区
+ *
+ * 文件格式(大端):
+ * magic(4) version(4) jarLength(8) jarModified(8) entryClass(UTF) count(4)
+ * count * [className(UTF) offset(4) length(4)]
+ * sha256(32)  之前的文件头和类字节码区的内容hash
+ * 类字节码区
+ * jar包中的非类条目也放入镜像，名称为 RESOURCE_PREFIX+路径；
+ * jarLength、jarModified 是生成镜像时jar包的大小和修改时间，jar包重新部署后旧镜像不再使用
+ */
+public class ContractImage implements ClassSource {
+    public static final String SUFFIX = ".img";
+    private static final int MAGIC = 0x43333349;
+    private static final int VERSION = 4;
+
+    private final File file;
+    private final String entryClass;
+    private final long jarLength;
+    private final long jarModified;
+    private final byte[] hash;
+    private final MappedByteBuffer mapped;
+    /**
+     * 文件头(不含hash)的长度，hash覆盖它和类字节码区
+     */
+    private final int headerLength;
+    /**
+     * 类字节码区在文件中的起始位置
+     */
+    private final int base;
+    /**
+     * slots 类名->[offset,length]
+     */
+    private final HashMap<String, int[]> slots;
+    private final Set<String> classNames = new HashSet<String>();
+    private final Set<String> resourceNames = new HashSet<String>();
+
+    private ContractImage(File file, String entryClass, long jarLength, long jarModified, byte[] hash,
+                          MappedByteBuffer mapped, int headerLength, HashMap<String, int[]> slots) {
+        this.file = file;
+        this.entryClass = entryClass;
+        this.jarLength = jarLength;
+        this.jarModified = jarModified;
+        this.hash = hash;
+        this.mapped = mapped;
+        this.headerLength = headerLength;
+        this.base = headerLength + 32;
+        this.slots = slots;
+        for (String name : slots.keySet()) {
+            if (name.startsWith(RESOURCE_PREFIX)) {
+                resourceNames.add(name.substring(RESOURCE_PREFIX.length()));
+            } else {
+                classNames.add(name);
+            }
+        }
+    }
+
+    /**
+     * 映射并解析镜像文件，检查每个条目都在文件范围内
+     * 不校验内容hash，镜像在生成时已经校验过，需要时调用 verify
+     *
+     * @param file
+     * @return
+     * @throws IOException 不是镜像文件、文件被截断或条目越界
+     */
+    public static ContractImage open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        MappedByteBuffer mapped;
+        try {
+            mapped = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        } finally {
+            // 映射建立后关闭文件不影响映射
+            raf.close();
+        }
+        ByteBuffer header = mapped.duplicate();
+        if (header.remaining() < 8 || header.getInt() != MAGIC) {
+            throw new IOException("not a contract image: " + file);
+        }
+        int version = header.getInt();
+        if (version != VERSION) {
+            throw new IOException("unsupported contract image version " + version + ": " + file);
+        }
+        try {
+            long jarLength = header.getLong();
+            long jarModified = header.getLong();
+            String entryClass = readUTF(header);
+            int count = header.getInt();
+            // 每个条目至少占10字节
+            if (count < 0 || count > header.remaining() / 10) {
+                throw new IOException("bad entry count " + count + ": " + file);
+            }
+            HashMap<String, int[]> slots = new HashMap<String, int[]>(count * 2);
+            for (int i = 0; i < count; i++) {
+                String name = readUTF(header);
+                slots.put(name, new int[]{header.getInt(), header.getInt()});
+            }
+            int headerLength = header.position();
+            byte[] hash = new byte[32];
+            header.get(hash);
+            long size = mapped.capacity() - header.position();
+            for (Map.Entry<String, int[]> e : slots.entrySet()) {
+                int[] slot = e.getValue();
+                if (slot[0] < 0 || slot[1] < 0 || (long) slot[0] + slot[1] > size) {
+                    throw new IOException("bad slot for " + e.getKey() + ": " + file);
+                }
+            }
+            return new ContractImage(file, entryClass, jarLength, jarModified, hash, mapped, headerLength, slots);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("truncated contract image: " + file);
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * 合约入口类
+     *
+     * @return
+     */
+    public String getEntryClass() {
+        return entryClass;
+    }
+
+    /**
+     * 镜像是否由jar的当前内容生成，只比较大小和修改时间，不读取jar包
+     *
+     * @param jar
+     * @return
+     */
+    public boolean isBuiltFrom(File jar) {
+        return jar.length() == jarLength && jar.lastModified() == jarModified;
+    }
+
+    /**
+     * 文件头和类字节码区的SHA-256，可以作为镜像内容的标识
+     *
+     * @return
+     */
+    public byte[] getHash() {
+        return hash.clone();
+    }
+
+    @Override
+    public Set<String> classNames() {
+        return classNames;
+    }
+
+    /**
+     * 镜像中的全部资源路径
+     *
+     * @return
+     */
+    public Set<String> resourceNames() {
+        return resourceNames;
+    }
+
+    /**
+     * 返回映射区域的只读切片，不复制字节码
+     */
+    @Override
+    public ByteBuffer read(String clss) {
+        int[] slot = slots.get(clss);
+        if (slot == null) {
+            return null;
+        }
+        ByteBuffer view = mapped.duplicate();
+        view.position(base + slot[0]);
+        view.limit(base + slot[0] + slot[1]);
+        return view.slice();
+    }
+
+    /**
+     * 重新计算文件头(包括条目表)和类字节码区的hash并与镜像中记录的比较，需要读取整个文件
+     *
+     * @return
+     */
+    public boolean verify() {
+        MessageDigest digest = sha256();
+        ByteBuffer header = mapped.duplicate();
+        header.limit(headerLength);
+        digest.update(header);
+        ByteBuffer body = mapped.duplicate();
+        body.position(base);
+        digest.update(body);
+        return Arrays.equals(hash, digest.digest());
+    }
+
+    /**
+     * 把合约jar包转成镜像文件，生成后重新映射并校验hash
+     *
+     * @param jarFile 合约jar包，文件名为 合约名称.jar
+     * @param out     镜像文件
+     * @return
+     * @throws IOException
+     */
+    public static ContractImage build(File jarFile, File out) throws IOException {
+        String contractName = jarFile.getName().replace(".jar", "");
+        // 按类名排序，同一个jar包生成的镜像完全一致
+        TreeMap<String, byte[]> classes = new TreeMap<String, byte[]>();
+        JarFile jar = new JarFile(jarFile);
+        String declared = EntryPoint.declaredEntryClass(jar);
+        JarIndex index = new JarIndex(jar);
+        try {
+            for (String clss : index.classNames()) {
+                classes.put(clss, index.readBytes(clss));
+            }
+            for (String path : index.resourceNames()) {
+                classes.put(RESOURCE_PREFIX + path, index.readBytes(RESOURCE_PREFIX + path));
+            }
+        } finally {
+            index.close();
+        }
+        if (declared != null && !classes.containsKey(declared)) {
+            throw new IOException(EntryPoint.ENTRY_CLASS_ATTRIBUTE + " " + declared + " not found in " + jarFile);
+        }
+        String entry = declared == null ? "" : declared;
+        for (String name : classes.keySet()) {
+            //判断类文件是否为入口类
+            if (declared == null && !name.startsWith(RESOURCE_PREFIX) && name.endsWith(contractName)) {
+                entry = name;
+            }
+        }
+        ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(headerBytes);
+        header.writeInt(MAGIC);
+        header.writeInt(VERSION);
+        header.writeLong(jarFile.length());
+        header.writeLong(jarFile.lastModified());
+        header.writeUTF(entry);
+        header.writeInt(classes.size());
+        int offset = 0;
+        for (Map.Entry<String, byte[]> e : classes.entrySet()) {
+            header.writeUTF(e.getKey());
+            header.writeInt(offset);
+            header.writeInt(e.getValue().length);
+            offset += e.getValue().length;
+        }
+        header.flush();
+        MessageDigest digest = sha256();
+        digest.update(headerBytes.toByteArray());
+        for (byte[] bytes : classes.values()) {
+            digest.update(bytes);
+        }
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(out)));
+        try {
+            headerBytes.writeTo(output);
+            output.write(digest.digest());
+            for (byte[] bytes : classes.values()) {
+                output.write(bytes);
+            }
+        } finally {
+            output.close();
+        }
+        ContractImage image = open(out);
+        if (!image.verify()) {
+            throw new IOException("contract image hash mismatch: " + out);
+        }
+        return image;
+    }
+
+    private static String readUTF(ByteBuffer buffer) throws IOException {
+        int length = buffer.getShort() & 0xffff;
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 部署工具: java cn.chain33.jvm.ContractImage guess.jar [guess.img]
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("java cn.chain33.jvm.ContractImage <contract.jar> [contract" + SUFFIX + "]");
+            return;
+        }
+        File jar = new File(args[0]);
+        File out = args.length > 1 ? new File(args[1])
+                : new File(jar.getAbsoluteFile().getParentFile(), jar.getName().replace(".jar", "") + SUFFIX);
+        ContractImage image = build(jar, out);
+        System.out.println("image:" + out + ",entry:" + image.getEntryClass() + ",classes:" + image.classNames().size());
+    }
+}
@@ -0,0 +1,609 @@
+package cn.chain33.jvm;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 合约加载时的确定性和安全检查
+ * 解析合约每个类的常量池，检查引用的类、方法和类型描述符，
+ * 禁止随机数、时间、线程、文件和网络IO、反射等会导致各节点执行结果不一致的API，
+ * 并检查方法字节码，静态字段只能在<clinit>中写入，<clinit>中不能有循环(它不计量，见MeterInstrumenter)。
+ * 检查结果按规则版本和jar包(或镜像)内容的SHA-256缓存，同一个合约只检查一次，执行交易时没有任何额外开销
+ *
+ * -Dchain33.jvm.scan=false           关闭检查
+ * -Dchain33.jvm.scanCacheDir=目录     检查结果同时缓存到磁盘，进程重启后仍然有效
+ */
+public final class DeterminismScanner {
+    /**
+     * 禁止引用的类，以/结尾的是包，以*结尾的是类名前缀，其余为完整类名
+     */
+    private static final String[] FORBIDDEN_CLASSES = {
+            "java/util/Random",
+            "java/util/SplittableRandom",
+            "java/util/concurrent/ThreadLocalRandom",
+            "java/security/SecureRandom",
+            "java/lang/Thread",
+            "java/lang/ThreadGroup",
+            "java/lang/Runtime",
+            "java/lang/Process*",
+            "java/lang/ClassLoader",
+            "java/util/Timer*",
+            "java/util/concurrent/Executor*",
+            "java/util/concurrent/ForkJoin*",
+            "java/util/concurrent/ScheduledExecutorService",
+            // 默认在公共ForkJoinPool上执行
+            "java/util/concurrent/CompletableFuture",
+            "java/io/File*",
+            "java/io/RandomAccessFile",
+            "java/nio/file/",
+            "java/nio/channels/",
+            "java/net/",
+            "java/lang/reflect/",
+            "java/time/Clock",
+            "sun/",
+    };
+    /**
+     * 禁止调用的方法: 类名.方法名[描述符]，类名可以以*结尾，方法名为*时禁止该类的全部方法
+     */
+    private static final String[] FORBIDDEN_METHODS = {
+            "java/lang/System.currentTimeMillis",
+            "java/lang/System.nanoTime",
+            "java/lang/System.getenv",
+            "java/lang/System.getProperty",
+            "java/lang/System.getProperties",
+            "java/lang/System.identityHashCode",
+            "java/lang/System.exit",
+            "java/lang/Math.random",
+            "java/lang/StrictMath.random",
+            "java/lang/Class.forName",
+            "java/lang/Object.wait",
+            "java/lang/Object.notify",
+            "java/lang/Object.notifyAll",
+            "java/util/UUID.randomUUID",
+            "java/util/Date.<init>()V",
+            "java/util/Calendar.getInstance",
+            "java/time/*.now",
+            // 通过Lookup.findStatic等可以调用任何方法而不在常量池中留下方法引用；
+            // lambda的引导方法只在描述符中出现Lookup，不调用它的方法，不受影响
+            "java/lang/invoke/MethodHandles*.*",
+    };
+
+    /**
+     * 检查规则的版本，是缓存键的一部分，规则有任何变化(包括上面的列表)都要加一，
+     * 否则规则收紧前缓存的通过结果(包括磁盘上的)会继续放行现在禁止的合约
+     * 2: 禁止MethodHandles和CompletableFuture
+     * 3: 禁止<clinit>以外写静态字段
+     * 4: 禁止<clinit>中的循环
+     */
+    static final int RULES_VERSION = 4;
+
+    private static final boolean ENABLED = !"false".equals(System.getProperty("chain33.jvm.scan"));
+    private static final String CACHE_DIR = System.getProperty("chain33.jvm.scanCacheDir");
+
+    /**
+     * verdicts 缓存键(规则版本-内容哈希)->违规列表，空列表表示通过
+     */
+    private static final ConcurrentHashMap<String, List<String>> verdicts = new ConcurrentHashMap<String, List<String>>();
+
+    private DeterminismScanner() {
+    }
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * 检查合约的全部类，缓存命中时不读取类字节码
+     *
+     * @param file   用于计算内容哈希
+     * @param source
+     * @return 违规列表，空列表表示通过
+     * @throws IOException
+     */
+    public static List<String> verify(File file, ClassSource source) throws IOException {
+        return verify(hash(file), source);
+    }
+
+    /**
+     * 检查合约的全部类，内容hash由调用方提供(如镜像文件头中记录的hash)，不读取文件
+     *
+     * @param contentHash 合约内容的hash
+     * @param source
+     * @return 违规列表，空列表表示通过
+     * @throws IOException
+     */
+    public static List<String> verify(String contentHash, ClassSource source) throws IOException {
+        String key = cacheKey(contentHash);
+        List<String> verdict = cached(key);
+        if (verdict == null) {
+            List<String> violations = new ArrayList<String>();
+            for (String clss : source.classNames()) {
+                ByteBuffer buffer = source.read(clss);
+                if (buffer == null) {
+                    continue;
+                }
+                try {
+                    byte[] bytes = new byte[buffer.remaining()];
+                    buffer.duplicate().get(bytes);
+                    scan(clss, bytes, violations);
+                } finally {
+                    BufferPool.release(buffer);
+                }
+            }
+            verdict = store(key, violations);
+        }
+        return verdict;
+    }
+
+    /**
+     * 检查结果的缓存键，规则版本变化后之前的结果全部失效
+     *
+     * @param contentHash
+     * @return
+     */
+    static String cacheKey(String contentHash) {
+        return "v" + RULES_VERSION + "-" + contentHash;
+    }
+
+    /**
+     * 检查一个类，违规加入violations
+     *
+     * @param clss
+     * @param bytes
+     * @param violations
+     * @throws IOException 不是合法的类文件
+     */
+    public static void scan(String clss, byte[] bytes, List<String> violations) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        if (in.readInt() != 0xCAFEBABE) {
+            throw new IOException("not a class file: " + clss);
+        }
+        in.readUnsignedShort();
+        in.readUnsignedShort();
+        int count = in.readUnsignedShort();
+        int[] tags = new int[count];
+        int[] first = new int[count];
+        int[] second = new int[count];
+        String[] utf8 = new String[count];
+        for (int i = 1; i < count; i++) {
+            int tag = in.readUnsignedByte();
+            tags[i] = tag;
+            switch (tag) {
+                case 1:
+                    utf8[i] = in.readUTF();
+                    break;
+                case 3:
+                case 4:
+                    in.readInt();
+                    break;
+                case 5:
+                case 6:
+                    in.readLong();
+                    i++;
+                    break;
+                case 7:
+                case 8:
+                case 16:
+                case 19:
+                case 20:
+                    first[i] = in.readUnsignedShort();
+                    break;
+                case 15:
+                    in.readUnsignedByte();
+                    first[i] = in.readUnsignedShort();
+                    break;
+                case 9:
+                case 10:
+                case 11:
+                case 12:
+                case 17:
+                case 18:
+                    first[i] = in.readUnsignedShort();
+                    second[i] = in.readUnsignedShort();
+                    break;
+                default:
+                    throw new IOException("bad constant pool tag " + tag + " in " + clss);
+            }
+        }
+        TreeSet<String> found = new TreeSet<String>();
+        for (int i = 1; i < count; i++) {
+            switch (tags[i]) {
+                case 7:
+                    checkType(elementType(utf8[first[i]]), found);
+                    break;
+                case 12:
+                    checkDescriptor(utf8[second[i]], found);
+                    break;
+                case 10:
+                case 11:
+                    String owner = elementType(utf8[first[first[i]]]);
+                    int nameAndType = second[i];
+                    checkMethod(owner, utf8[first[nameAndType]], utf8[second[nameAndType]], found);
+                    break;
+                default:
+                    break;
+            }
+        }
+        // 跳过 access_flags this_class super_class interfaces
+        in.readUnsignedShort();
+        in.readUnsignedShort();
+        in.readUnsignedShort();
+        skip(in, in.readUnsignedShort() * 2);
+        int fields = in.readUnsignedShort();
+        for (int i = 0; i < fields; i++) {
+            skip(in, 6);
+            skipAttributes(in);
+        }
+        int methods = in.readUnsignedShort();
+        for (int i = 0; i < methods; i++) {
+            in.readUnsignedShort();
+            String method = utf8[in.readUnsignedShort()];
+            in.readUnsignedShort();
+            int attributes = in.readUnsignedShort();
+            for (int j = 0; j < attributes; j++) {
+                String attribute = utf8[in.readUnsignedShort()];
+                int length = in.readInt();
+                if ("Code".equals(attribute)) {
+                    byte[] code = new byte[length];
+                    in.readFully(code);
+                    try {
+                        checkCode(code, "<clinit>".equals(method), utf8, first, second, found);
+                    } catch (RuntimeException e) {
+                        throw new IOException("bad code in " + clss + "." + method + ": " + e);
+                    }
+                } else {
+                    skip(in, length);
+                }
+            }
+        }
+        for (String violation : found) {
+            violations.add(clss + " -> " + violation);
+        }
+    }
+
+    /**
+     * 类的静态字段只允许在静态初始化(<clinit>)中写入
+     * 同一个合约版本的类加载器被多次调用复用，静态字段的值会保留到下一次调用，
+     * 是否保留取决于各节点的加载器缓存，会导致执行结果不一致。
+     * <clinit>不计量，其中不允许向后跳转，也不允许异常处理器位于它保护的范围结束之前，
+     * 否则死循环会让第一笔用到这个类的交易无法结束；它调用的方法仍然计量
+     *
+     * @param attribute Code属性
+     * @param clinit    是否是<clinit>
+     */
+    private static void checkCode(byte[] attribute, boolean clinit, String[] utf8, int[] first, int[] second,
+                                  TreeSet<String> found) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(attribute);
+        buffer.getShort();
+        buffer.getShort();
+        int length = buffer.getInt();
+        int start = buffer.position();
+        int end = start + length;
+        if (length < 0 || end > attribute.length) {
+            throw new IOException("bad code length " + length);
+        }
+        int pc = start;
+        while (pc < end) {
+            int opcode = attribute[pc] & 0xff;
+            if (opcode == 0xb3 && !clinit) {
+                int field = ((attribute[pc + 1] & 0xff) << 8) | (attribute[pc + 2] & 0xff);
+                String owner = utf8[first[first[field]]];
+                String name = utf8[first[second[field]]];
+                found.add("static field " + owner.replace('/', '.') + "." + name + " written outside <clinit>");
+            }
+            if (clinit && jumpsBack(attribute, pc, start)) {
+                found.add("loop in <clinit>");
+            }
+            int n = instructionLength(attribute, pc, start);
+            if (n <= 0) {
+                throw new IOException("bad instruction at " + (pc - start));
+            }
+            pc += n;
+        }
+        if (clinit) {
+            buffer.position(end);
+            int handlers = buffer.getShort() & 0xffff;
+            for (int i = 0; i < handlers; i++) {
+                buffer.getShort();
+                int rangeEnd = buffer.getShort() & 0xffff;
+                int handler = buffer.getShort() & 0xffff;
+                buffer.getShort();
+                if (handler < rangeEnd) {
+                    found.add("loop in <clinit>");
+                }
+            }
+        }
+    }
+
+    /**
+     * 指令是否可能跳转到自身或之前的位置
+     */
+    private static boolean jumpsBack(byte[] code, int pc, int start) {
+        int opcode = code[pc] & 0xff;
+        if ((opcode >= 0x99 && opcode <= 0xa8) || opcode == 0xc6 || opcode == 0xc7) {
+            return ByteBuffer.wrap(code, pc + 1, 2).getShort() <= 0;
+        }
+        if (opcode == 0xc8 || opcode == 0xc9) {
+            return ByteBuffer.wrap(code, pc + 1, 4).getInt() <= 0;
+        }
+        if (opcode == 0xa9) {
+            // ret 的目标由jsr决定，jsr已按向后跳转检查
+            return false;
+        }
+        if (opcode == 0xaa || opcode == 0xab) {
+            int p = pc + 1 + ((4 - (pc + 1 - start) % 4) % 4);
+            ByteBuffer table = ByteBuffer.wrap(code);
+            if (table.getInt(p) <= 0) {
+                return true;
+            }
+            int count;
+            int step;
+            int offset;
+            if (opcode == 0xaa) {
+                count = table.getInt(p + 8) - table.getInt(p + 4) + 1;
+                step = 4;
+                offset = p + 12;
+            } else {
+                count = table.getInt(p + 4);
+                step = 8;
+                offset = p + 12;
+            }
+            for (int i = 0; i < count; i++) {
+                if (table.getInt(offset + i * step) <= 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 指令的字节数
+     *
+     * @param code  包含指令的数组
+     * @param pc    指令位置
+     * @param start 方法字节码的起始位置，switch的对齐以它为基准
+     */
+    private static int instructionLength(byte[] code, int pc, int start) throws IOException {
+        int opcode = code[pc] & 0xff;
+        switch (opcode) {
+            case 0x10: // bipush
+            case 0x12: // ldc
+            case 0xa9: // ret
+            case 0xbc: // newarray
+                return 2;
+            case 0x11: // sipush
+            case 0x13: // ldc_w
+            case 0x14: // ldc2_w
+            case 0x84: // iinc
+            case 0xbb: // new
+            case 0xbd: // anewarray
+            case 0xc0: // checkcast
+            case 0xc1: // instanceof
+            case 0xc6: // ifnull
+            case 0xc7: // ifnonnull
+                return 3;
+            case 0xc5: // multianewarray
+                return 4;
+            case 0xb9: // invokeinterface
+            case 0xba: // invokedynamic
+            case 0xc8: // goto_w
+            case 0xc9: // jsr_w
+                return 5;
+            case 0xc4: // wide
+                return (code[pc + 1] & 0xff) == 0x84 ? 6 : 4;
+            case 0xaa: { // tableswitch
+                int p = pc + 1 + ((4 - (pc + 1 - start) % 4) % 4);
+                int low = ByteBuffer.wrap(code, p + 4, 4).getInt();
+                int high = ByteBuffer.wrap(code, p + 8, 4).getInt();
+                return p - pc + 12 + (high - low + 1) * 4;
+            }
+            case 0xab: { // lookupswitch
+                int p = pc + 1 + ((4 - (pc + 1 - start) % 4) % 4);
+                int pairs = ByteBuffer.wrap(code, p + 4, 4).getInt();
+                return p - pc + 8 + pairs * 8;
+            }
+            default:
+                break;
+        }
+        if ((opcode >= 0x15 && opcode <= 0x19) || (opcode >= 0x36 && opcode <= 0x3a)) {
+            // load/store
+            return 2;
+        }
+        if ((opcode >= 0x99 && opcode <= 0xa8) || (opcode >= 0xb2 && opcode <= 0xb8)) {
+            // 跳转、字段和方法调用
+            return 3;
+        }
+        if (opcode > 0xc9) {
+            throw new IOException("bad opcode " + opcode);
+        }
+        return 1;
+    }
+
+    private static void skipAttributes(DataInputStream in) throws IOException {
+        int attributes = in.readUnsignedShort();
+        for (int i = 0; i < attributes; i++) {
+            in.readUnsignedShort();
+            skip(in, in.readInt());
+        }
+    }
+
+    private static void skip(DataInputStream in, int n) throws IOException {
+        if (in.skipBytes(n) != n) {
+            throw new IOException("truncated class file");
+        }
+    }
+
+    private static void checkType(String type, TreeSet<String> found) {
+        if (type == null) {
+            return;
+        }
+        for (String rule : FORBIDDEN_CLASSES) {
+            if (matches(rule, type)) {
+                found.add(type.replace('/', '.'));
+                return;
+            }
+        }
+    }
+
+    private static void checkDescriptor(String descriptor, TreeSet<String> found) {
+        int start = descriptor.indexOf('L');
+        while (start >= 0) {
+            int end = descriptor.indexOf(';', start);
+            if (end < 0) {
+                return;
+            }
+            checkType(descriptor.substring(start + 1, end), found);
+            start = descriptor.indexOf('L', end);
+        }
+    }
+
+    private static void checkMethod(String owner, String name, String descriptor, TreeSet<String> found) {
+        if (owner == null) {
+            return;
+        }
+        for (String rule : FORBIDDEN_METHODS) {
+            int dot = rule.indexOf('.');
+            String ruleName = rule.substring(dot + 1);
+            String ruleDescriptor = null;
+            int paren = ruleName.indexOf('(');
+            if (paren >= 0) {
+                ruleDescriptor = ruleName.substring(paren);
+                ruleName = ruleName.substring(0, paren);
+            }
+            if (matches(rule.substring(0, dot), owner) && (ruleName.equals("*") || ruleName.equals(name))
+                    && (ruleDescriptor == null || ruleDescriptor.equals(descriptor))) {
+                found.add(owner.replace('/', '.') + "." + name);
+                return;
+            }
+        }
+    }
+
+    private static boolean matches(String rule, String type) {
+        if (rule.endsWith("/") || rule.endsWith("*")) {
+            return type.startsWith(rule.substring(0, rule.length() - 1));
+        }
+        return rule.equals(type);
+    }
+
+    /**
+     * 数组类型取元素类型，基本类型数组返回null
+     */
+    private static String elementType(String name) {
+        if (name == null || !name.startsWith("[")) {
+            return name;
+        }
+        int start = name.lastIndexOf('[') + 1;
+        if (name.charAt(start) != 'L') {
+            return null;
+        }
+        return name.substring(start + 1, name.length() - 1);
+    }
+
+    private static List<String> cached(String hash) throws IOException {
+        List<String> verdict = verdicts.get(hash);
+        if (verdict != null || CACHE_DIR == null) {
+            return verdict;
+        }
+        File file = new File(CACHE_DIR, hash + ".verdict");
+        if (!file.isFile()) {
+            return null;
+        }
+        List<String> violations = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty()) {
+                    violations.add(line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        verdict = Collections.unmodifiableList(violations);
+        verdicts.putIfAbsent(hash, verdict);
+        return verdict;
+    }
+
+    private static List<String> store(String hash, List<String> violations) throws IOException {
+        List<String> verdict = Collections.unmodifiableList(violations);
+        verdicts.putIfAbsent(hash, verdict);
+        if (CACHE_DIR != null) {
+            File dir = new File(CACHE_DIR);
+            dir.mkdirs();
+            File tmp = new File(dir, hash + ".tmp" + Thread.currentThread().getId());
+            Writer writer = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+            try {
+                for (String violation : violations) {
+                    writer.write(violation);
+                    writer.write('\n');
+                }
+            } finally {
+                writer.close();
+            }
+            if (!tmp.renameTo(new File(dir, hash + ".verdict"))) {
+                tmp.delete();
+            }
+        }
+        return verdict;
+    }
+
+    /**
+     * 文件内容的SHA-256
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static String hash(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        InputStream input = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = input.read(buffer)) != -1) {
+                digest.update(buffer, 0, n);
+            }
+        } finally {
+            input.close();
+        }
+        return hex(digest.digest());
+    }
+
+    /**
+     * 十六进制字符串
+     *
+     * @param bytes
+     * @return
+     */
+    public static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,540 @@
+package cn.chain33.jvm;
+
+import cn.chain33.jvm.abi.AbiReader;
+import cn.chain33.jvm.abi.AbiWriter;
+import cn.chain33.jvm.abi.Address;
+import cn.chain33.jvm.interfaces.QueryFunction;
+import cn.chain33.jvm.interfaces.QuerySink;
+import cn.chain33.jvm.interfaces.TxFunction;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.Manifest;
+import java.util.jar.JarFile;
+
+/**
+ * 合约入口方法
+ * 入口类的静态 tx/query 方法在第一次调用时解析成 MethodHandle，
+ * 和合约类加载器一起缓存，之后的调用不再做反射查找。
+ * 入口类用 @TxFunction/@QueryFunction 声明了函数时，解析时建立 函数名->方法句柄和参数解码器 的分发表，
+ * 调用时 args[0] 为函数名，未声明的函数在执行任何合约代码之前被拒绝。
+ * 声明的函数也可以用二进制编码调用(见 AbiReader)，按函数选择子分发，参数按类型从字节解码，
+ * 唯一参数为 AbiReader 的函数直接拿到解码器自己读取参数；
+ * 分发表的方法句柄是统一的 (Object, Object[]) 类型，每次调用都分配参数数组，int/long/boolean 参数被装箱，
+ * 只有 AbiReader 本身的基本类型读取不分配对象；
+ * 最后一个参数为 QuerySink 的查询函数逐条输出结果，用 query(args, sink) 调用
+ */
+public class EntryPoint {
+    /**
+     * jar包 MANIFEST.MF 中声明合约入口类的属性，未声明时按类名以合约名称结尾查找入口类
+     */
+    public static final String ENTRY_CLASS_ATTRIBUTE = "Chain33-Entry-Class";
+
+    private static final MethodType TX_TYPE = MethodType.methodType(void.class, String[].class);
+    private static final MethodType QUERY_TYPE = MethodType.methodType(String[].class, String[].class);
+    /**
+     * 分发表中方法句柄的统一类型: (实例, 解码后的参数)返回值，静态方法忽略实例
+     */
+    private static final MethodType FUNCTION_TYPE = MethodType.methodType(Object.class, Object.class, Object[].class);
+
+    private final Class<?> entryClass;
+    /**
+     * tx(String[]) 入口，合约未提供时为null
+     */
+    private final MethodHandle tx;
+    /**
+     * query(String[]) 入口，合约未提供时为null
+     */
+    private final MethodHandle query;
+    /**
+     * 声明的交易函数和查询函数，未声明时为空，使用 tx/query 入口
+     */
+    private final Map<String, Function> txFunctions;
+    private final Map<String, Function> queryFunctions;
+    /**
+     * 按函数选择子查找的数组，函数很少，顺序比较不需要装箱
+     */
+    private final Function[] txSelectors;
+    private final Function[] querySelectors;
+
+    /**
+     * 参数解码器，把字符串参数或二进制编码转成方法的参数类型
+     */
+    interface Decoder {
+        Object decode(String value);
+
+        Object read(AbiReader reader);
+    }
+
+    private static final Decoder STRING = new Decoder() {
+        @Override
+        public Object decode(String value) {
+            return value;
+        }
+
+        @Override
+        public Object read(AbiReader reader) {
+            return reader.readString();
+        }
+    };
+    private static final Decoder INT = new Decoder() {
+        @Override
+        public Object decode(String value) {
+            return Integer.valueOf(value);
+        }
+
+        @Override
+        public Object read(AbiReader reader) {
+            return reader.readInt();
+        }
+    };
+    private static final Decoder LONG = new Decoder() {
+        @Override
+        public Object decode(String value) {
+            return Long.valueOf(value);
+        }
+
+        @Override
+        public Object read(AbiReader reader) {
+            return reader.readLong();
+        }
+    };
+    private static final Decoder BOOLEAN = new Decoder() {
+        @Override
+        public Object decode(String value) {
+            if ("true".equals(value)) {
+                return Boolean.TRUE;
+            }
+            if ("false".equals(value)) {
+                return Boolean.FALSE;
+            }
+            throw new IllegalArgumentException("not a boolean: " + value);
+        }
+
+        @Override
+        public Object read(AbiReader reader) {
+            return reader.readBoolean();
+        }
+    };
+    /**
+     * byte[]和Address的字符串参数为十六进制
+     */
+    private static final Decoder BYTES = new Decoder() {
+        @Override
+        public Object decode(String value) {
+            if (value.length() % 2 != 0) {
+                throw new IllegalArgumentException("not hex: " + value);
+            }
+            byte[] bytes = new byte[value.length() / 2];
+            for (int i = 0; i < bytes.length; i++) {
+                int high = Character.digit(value.charAt(i * 2), 16);
+                int low = Character.digit(value.charAt(i * 2 + 1), 16);
+                if (high < 0 || low < 0) {
+                    throw new IllegalArgumentException("not hex: " + value);
+                }
+                bytes[i] = (byte) (high << 4 | low);
+            }
+            return bytes;
+        }
+
+        @Override
+        public Object read(AbiReader reader) {
+            return reader.readBytes();
+        }
+    };
+    private static final Decoder ADDRESS = new Decoder() {
+        @Override
+        public Object decode(String value) {
+            return Address.fromHex(value);
+        }
+
+        @Override
+        public Object read(AbiReader reader) {
+            return reader.readAddress();
+        }
+    };
+
+    /**
+     * 分发表中的一个函数
+     */
+    private static final class Function {
+        final String name;
+        final int selector;
+        /**
+         * 唯一参数为AbiReader，只能用二进制编码调用
+         */
+        final boolean raw;
+        /**
+         * 最后一个参数为QuerySink
+         */
+        final boolean streaming;
+        /**
+         * FUNCTION_TYPE类型的方法句柄
+         */
+        final MethodHandle handle;
+        /**
+         * 实例方法的无参构造函数，静态方法为null
+         */
+        final MethodHandle constructor;
+        final Decoder[] decoders;
+
+        Function(String name, MethodHandle handle, MethodHandle constructor, Decoder[] decoders, boolean raw,
+                 boolean streaming) {
+            this.name = name;
+            this.selector = AbiWriter.selector(name);
+            this.raw = raw;
+            this.streaming = streaming;
+            this.handle = handle;
+            this.constructor = constructor;
+            this.decoders = decoders;
+        }
+    }
+
+    private EntryPoint(Class<?> entryClass, MethodHandle tx, MethodHandle query,
+                       Map<String, Function> txFunctions, Map<String, Function> queryFunctions) {
+        this.entryClass = entryClass;
+        this.tx = tx;
+        this.query = query;
+        this.txFunctions = txFunctions;
+        this.queryFunctions = queryFunctions;
+        this.txSelectors = selectors(txFunctions);
+        this.querySelectors = selectors(queryFunctions);
+    }
+
+    private static Function[] selectors(Map<String, Function> table) {
+        Function[] functions = table.values().toArray(new Function[table.size()]);
+        for (int i = 0; i < functions.length; i++) {
+            for (int j = i + 1; j < functions.length; j++) {
+                if (functions[i].selector == functions[j].selector) {
+                    throw new IllegalStateException("selector collision: " + functions[i].name + "," + functions[j].name);
+                }
+            }
+        }
+        return functions;
+    }
+
+    /**
+     * 解析合约入口类的 tx/query 方法和声明的函数
+     *
+     * @param entryClass
+     * @return
+     * @throws IllegalAccessException
+     */
+    public static EntryPoint resolve(Class<?> entryClass) throws IllegalAccessException {
+        Map<String, Function> txFunctions = new HashMap<String, Function>();
+        Map<String, Function> queryFunctions = new HashMap<String, Function>();
+        for (Method method : entryClass.getMethods()) {
+            TxFunction txFunction = method.getAnnotation(TxFunction.class);
+            if (txFunction != null) {
+                add(txFunctions, txFunction.value(), method);
+            }
+            QueryFunction queryFunction = method.getAnnotation(QueryFunction.class);
+            if (queryFunction != null) {
+                add(queryFunctions, queryFunction.value(), method);
+            }
+        }
+        return new EntryPoint(entryClass, find(entryClass, "tx", TX_TYPE), find(entryClass, "query", QUERY_TYPE),
+                txFunctions, queryFunctions);
+    }
+
+    private static MethodHandle find(Class<?> clazz, String name, MethodType type) throws IllegalAccessException {
+        Method method;
+        try {
+            method = clazz.getMethod(name, String[].class);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+        // 与 Method.invoke 保持一致：tx 忽略返回值，query 返回值强转为String[]
+        return MethodHandles.publicLookup().unreflect(method).asType(type);
+    }
+
+    private static void add(Map<String, Function> table, String name, Method method) throws IllegalAccessException {
+        if (name.isEmpty()) {
+            name = method.getName();
+        }
+        if (table.containsKey(name)) {
+            throw new IllegalStateException("duplicate function: " + name);
+        }
+        Class<?>[] types = method.getParameterTypes();
+        boolean raw = types.length == 1 && types[0] == AbiReader.class;
+        boolean streaming = types.length > 0 && types[types.length - 1] == QuerySink.class;
+        Decoder[] decoders = new Decoder[raw || streaming ? types.length - 1 : types.length];
+        for (int i = 0; i < decoders.length; i++) {
+            decoders[i] = decoder(types[i], method);
+        }
+        MethodHandle handle = MethodHandles.publicLookup().unreflect(method);
+        MethodHandle constructor = null;
+        if (Modifier.isStatic(method.getModifiers())) {
+            handle = MethodHandles.dropArguments(handle, 0, Object.class);
+        } else {
+            try {
+                constructor = MethodHandles.publicLookup()
+                        .findConstructor(method.getDeclaringClass(), MethodType.methodType(void.class))
+                        .asType(MethodType.methodType(Object.class));
+            } catch (NoSuchMethodException e) {
+                throw new IllegalStateException(method.getDeclaringClass().getName()
+                        + " needs a public no-arg constructor for " + name);
+            }
+        }
+        handle = handle.asType(MethodType.genericMethodType(types.length + 1)).asSpreader(Object[].class, types.length);
+        table.put(name, new Function(name, handle.asType(FUNCTION_TYPE), constructor, decoders, raw, streaming));
+    }
+
+    private static Decoder decoder(Class<?> type, Method method) {
+        if (type == String.class) {
+            return STRING;
+        }
+        if (type == int.class || type == Integer.class) {
+            return INT;
+        }
+        if (type == long.class || type == Long.class) {
+            return LONG;
+        }
+        if (type == boolean.class || type == Boolean.class) {
+            return BOOLEAN;
+        }
+        if (type == byte[].class) {
+            return BYTES;
+        }
+        if (type == Address.class) {
+            return ADDRESS;
+        }
+        throw new IllegalStateException("unsupported parameter type " + type.getName() + " of " + method);
+    }
+
+    /**
+     * 读取jar包中声明的入口类
+     *
+     * @param jar
+     * @return 未声明返回null
+     * @throws IOException
+     */
+    public static String declaredEntryClass(JarFile jar) throws IOException {
+        Manifest manifest = jar.getManifest();
+        if (manifest == null) {
+            return null;
+        }
+        String entry = manifest.getMainAttributes().getValue(ENTRY_CLASS_ATTRIBUTE);
+        return entry == null ? null : entry.trim();
+    }
+
+    public Class<?> getEntryClass() {
+        return entryClass;
+    }
+
+    /**
+     * 声明的交易函数名
+     *
+     * @return
+     */
+    public Set<String> getTxFunctions() {
+        return Collections.unmodifiableSet(txFunctions.keySet());
+    }
+
+    /**
+     * 声明的查询函数名
+     *
+     * @return
+     */
+    public Set<String> getQueryFunctions() {
+        return Collections.unmodifiableSet(queryFunctions.keySet());
+    }
+
+    /**
+     * 调用合约的 tx 方法
+     * 合约抛出的异常包装成 InvocationTargetException，与反射调用时一致
+     *
+     * @param args
+     * @throws NoSuchMethodException
+     * @throws InvocationTargetException
+     */
+    public void tx(String[] args) throws NoSuchMethodException, InvocationTargetException {
+        if (!txFunctions.isEmpty()) {
+            call(txFunctions, args);
+            return;
+        }
+        if (tx == null) {
+            throw new NoSuchMethodException(entryClass.getName() + ".tx(String[])");
+        }
+        try {
+            tx.invokeExact(args);
+        } catch (Throwable t) {
+            throw new InvocationTargetException(Meter.exhausted(t));
+        }
+    }
+
+    /**
+     * 调用合约的 query 方法
+     *
+     * @param args
+     * @return
+     * @throws NoSuchMethodException
+     * @throws InvocationTargetException
+     */
+    public String[] query(String[] args) throws NoSuchMethodException, InvocationTargetException {
+        if (!queryFunctions.isEmpty()) {
+            Object result = call(queryFunctions, args);
+            if (result == null || result instanceof String[]) {
+                return (String[]) result;
+            }
+            return new String[]{String.valueOf(result)};
+        }
+        if (query == null) {
+            throw new NoSuchMethodException(entryClass.getName() + ".query(String[])");
+        }
+        try {
+            return (String[]) query.invokeExact(args);
+        } catch (Throwable t) {
+            throw new InvocationTargetException(Meter.exhausted(t));
+        }
+    }
+
+    /**
+     * 调用逐条输出结果的查询函数
+     *
+     * @param args 函数名和参数
+     * @param sink 结果输出
+     * @throws NoSuchMethodException
+     * @throws InvocationTargetException
+     */
+    public void query(String[] args, QuerySink sink) throws NoSuchMethodException, InvocationTargetException {
+        call(queryFunctions, args, sink);
+    }
+
+    private Object call(Map<String, Function> table, String[] args)
+            throws NoSuchMethodException, InvocationTargetException {
+        return call(table, args, null);
+    }
+
+    /**
+     * 按分发表调用，参数个数或格式不对时包装成 InvocationTargetException，合约代码不会执行
+     */
+    private Object call(Map<String, Function> table, String[] args, QuerySink sink)
+            throws NoSuchMethodException, InvocationTargetException {
+        if (args.length < 1) {
+            throw new NoSuchMethodException(entryClass.getName() + ": missing function name");
+        }
+        Function function = table.get(args[0]);
+        if (function == null) {
+            throw new NoSuchMethodException(entryClass.getName() + "." + args[0]);
+        }
+        if (function.raw) {
+            throw new InvocationTargetException(new IllegalArgumentException(function.name + " only accepts binary calls"));
+        }
+        if (function.streaming != (sink != null)) {
+            throw new InvocationTargetException(new IllegalArgumentException(function.name
+                    + (function.streaming ? " needs a result sink" : " does not stream results")));
+        }
+        Decoder[] decoders = function.decoders;
+        if (args.length - 1 != decoders.length) {
+            throw new InvocationTargetException(new IllegalArgumentException(function.name + " expects "
+                    + decoders.length + " arguments, got " + (args.length - 1)));
+        }
+        Object[] values = new Object[function.streaming ? decoders.length + 1 : decoders.length];
+        if (function.streaming) {
+            values[decoders.length] = sink;
+        }
+        for (int i = 0; i < decoders.length; i++) {
+            try {
+                values[i] = decoders[i].decode(args[i + 1]);
+            } catch (RuntimeException e) {
+                throw new InvocationTargetException(new IllegalArgumentException("bad argument " + (i + 1)
+                        + " of " + function.name + ": " + args[i + 1], e));
+            }
+        }
+        return invoke(function, values);
+    }
+
+    /**
+     * 用二进制编码调用交易函数
+     *
+     * @param call 函数选择子和编码后的参数
+     * @throws NoSuchMethodException
+     * @throws InvocationTargetException
+     */
+    public void tx(byte[] call) throws NoSuchMethodException, InvocationTargetException {
+        call(txSelectors, call);
+    }
+
+    /**
+     * 用二进制编码调用查询函数
+     * 返回byte[]的函数原样返回，其他返回值按 AbiWriter.writeValue 编码
+     *
+     * @param call
+     * @return
+     * @throws NoSuchMethodException
+     * @throws InvocationTargetException
+     */
+    public byte[] query(byte[] call) throws NoSuchMethodException, InvocationTargetException {
+        Object result = call(querySelectors, call);
+        if (result == null || result instanceof byte[]) {
+            return (byte[]) result;
+        }
+        try {
+            return new AbiWriter().writeValue(result).toByteArray();
+        } catch (IllegalArgumentException e) {
+            throw new InvocationTargetException(e);
+        }
+    }
+
+    /**
+     * 按选择子分发二进制调用，解码后的参数放入Object[]经统一类型的方法句柄调用
+     */
+    private Object call(Function[] table, byte[] call) throws NoSuchMethodException, InvocationTargetException {
+        if (table.length == 0) {
+            throw new NoSuchMethodException(entryClass.getName() + ": no declared functions for binary calls");
+        }
+        if (call.length < 4) {
+            throw new NoSuchMethodException(entryClass.getName() + ": missing function selector");
+        }
+        AbiReader reader = new AbiReader(call);
+        int selector = reader.readSelector();
+        Function function = null;
+        for (Function candidate : table) {
+            if (candidate.selector == selector) {
+                function = candidate;
+                break;
+            }
+        }
+        if (function == null) {
+            throw new NoSuchMethodException(entryClass.getName() + ": unknown selector 0x" + Integer.toHexString(selector));
+        }
+        if (function.raw) {
+            return invoke(function, new Object[]{reader});
+        }
+        if (function.streaming) {
+            throw new InvocationTargetException(new IllegalArgumentException(function.name + " needs a result sink"));
+        }
+        Decoder[] decoders = function.decoders;
+        Object[] values = new Object[decoders.length];
+        try {
+            for (int i = 0; i < decoders.length; i++) {
+                values[i] = decoders[i].read(reader);
+            }
+            if (reader.hasRemaining()) {
+                throw new IllegalArgumentException(reader.remaining() + " trailing bytes");
+            }
+        } catch (IllegalArgumentException e) {
+            throw new InvocationTargetException(new IllegalArgumentException("bad call data for " + function.name, e));
+        }
+        return invoke(function, values);
+    }
+
+    private static Object invoke(Function function, Object[] values) throws InvocationTargetException {
+        try {
+            Object target = function.constructor == null ? null : (Object) function.constructor.invokeExact();
+            return (Object) function.handle.invokeExact(target, values);
+        } catch (Throwable t) {
+            throw new InvocationTargetException(Meter.exhausted(t));
+        }
+    }
+}
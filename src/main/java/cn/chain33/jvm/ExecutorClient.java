@@ -0,0 +1,154 @@
+package cn.chain33.jvm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 常驻执行器的本地客户端，用于测试
+ * java -cp ... cn.chain33.jvm.ExecutorClient  启动执行器子进程，从控制台读取 tx|query 合约名称 参数...
+ */
+public class ExecutorClient {
+    private final DataOutputStream out;
+    private final DataInputStream in;
+    private final Process process;
+    private int nextId;
+
+    public ExecutorClient(InputStream in, OutputStream out) {
+        this(in, out, null);
+    }
+
+    private ExecutorClient(InputStream in, OutputStream out, Process process) {
+        this.in = new DataInputStream(new BufferedInputStream(in));
+        this.out = new DataOutputStream(new BufferedOutputStream(out));
+        this.process = process;
+    }
+
+    /**
+     * 用当前的java和classpath启动执行器子进程
+     *
+     * @return
+     * @throws IOException
+     */
+    public static ExecutorClient spawn() throws IOException {
+        List<String> command = new ArrayList<String>();
+        command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(ExecutorServer.class.getName());
+        Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        return new ExecutorClient(process.getInputStream(), process.getOutputStream(), process);
+    }
+
+    public void tx(String... args) throws IOException {
+        call(ExecutorProtocol.TX, args);
+    }
+
+    /**
+     * 一次往返执行一批交易
+     *
+     * @param txs 每笔交易 {合约名称, 参数...}
+     * @return
+     * @throws IOException
+     */
+    public TxBatchResult txBatch(String[][] txs) throws IOException {
+        return ExecutorProtocol.decodeResult(call(ExecutorProtocol.TX_BATCH, ExecutorProtocol.encodeBatch(txs)));
+    }
+
+    public String[] query(String... args) throws IOException {
+        return call(ExecutorProtocol.QUERY, args);
+    }
+
+    public int upgrade(String contractName) throws IOException {
+        return Integer.parseInt(call(ExecutorProtocol.UPGRADE, contractName)[0]);
+    }
+
+    public int unload(String contractName) throws IOException {
+        return Integer.parseInt(call(ExecutorProtocol.UNLOAD, contractName)[0]);
+    }
+
+    /**
+     * 发送请求并等待响应
+     *
+     * @param op
+     * @param args
+     * @return
+     * @throws IOException 执行器返回ERROR或连接断开
+     */
+    public synchronized String[] call(byte op, String... args) throws IOException {
+        int id = nextId++;
+        ExecutorProtocol.write(out, new ExecutorProtocol.Frame(id, op, args));
+        ExecutorProtocol.Frame response = ExecutorProtocol.read(in);
+        if (response == null) {
+            throw new IOException("executor closed");
+        }
+        if (response.id != id) {
+            throw new IOException("unexpected response id:" + response.id + ",expect:" + id);
+        }
+        if (response.code != ExecutorProtocol.OK) {
+            throw new IOException("executor error:" + response.values[0]);
+        }
+        return response.values;
+    }
+
+    /**
+     * 关闭连接，子进程在输入结束后退出
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        out.close();
+        if (process != null) {
+            try {
+                process.waitFor();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        in.close();
+    }
+
+    public static void main(String[] args) throws IOException {
+        ExecutorClient client = spawn();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(System.in, "UTF-8"));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            String[] fields = line.split("\\s+");
+            String[] callArgs = Arrays.copyOfRange(fields, 1, fields.length);
+            long startTime = System.nanoTime();
+            try {
+                if ("tx".equals(fields[0])) {
+                    client.tx(callArgs);
+                    System.out.println("ok");
+                } else if ("query".equals(fields[0])) {
+                    System.out.println(Arrays.toString(client.query(callArgs)));
+                } else if ("upgrade".equals(fields[0])) {
+                    System.out.println(client.upgrade(callArgs[0]));
+                } else if ("unload".equals(fields[0])) {
+                    System.out.println(client.unload(callArgs[0]));
+                } else {
+                    System.out.println("tx|query|upgrade|unload contractName args...");
+                    continue;
+                }
+            } catch (IOException e) {
+                System.out.println(e.getMessage());
+            }
+            System.out.println("cost:" + (System.nanoTime() - startTime) / 1000 + "us");
+        }
+        client.close();
+    }
+}
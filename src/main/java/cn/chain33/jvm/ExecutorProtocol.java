@@ -0,0 +1,189 @@
+package cn.chain33.jvm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * 执行器进程与chain33之间的帧格式
+ * 请求: [int 帧长度][int id][byte 操作][int 参数个数]([int 长度][UTF-8字节])*
+ * 响应: [int 帧长度][int id][byte 状态][int 结果个数]([int 长度][UTF-8字节])*
+ * 状态为ERROR时结果为异常信息
+ * TX_BATCH的参数为 [交易数]([参数个数][合约名称 参数...])*，结果为每笔交易的 [状态][错误信息]
+ */
+public final class ExecutorProtocol {
+    public static final byte TX = 1;
+    public static final byte QUERY = 2;
+    public static final byte UPGRADE = 3;
+    public static final byte UNLOAD = 4;
+    public static final byte TX_BATCH = 5;
+
+    public static final byte OK = 0;
+    public static final byte ERROR = 1;
+
+    /**
+     * 帧的最大长度
+     */
+    public static final int MAX_FRAME = 64 * 1024 * 1024;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private ExecutorProtocol() {
+    }
+
+    /**
+     * 一帧请求或响应，code为操作或状态
+     */
+    public static class Frame {
+        public final int id;
+        public final byte code;
+        public final String[] values;
+
+        public Frame(int id, byte code, String[] values) {
+            this.id = id;
+            this.code = code;
+            this.values = values;
+        }
+    }
+
+    /**
+     * 把一批交易展开成TX_BATCH的参数
+     *
+     * @param txs
+     * @return
+     */
+    public static String[] encodeBatch(String[][] txs) {
+        int size = 1;
+        for (String[] tx : txs) {
+            size += 1 + tx.length;
+        }
+        String[] values = new String[size];
+        int pos = 0;
+        values[pos++] = String.valueOf(txs.length);
+        for (String[] tx : txs) {
+            values[pos++] = String.valueOf(tx.length);
+            System.arraycopy(tx, 0, values, pos, tx.length);
+            pos += tx.length;
+        }
+        return values;
+    }
+
+    /**
+     * 从TX_BATCH的参数还原一批交易
+     *
+     * @param values
+     * @return
+     * @throws IOException
+     */
+    public static String[][] decodeBatch(String[] values) throws IOException {
+        try {
+            int pos = 0;
+            String[][] txs = new String[Integer.parseInt(values[pos++])][];
+            for (int i = 0; i < txs.length; i++) {
+                int length = Integer.parseInt(values[pos++]);
+                txs[i] = new String[length];
+                System.arraycopy(values, pos, txs[i], 0, length);
+                pos += length;
+            }
+            return txs;
+        } catch (RuntimeException e) {
+            throw new IOException("bad batch:" + e);
+        }
+    }
+
+    /**
+     * 批量结果编码为 [状态][错误信息]*
+     *
+     * @param result
+     * @return
+     */
+    public static String[] encodeResult(TxBatchResult result) {
+        String[] values = new String[result.size() * 2];
+        for (int i = 0; i < result.size(); i++) {
+            values[2 * i] = String.valueOf(result.getStatus(i));
+            values[2 * i + 1] = result.isOk(i) ? "" : result.getError(i);
+        }
+        return values;
+    }
+
+    public static TxBatchResult decodeResult(String[] values) {
+        TxBatchResult result = new TxBatchResult(values.length / 2);
+        for (int i = 0; i < result.size(); i++) {
+            int status = Integer.parseInt(values[2 * i]);
+            if (status != TxBatchResult.OK) {
+                result.fail(i, status, values[2 * i + 1]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 读取一帧
+     *
+     * @param in
+     * @return 流结束返回null
+     * @throws IOException
+     */
+    public static Frame read(DataInputStream in) throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (length < 9 || length > MAX_FRAME) {
+            throw new IOException("bad frame length:" + length);
+        }
+        int id = in.readInt();
+        byte code = in.readByte();
+        int count = in.readInt();
+        // 帧内剩余的字节数，每个值的长度都不能超过它，避免按声明的长度预先分配过多内存
+        int remaining = length - 9;
+        if (count < 0 || count > remaining / 4) {
+            throw new IOException("bad value count:" + count);
+        }
+        String[] values = new String[count];
+        for (int i = 0; i < count; i++) {
+            int size = in.readInt();
+            remaining -= 4;
+            if (size < 0 || size > remaining) {
+                throw new IOException("bad value length:" + size);
+            }
+            byte[] bytes = new byte[size];
+            in.readFully(bytes);
+            remaining -= size;
+            values[i] = new String(bytes, UTF8);
+        }
+        if (remaining != 0) {
+            throw new IOException("bad frame length:" + length);
+        }
+        return new Frame(id, code, values);
+    }
+
+    /**
+     * 写一帧并flush
+     *
+     * @param out
+     * @param frame
+     * @throws IOException
+     */
+    public static void write(DataOutputStream out, Frame frame) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(64);
+        DataOutputStream data = new DataOutputStream(body);
+        data.writeInt(frame.id);
+        data.writeByte(frame.code);
+        String[] values = frame.values == null ? new String[0] : frame.values;
+        data.writeInt(values.length);
+        for (String value : values) {
+            byte[] bytes = (value == null ? "" : value).getBytes(UTF8);
+            data.writeInt(bytes.length);
+            data.write(bytes);
+        }
+        out.writeInt(body.size());
+        body.writeTo(out);
+        out.flush();
+    }
+}
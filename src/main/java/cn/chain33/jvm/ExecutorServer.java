@@ -0,0 +1,105 @@
+package cn.chain33.jvm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * 常驻执行器
+ * 启动时预读一次lib，之后在同一个JVM里按顺序执行请求，
+ * 合约、类加载器缓存和JIT编译结果在请求之间一直保持
+ *
+ * 启动: java -cp ... cn.chain33.jvm.ExecutorServer
+ * 请求和响应通过stdin/stdout按ExecutorProtocol的帧格式传输，
+ * 合约和加载器打印到System.out的内容被转到stderr，不会混入响应
+ */
+public class ExecutorServer {
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private long requests;
+
+    public ExecutorServer(InputStream in, OutputStream out) {
+        this.in = new DataInputStream(new BufferedInputStream(in));
+        this.out = new DataOutputStream(new BufferedOutputStream(out));
+    }
+
+    /**
+     * 处理请求直到输入结束
+     *
+     * @throws IOException
+     */
+    public void serve() throws IOException {
+        ExecutorProtocol.Frame request;
+        while ((request = ExecutorProtocol.read(in)) != null) {
+            requests++;
+            ExecutorProtocol.write(out, handle(request));
+        }
+    }
+
+    public long getRequests() {
+        return requests;
+    }
+
+    /**
+     * 执行一个请求，异常作为ERROR响应返回
+     *
+     * @param request
+     * @return
+     */
+    ExecutorProtocol.Frame handle(ExecutorProtocol.Frame request) {
+        try {
+            String[] result;
+            switch (request.code) {
+                case ExecutorProtocol.TX:
+                    Loader.tx(request.values);
+                    result = new String[0];
+                    break;
+                case ExecutorProtocol.TX_BATCH:
+                    result = ExecutorProtocol.encodeResult(Loader.txBatch(ExecutorProtocol.decodeBatch(request.values)));
+                    break;
+                case ExecutorProtocol.QUERY:
+                    result = Loader.query(request.values);
+                    break;
+                case ExecutorProtocol.UPGRADE:
+                    result = new String[]{String.valueOf(Loader.upgradeContract(request.values[0]))};
+                    break;
+                case ExecutorProtocol.UNLOAD:
+                    result = new String[]{String.valueOf(Loader.unloadContract(request.values[0]))};
+                    break;
+                default:
+                    return error(request, "unknown operation:" + request.code);
+            }
+            return new ExecutorProtocol.Frame(request.id, ExecutorProtocol.OK, result);
+        } catch (InvocationTargetException e) {
+            return error(request, String.valueOf(e.getCause()));
+        } catch (VirtualMachineError e) {
+            // 内存不足等虚拟机错误不再继续服务
+            throw e;
+        } catch (Throwable e) {
+            // 合约的类格式错误、链接错误、计量用完等只让当前请求失败
+            return error(request, String.valueOf(e));
+        }
+    }
+
+    private static ExecutorProtocol.Frame error(ExecutorProtocol.Frame request, String message) {
+        return new ExecutorProtocol.Frame(request.id, ExecutorProtocol.ERROR, new String[]{message});
+    }
+
+    public static void main(String[] args) throws IOException {
+        // stdout只用于响应
+        OutputStream stdout = new FileOutputStream(FileDescriptor.out);
+        System.setOut(new PrintStream(new FileOutputStream(FileDescriptor.err), true));
+        Loader.loadLib();
+        ExecutorServer server = new ExecutorServer(System.in, stdout);
+        server.serve();
+        System.out.println("executor exit, requests:" + server.getRequests() + "," + Loader.getLoaderCache());
+    }
+}
@@ -0,0 +1,132 @@
+package cn.chain33.jvm;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 堆上的类字节码存储，类字节码原样保存，不淘汰
+ * 字节码按内容的SHA-256去重，多个合约打包的相同类(工具类、第三方库)只保存一份，
+ * 每个合约只保存 类名->共享条目 的映射，合约移除时共享条目引用计数为0才释放
+ */
+public class HeapClassStore implements ClassStore {
+
+    /**
+     * 共享的类字节码
+     */
+    private static class Shared {
+        final ByteBuffer hash;
+        final byte[] bytes;
+        int refs;
+
+        Shared(ByteBuffer hash, byte[] bytes) {
+            this.hash = hash;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * data  (合约名称->(类文名-->共享的类字节码))
+     */
+    private final ConcurrentHashMap<String, Map<String, Shared>> data = new ConcurrentHashMap<String, Map<String, Shared>>();
+    /**
+     * pool 内容哈希->共享的类字节码，只在put/remove时修改
+     */
+    private final HashMap<ByteBuffer, Shared> pool = new HashMap<ByteBuffer, Shared>();
+    private long totalBytes;
+    private long sharedBytes;
+
+    @Override
+    public synchronized void put(String contractName, File jar, Map<String, byte[]> classes) {
+        HashMap<String, Shared> entries = new HashMap<String, Shared>(classes.size() * 2);
+        for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+            byte[] bytes = entry.getValue();
+            ByteBuffer hash = ByteBuffer.wrap(sha256().digest(bytes));
+            Shared shared = pool.get(hash);
+            if (shared == null) {
+                shared = new Shared(hash, bytes);
+                pool.put(hash, shared);
+                sharedBytes += bytes.length;
+            }
+            shared.refs++;
+            totalBytes += bytes.length;
+            entries.put(entry.getKey(), shared);
+        }
+        Map<String, Shared> previous = data.put(contractName, entries);
+        if (previous != null) {
+            release(previous);
+        }
+    }
+
+    @Override
+    public byte[] get(String contractName, String clss) {
+        Map<String, Shared> classes = data.get(contractName);
+        if (classes == null) {
+            return null;
+        }
+        Shared shared = classes.get(clss);
+        return shared == null ? null : shared.bytes;
+    }
+
+    @Override
+    public boolean contains(String contractName) {
+        return data.containsKey(contractName);
+    }
+
+    @Override
+    public synchronized void remove(String contractName) {
+        Map<String, Shared> classes = data.remove(contractName);
+        if (classes != null) {
+            release(classes);
+        }
+    }
+
+    private void release(Map<String, Shared> classes) {
+        for (Shared shared : classes.values()) {
+            totalBytes -= shared.bytes.length;
+            if (--shared.refs == 0) {
+                pool.remove(shared.hash);
+                sharedBytes -= shared.bytes.length;
+            }
+        }
+    }
+
+    /**
+     * 不去重时所有合约的类字节码总大小
+     *
+     * @return
+     */
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * 去重后实际保存的类字节码大小
+     *
+     * @return
+     */
+    public synchronized long getSharedBytes() {
+        return sharedBytes;
+    }
+
+    /**
+     * 去重后的类数量
+     *
+     * @return
+     */
+    public synchronized int getSharedClasses() {
+        return pool.size();
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
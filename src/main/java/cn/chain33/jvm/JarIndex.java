@@ -0,0 +1,143 @@
+package cn.chain33.jvm;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * jar包的类索引
+ * 加载jar包时只记录 类名->jar包条目，不读取字节码；
+ * 第一次findClass时才解压对应条目，读到池化的直接内存缓冲区中。
+ * 非类条目按资源路径索引，以 RESOURCE_PREFIX+路径 读取
+ */
+public class JarIndex implements ClassSource {
+    private final JarFile jar;
+    /**
+     * entries 类名->jar包条目
+     */
+    private final HashMap<String, JarEntry> entries = new HashMap<String, JarEntry>(64);
+    /**
+     * resources 资源路径->jar包条目
+     */
+    private final HashMap<String, JarEntry> resources = new HashMap<String, JarEntry>();
+
+    /**
+     * 扫描jar包目录建立索引，jar包保持打开直到close
+     *
+     * @param jar
+     */
+    public JarIndex(JarFile jar) {
+        this.jar = jar;
+        Enumeration<JarEntry> en = jar.entries();
+        while (en.hasMoreElements()) {
+            JarEntry je = en.nextElement();
+            String name = je.getName();
+            if (name.endsWith(".class")) {
+                entries.put(name.replace(".class", "").replaceAll("/", "."), je);
+            } else if (!je.isDirectory()) {
+                resources.put(name, je);
+            }
+        }
+    }
+
+    public String getName() {
+        return jar.getName();
+    }
+
+    @Override
+    public Set<String> classNames() {
+        return entries.keySet();
+    }
+
+    /**
+     * jar包中的全部资源路径
+     *
+     * @return
+     */
+    public Set<String> resourceNames() {
+        return resources.keySet();
+    }
+
+    public boolean contains(String clss) {
+        return entries.containsKey(clss);
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /**
+     * 读取类字节码到直接内存缓冲区
+     * 返回的缓冲区已经flip，使用完必须调用 BufferPool.release 归还
+     *
+     * @param clss
+     * @return 类不在索引中返回null
+     * @throws IOException
+     */
+    @Override
+    public ByteBuffer read(String clss) throws IOException {
+        JarEntry je = clss.startsWith(RESOURCE_PREFIX) ? resources.get(clss.substring(RESOURCE_PREFIX.length()))
+                : entries.get(clss);
+        if (je == null) {
+            return null;
+        }
+        long size = je.getSize();
+        ByteBuffer buffer = BufferPool.acquire(size > 0 ? (int) size : 0);
+        InputStream input = jar.getInputStream(je);
+        try {
+            ReadableByteChannel channel = Channels.newChannel(input);
+            while (true) {
+                if (!buffer.hasRemaining()) {
+                    // 条目大小未知或不准确时扩容
+                    ByteBuffer larger = BufferPool.acquire(buffer.capacity() * 2);
+                    buffer.flip();
+                    larger.put(buffer);
+                    BufferPool.release(buffer);
+                    buffer = larger;
+                }
+                if (channel.read(buffer) < 0) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            BufferPool.release(buffer);
+            throw e;
+        } finally {
+            input.close();
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * 读取类字节码到堆上的数组
+     *
+     * @param clss
+     * @return 类不在索引中返回null
+     * @throws IOException
+     */
+    public byte[] readBytes(String clss) throws IOException {
+        ByteBuffer buffer = read(clss);
+        if (buffer == null) {
+            return null;
+        }
+        try {
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            return bytes;
+        } finally {
+            BufferPool.release(buffer);
+        }
+    }
+
+    public void close() throws IOException {
+        jar.close();
+    }
+}
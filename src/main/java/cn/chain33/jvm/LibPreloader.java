@@ -0,0 +1,198 @@
+package cn.chain33.jvm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * 公共jar包并行预读
+ * 用fork-join把lib下的jar包分给所有核同时读取，每个任务只写自己的结果表，
+ * 合并时再统一处理重复的类，避免多个线程争用同一张公共类表
+ */
+public class LibPreloader {
+
+    /**
+     * 预读结果
+     */
+    public static class Result {
+        /**
+         * 类名->类字节码
+         */
+        private final HashMap<String, byte[]> classes = new HashMap<String, byte[]>();
+        /**
+         * 只建索引时: 类名->所在jar包的索引
+         */
+        private final HashMap<String, JarIndex> indexes = new HashMap<String, JarIndex>();
+        /**
+         * 类名->所在jar包
+         */
+        private final HashMap<String, String> sources = new HashMap<String, String>();
+        /**
+         * 多个jar包中重复出现的类，格式: 类名(旧jar包->新jar包)
+         */
+        private final List<String> duplicates = new ArrayList<String>();
+
+        public Map<String, byte[]> getClasses() {
+            return classes;
+        }
+
+        public Map<String, JarIndex> getIndexes() {
+            return indexes;
+        }
+
+        public Map<String, String> getSources() {
+            return sources;
+        }
+
+        public List<String> getDuplicates() {
+            return duplicates;
+        }
+
+        /**
+         * 合并右侧的结果，与顺序读取一致：后面的jar包覆盖前面的
+         *
+         * @param right
+         */
+        private void merge(Result right) {
+            duplicates.addAll(right.duplicates);
+            for (Map.Entry<String, String> entry : right.sources.entrySet()) {
+                String clss = entry.getKey();
+                String jar = entry.getValue();
+                String prev = sources.put(clss, jar);
+                if (prev != null) {
+                    duplicates.add(clss + "(" + prev + "->" + jar + ")");
+                }
+            }
+            classes.putAll(right.classes);
+            indexes.putAll(right.indexes);
+        }
+    }
+
+    /**
+     * 并行读取jar包列表中所有的class文件
+     *
+     * @param jars
+     * @return
+     */
+    public static Result preload(List<File> jars) {
+        return preload(jars, Runtime.getRuntime().availableProcessors(), false);
+    }
+
+    /**
+     * 并行读取jar包列表
+     *
+     * @param jars
+     * @param parallelism 并行度
+     * @param indexOnly   只建立类索引，不读取字节码
+     * @return
+     */
+    public static Result preload(List<File> jars, int parallelism, boolean indexOnly) {
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+        try {
+            return pool.invoke(new ReadTask(jars, 0, jars.size(), indexOnly));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * 二分jar包列表，单个jar包在叶子任务中读取
+     */
+    private static class ReadTask extends RecursiveTask<Result> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<File> jars;
+        private final int from;
+        private final int to;
+        private final boolean indexOnly;
+
+        ReadTask(List<File> jars, int from, int to, boolean indexOnly) {
+            this.jars = jars;
+            this.from = from;
+            this.to = to;
+            this.indexOnly = indexOnly;
+        }
+
+        @Override
+        protected Result compute() {
+            if (to - from <= 1) {
+                Result result = new Result();
+                if (to > from && indexOnly) {
+                    index(jars.get(from), result);
+                } else if (to > from) {
+                    read(jars.get(from), result);
+                }
+                return result;
+            }
+            int mid = (from + to) >>> 1;
+            ReadTask left = new ReadTask(jars, from, mid, indexOnly);
+            left.fork();
+            Result right = new ReadTask(jars, mid, to, indexOnly).compute();
+            Result merged = left.join();
+            merged.merge(right);
+            return merged;
+        }
+    }
+
+    private static void index(File f, Result result) {
+        long startTime = LoaderMetrics.start();
+        try {
+            JarIndex index = new JarIndex(new JarFile(f));
+            for (String clss : index.classNames()) {
+                result.indexes.put(clss, index);
+                result.sources.put(clss, f.getName());
+            }
+        } catch (IOException e) {
+            LoaderMetrics.error("indexLib:" + f, e);
+        } finally {
+            LoaderMetrics.stop(LoaderMetrics.JAR_READ, startTime);
+        }
+    }
+
+    private static void read(File f, Result result) {
+        long startTime = LoaderMetrics.start();
+        JarFile jar = null;
+        try {
+            jar = new JarFile(f);
+            byte[] buffer = new byte[4096];
+            Enumeration<JarEntry> en = jar.entries();
+            while (en.hasMoreElements()) {
+                JarEntry je = en.nextElement();
+                String name = je.getName();
+                if (name.endsWith(".class")) {
+                    String clss = name.replace(".class", "").replaceAll("/", ".");
+                    InputStream input = jar.getInputStream(je);
+                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                    int bytesNumRead;
+                    while ((bytesNumRead = input.read(buffer)) != -1) {
+                        baos.write(buffer, 0, bytesNumRead);
+                    }
+                    input.close();
+                    result.classes.put(clss, baos.toByteArray());
+                    result.sources.put(clss, f.getName());
+                }
+            }
+        } catch (IOException e) {
+            LoaderMetrics.error("readLib:" + f, e);
+        } finally {
+            if (jar != null) {
+                try {
+                    jar.close();
+                } catch (IOException e) {
+                    LoaderMetrics.error("readLib:" + f, e);
+                }
+            }
+            LoaderMetrics.stop(LoaderMetrics.JAR_READ, startTime);
+        }
+    }
+}
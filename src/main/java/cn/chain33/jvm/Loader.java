@@ -1,12 +1,29 @@
 package cn.chain33.jvm;
+
+import cn.chain33.jvm.interfaces.QuerySink;
+import cn.chain33.jvm.state.ChainBackend;
+import cn.chain33.jvm.state.NativeState;
+import cn.chain33.jvm.state.TxContext;
+import cn.chain33.jvm.state.TxStoppedException;
+
 import java.io.*;
-import java.lang.reflect.Method;
+import java.lang.reflect.InvocationTargetException;
 import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.nio.ByteBuffer;
+import java.security.ProtectionDomain;
 import java.util.ArrayList;
 import java.util.Enumeration;
-import java.util.Hashtable;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 
@@ -14,6 +31,11 @@ import java.util.jar.JarFile;
  * 自定义的类加载器【子类优先】
  */
 public class Loader extends ClassLoader {
+    static {
+        // 按类名加锁，同一合约的不同类可以并发加载
+        registerAsParallelCapable();
+        LoaderMetrics.install();
+    }
     /**
      * lib: 放置公共的jar包
      */
@@ -27,21 +49,82 @@ public class Loader extends ClassLoader {
      * 采取将所有的jar包中的class读取到内存中
      * 然后如果需要读取的时候，再从data中查找
      * data  (合约名称->(类文名-->类字节码))
-     * 用hashTable存储，线程安全，查询速度相对较快
+     * 存储方式由 chain33.jvm.classStore 决定，默认堆上存储，offheap为压缩的堆外存储
      */
-    private static Hashtable<String, Hashtable<String, byte[]>> data = new Hashtable<String, Hashtable<String, byte[]>>();
+    private static ClassStore data = ClassStores.fromSystemProperties();
     /**
      * 公共第三方工具类库
+     * 以下各表都用ConcurrentHashMap存储，查询不加锁
+     */
+    private static ConcurrentHashMap<String, byte[]> common = new ConcurrentHashMap<String, byte[]>();
+    /**
+     * contracts 合约名称->合约当前版本
+     * 合约的类只在所属版本内查找，不同合约的同名类互不影响
+     */
+    private static ConcurrentHashMap<String, Contract> contracts = new ConcurrentHashMap<String, Contract>();
+    /**
+     * 是否只为jar包建立类索引，类字节码在第一次findClass时才读取
+     * 通过 -Dchain33.jvm.lazyJar=true 开启
+     */
+    private static boolean lazyJar = Boolean.getBoolean("chain33.jvm.lazyJar");
+    /**
+     * commonIndex 公共类->所在jar包的类索引(lazyJar模式)
+     */
+    private static ConcurrentHashMap<String, ClassSource> commonIndex = new ConcurrentHashMap<String, ClassSource>();
+    /**
+     * 是否对合约类做指令计量插桩，通过 -Dchain33.jvm.meter=true 开启
+     */
+    private static boolean metering = Boolean.getBoolean("chain33.jvm.meter");
+    /**
+     * 每笔交易或查询的指令预算
+     */
+    private static long meterBudget = Long.getLong("chain33.jvm.meterBudget", 10000000L);
+    /**
+     * 正在加载的合约，同一个合约并发加载时只读取一次jar包
+     */
+    private static SingleFlight<Integer> loading = new SingleFlight<Integer>();
+    /**
+     * 升级在loading中使用的key前缀，与同名合约的加载互不合并
+     */
+    private static final String UPGRADE = "upgrade:";
+    /**
+     * loaders 合约名称->合约当前版本的类加载器
+     * 每个合约版本复用同一个加载器，已定义的类在多次调用之间保持存活
+     */
+    private static LoaderCache loaders = new LoaderCache(
+            Integer.getInteger("chain33.jvm.loaderCacheSize", LoaderCache.DEFAULT_CAPACITY));
+    /**
+     * 只由父加载器加载的包，不再查找合约和公共类库
+     * 包括宿主自身的包，合约不能用自带的类替换计量、注解和接口等宿主类
      */
-    private static  Hashtable<String, byte[]> common = new Hashtable<String, byte[]>();
+    private static final String[] PARENT_PACKAGES = {"java.", "javax.", "jdk.", "sun.", "com.sun.",
+            "cn.chain33.jvm.", "com.google.gson."};
     /**
-     * contractClass 类文件->合约名称
+     * 宿主包下属于合约的包，如示例合约
      */
-    private static Hashtable<String, String> contractClass = new Hashtable<String, String>();
+    private static final String[] CONTRACT_PACKAGES = {"cn.chain33.jvm.dapp."};
     /**
-     * entryClass 合约名称->合约入口类
+     * misses 父加载器、公共类库中都不存在的类名，再次查找时直接失败
+     * 合约类按所属版本的类集合判断，不经过该表；公共类库变化时清空
      */
-    private static Hashtable<String, String> entryClass = new Hashtable<String, String>();
+    private static ConcurrentHashMap<String, Boolean> misses = new ConcurrentHashMap<String, Boolean>();
+    private static int missCapacity = Integer.getInteger("chain33.jvm.missCacheSize", 4096);
+    /**
+     * 交易读写的链上状态，设置后每笔交易在它前面建立TxContext缓冲:
+     * 重复读同一个键只读一次，写入在交易成功后一次性写回，stopTransWithErrInfo后丢弃并报告交易失败；
+     * 查询在它前面建立只读的缓冲
+     * 默认使用宿主的StateDB/LocalDB，合约通过ChainState读写状态；-Dchain33.jvm.nativeState=false 时不建立缓冲
+     */
+    private static volatile ChainBackend stateBackend =
+            Boolean.parseBoolean(System.getProperty("chain33.jvm.nativeState", "true")) ? new NativeState() : null;
+    /**
+     * 当前加载器所属的合约版本
+     */
+    private Contract contract;
+    /**
+     * 合约入口方法，第一次调用时解析，随加载器一起失效
+     */
+    private volatile EntryPoint entryPoint;
 
     /**
      *空的构造函数
@@ -49,6 +132,176 @@ public class Loader extends ClassLoader {
     public Loader() throws NoSuchMethodException, SecurityException, MalformedURLException {
     }
 
+    /**
+     * 合约版本专属的类加载器，由LoaderCache创建
+     *
+     * @param contract
+     */
+    Loader(Contract contract) {
+        this.contract = contract;
+    }
+
+    /**
+     * 获取合约类加载器缓存
+     *
+     * @return
+     */
+    public static LoaderCache getLoaderCache() {
+        return loaders;
+    }
+
+    /**
+     * 当前加载器所属的合约名称
+     *
+     * @return
+     */
+    public String getContractName() {
+        return contract == null ? null : contract.getName();
+    }
+
+    /**
+     * 当前加载器所属的合约版本
+     *
+     * @return
+     */
+    public Contract getContract() {
+        return contract;
+    }
+
+    /**
+     * 获取当前合约的入口方法
+     *
+     * @return
+     * @throws ClassNotFoundException
+     * @throws IllegalAccessException
+     */
+    public EntryPoint getEntryPoint() throws ClassNotFoundException, IllegalAccessException {
+        EntryPoint entry = entryPoint;
+        if (entry == null) {
+            entry = EntryPoint.resolve(loadClass(contract.getEntryClass()));
+            entryPoint = entry;
+        }
+        return entry;
+    }
+
+    /**
+     * 进入合约当前版本，合约不存在时先加载合约
+     * 调用结束后必须调用exit
+     *
+     * @param contractName
+     * @return
+     * @throws ClassNotFoundException
+     */
+    private static Contract enter(String contractName) throws ClassNotFoundException {
+        while (true) {
+            //检测合约是否存在
+            if (!isExist(contractName)) {
+                loadContract(contractName);
+            }
+            Contract contract = contracts.get(contractName);
+            if (contract == null) {
+                throw new ClassNotFoundException("contract not found: " + contractName);
+            }
+            //版本在升级或卸载时已被释放，重新获取当前版本
+            if (contract.enter()) {
+                return contract;
+            }
+        }
+    }
+
+    /**
+     * 退出合约版本，已退役版本的最后一个调用负责释放
+     *
+     * @param contract
+     */
+    private static void exit(Contract contract) {
+        if (contract.exit()) {
+            release(contract);
+        }
+    }
+
+    /**
+     * 设置交易读写的链上状态
+     *
+     * @param backend 为null时交易不建立缓冲
+     */
+    public static void setStateBackend(ChainBackend backend) {
+        stateBackend = backend;
+    }
+
+    /**
+     * 在backend前面为一笔交易建立缓冲并绑定到当前线程
+     * 已在交易中(如并行执行)时沿用当前的TxContext
+     *
+     * @param backend
+     * @return 没有建立缓冲返回null
+     */
+    private static TxContext beginTx(ChainBackend backend) {
+        if (backend == null || TxContext.peek() != null) {
+            return null;
+        }
+        TxContext context = new TxContext(backend, true);
+        TxContext.bind(context);
+        return context;
+    }
+
+    /**
+     * 结束交易或查询的缓冲，交易成功且未被中止时写回backend
+     *
+     * @param context beginTx或beginQuery的返回值
+     * @param backend
+     * @param success 合约方法是否正常返回，查询传false
+     */
+    private static void endTx(TxContext context, ChainBackend backend, boolean success) {
+        if (context == null) {
+            return;
+        }
+        TxContext.bind(null);
+        if (success) {
+            context.commit(backend);
+        }
+    }
+
+    /**
+     * 为查询在backend前面建立只读的缓冲，查询结束后直接丢弃
+     *
+     * @param backend
+     * @return 没有建立缓冲返回null
+     */
+    private static TxContext beginQuery(ChainBackend backend) {
+        if (backend == null || TxContext.peek() != null) {
+            return null;
+        }
+        TxContext context = new TxContext(backend, false);
+        TxContext.bind(context);
+        return context;
+    }
+
+    /**
+     * 合约调用了stopTransWithErrInfo时交易失败，与合约方法抛出异常一样报告
+     *
+     * @param context
+     * @throws InvocationTargetException
+     */
+    private static void checkStopped(TxContext context) throws InvocationTargetException {
+        if (context != null && context.isFailed()) {
+            throw new InvocationTargetException(new TxStoppedException(context.getStatus(), context.getError()));
+        }
+    }
+
+    /**
+     * 获取合约版本的入口方法
+     *
+     * @param contract
+     * @return
+     * @throws ClassNotFoundException
+     * @throws IllegalAccessException
+     */
+    private static EntryPoint entryPoint(Contract contract) throws ClassNotFoundException, IllegalAccessException {
+        // 复用合约版本的类加载器，加载时已解析过入口，加载器被淘汰后在新的加载器上重新解析
+        return loaders.get(contract).getEntryPoint();
+    }
+
     /**
      * 合约是否存在
      *
@@ -56,10 +309,17 @@ public class Loader extends ClassLoader {
      * @return
      */
     public static boolean isExist(String contractName) {
-        if (data.containsKey(contractName)) {
-            return true;
-        }
-        return false;
+        return contracts.containsKey(contractName);
+    }
+
+    /**
+     * 获取合约当前版本
+     *
+     * @param contractName
+     * @return 合约未加载返回null
+     */
+    public static Contract getContract(String contractName) {
+        return contracts.get(contractName);
     }
 
     /**
@@ -69,7 +329,8 @@ public class Loader extends ClassLoader {
      * @return
      */
     public static String getEntryClass(String contractName) {
-        return entryClass.get(contractName);
+        Contract contract = contracts.get(contractName);
+        return contract == null ? null : contract.getEntryClass();
     }
 
     /**
@@ -79,29 +340,343 @@ public class Loader extends ClassLoader {
      * @throws SecurityException
      * @throws MalformedURLException
      */
-    public static int loadContract(String contractName) {
-        File directory = new File(contractName + ".jar");
-        String path = directory.getAbsolutePath();
-        if (data.containsKey(contractName)) {
+    public static int loadContract(final String contractName) {
+        if (isExist(contractName)) {
             return 0;
         }
+        try {
+            return loading.run(contractName, new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    //等待期间其他线程可能已经加载完成
+                    if (isExist(contractName)) {
+                        return 0;
+                    }
+                    return readContract(contractName);
+                }
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 4;
+        } catch (ExecutionException e) {
+            LoaderMetrics.error("loadContract:" + contractName, e.getCause());
+            return 4;
+        }
+    }
+
+    /**
+     * 升级合约，重新读取合约的jar包或镜像文件生成新版本
+     * 新的调用进入新版本，旧版本上正在执行的调用结束后旧版本被释放
+     *
+     * @param contractName
+     * @return
+     */
+    public static int upgradeContract(final String contractName) {
+        try {
+            // 不加入正在进行的加载，等它安装完成后重新读取，升级的版本在它之后安装
+            loading.await(contractName);
+            return loading.run(UPGRADE + contractName, new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    return readContract(contractName);
+                }
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 4;
+        } catch (ExecutionException e) {
+            LoaderMetrics.error("upgradeContract:" + contractName, e.getCause());
+            return 4;
+        }
+    }
+
+    /**
+     * 卸载合约，正在执行的调用结束后释放
+     *
+     * @param contractName
+     * @return 合约未加载返回1
+     */
+    public static int unloadContract(String contractName) {
+        Contract contract = contracts.remove(contractName);
+        if (contract == null) {
+            return 1;
+        }
+        retire(contract);
+        return 0;
+    }
+
+    /**
+     * 安装合约版本，替换并退役旧版本
+     *
+     * @param contract
+     */
+    static void install(Contract contract) {
+        Contract previous = contracts.put(contract.getName(), contract);
+        if (previous != null) {
+            retire(previous);
+        }
+    }
+
+    /**
+     * 退役合约版本，并从缓存中移除它的类加载器
+     *
+     * @param contract
+     */
+    private static void retire(Contract contract) {
+        loaders.remove(contract);
+        if (contract.retire()) {
+            release(contract);
+        }
+    }
+
+    /**
+     * 释放合约版本的类字节码和jar包
+     * 之后加载器和它定义的类不再被引用，随GC回收
+     *
+     * @param contract
+     */
+    private static void release(Contract contract) {
+        ClassSource source = contract.getSource();
+        if (source == null) {
+            data.remove(contract.getStoreKey());
+        } else if (source instanceof JarIndex) {
+            try {
+                ((JarIndex) source).close();
+            } catch (IOException e) {
+                LoaderMetrics.error("release:" + contract.getStoreKey(), e);
+            }
+        }
+    }
+
+    /**
+     * 检查合约是否只使用确定性的API，结果按文件内容缓存
+     *
+     * @param contract
+     * @param file     合约的jar包或镜像文件
+     * @return
+     */
+    private static boolean verify(final Contract contract, File file) {
+        if (!DeterminismScanner.isEnabled()) {
+            return true;
+        }
+        ClassSource source = contract.getSource();
+        if (source == null) {
+            source = new ClassSource() {
+                @Override
+                public Set<String> classNames() {
+                    return contract.getClasses();
+                }
+
+                @Override
+                public ByteBuffer read(String clss) {
+                    byte[] bytes = data.get(contract.getStoreKey(), clss);
+                    return bytes == null ? null : ByteBuffer.wrap(bytes);
+                }
+            };
+        }
+        try {
+            // 镜像记录了自身内容的hash，不需要读取整个文件
+            List<String> violations = source instanceof ContractImage
+                    ? DeterminismScanner.verify(DeterminismScanner.hex(((ContractImage) source).getHash()), source)
+                    : DeterminismScanner.verify(file, source);
+            for (String violation : violations) {
+                LoaderMetrics.trace("forbidden", violation);
+            }
+            if (!violations.isEmpty()) {
+                LoaderMetrics.error("verify:" + contract.getStoreKey(),
+                        new SecurityException(violations.size() + " forbidden references, first: " + violations.get(0)));
+            }
+            return violations.isEmpty();
+        } catch (IOException e) {
+            LoaderMetrics.error("verify:" + contract.getStoreKey(), e);
+            return false;
+        }
+    }
+
+    /**
+     * 合约中属于父加载器包的类，这些类不会从合约中加载
+     *
+     * @param contract
+     * @return 没有返回null
+     */
+    static String hostClass(Contract contract) {
+        for (String clss : contract.getClasses()) {
+            if (isParentPackage(clss)) {
+                return clss;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 加载时解析入口类和 @TxFunction/@QueryFunction 分发表，重复或不支持的函数让加载失败，
+     * 而不是在第一笔交易时才失败。只加载入口类，不初始化它；解析结果缓存在合约版本的类加载器中
+     *
+     * @param contract
+     * @return 解析失败返回false
+     */
+    private static boolean resolveEntryPoint(Contract contract) {
+        try {
+            loaders.get(contract).getEntryPoint();
+            return true;
+        } catch (Exception e) {
+            LoaderMetrics.error("resolveEntryPoint:" + contract.getStoreKey(), e);
+        } catch (LinkageError e) {
+            LoaderMetrics.error("resolveEntryPoint:" + contract.getStoreKey(), e);
+        }
+        loaders.remove(contract);
+        return false;
+    }
+
+    /**
+     * 下一个版本号
+     *
+     * @param contractName
+     * @return
+     */
+    private static long nextVersion(String contractName) {
+        Contract previous = contracts.get(contractName);
+        return previous == null ? 1 : previous.getVersion() + 1;
+    }
+
+    /**
+     * 读取合约的jar包或镜像文件，检查通过后安装为合约的新版本
+     *
+     * @param contractName
+     * @return 5 合约使用了禁止的API，6 合约包含宿主包下的类，7 入口类或函数表解析失败，
+     * 8 jar包不存在且没有可用的镜像
+     */
+    private static int readContract(String contractName) {
+        File directory = new File(contractName + ".jar");
+        String path = directory.getAbsolutePath();
+        long startTime = LoaderMetrics.start();
         try {
             Loader loader = new Loader();
-            loader.preReadJarFile(path);
+            long version = nextVersion(contractName);
+            Contract contract = null;
+            //部署时生成了合约镜像的，直接映射镜像文件
+            File image = new File(contractName + ContractImage.SUFFIX);
+            long readTime = LoaderMetrics.start();
+            boolean useImage = image.isFile();
+            if (useImage) {
+                contract = loader.preReadImageFile(image, directory, version);
+                // 镜像不是由当前jar包生成或已损坏时读取jar包
+                useImage = contract != null || !directory.isFile();
+            }
+            if (!useImage) {
+                contract = loader.preReadJarFile(path, version);
+            }
+            LoaderMetrics.stop(LoaderMetrics.JAR_READ, readTime);
+            if (contract == null) {
+                LoaderMetrics.error("readContract:" + contractName,
+                        new FileNotFoundException("no usable jar or image: " + path));
+                return 8;
+            }
+            String hostClass = hostClass(contract);
+            if (hostClass != null) {
+                LoaderMetrics.error("readContract:" + contractName,
+                        new SecurityException("contract contains host class: " + hostClass));
+                release(contract);
+                return 6;
+            }
+            if (!verify(contract, useImage ? image : directory)) {
+                release(contract);
+                return 5;
+            }
+            if (!resolveEntryPoint(contract)) {
+                release(contract);
+                return 7;
+            }
+            install(contract);
         }catch (NoSuchMethodException e ){
-            e.printStackTrace();
+            LoaderMetrics.error("readContract:" + contractName, e);
             return 1;
         }catch (SecurityException e){
-            e.printStackTrace();
+            LoaderMetrics.error("readContract:" + contractName, e);
             return 2;
         }catch (MalformedURLException e){
-            e.printStackTrace();
+            LoaderMetrics.error("readContract:" + contractName, e);
             return 3;
+        } finally {
+            LoaderMetrics.stop(LoaderMetrics.CONTRACT_LOAD, startTime);
         }
         return 0;
     }
 
 
+    /**
+     * 类查找的快速路径:
+     * JDK的包只交给父加载器；合约自己的类直接从合约存储定义，不经过父加载器；
+     * 已知不存在的类直接失败；其余按父加载器、公共类库的顺序查找，都找不到时记入misses
+     */
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        synchronized (getClassLoadingLock(name)) {
+            Class<?> c = findLoadedClass(name);
+            if (c == null) {
+                if (isParentPackage(name)) {
+                    return super.loadClass(name, resolve);
+                }
+                if (contract != null && contract.contains(name)) {
+                    c = findClass(name);
+                } else if (misses.containsKey(name)) {
+                    throw new Miss(name);
+                } else {
+                    try {
+                        c = getParent().loadClass(name);
+                    } catch (ClassNotFoundException e) {
+                        // 父加载器中没有，查找公共类库
+                    }
+                    if (c == null) {
+                        try {
+                            c = findClass(name);
+                        } catch (ClassNotFoundException e) {
+                            if (misses.size() >= missCapacity) {
+                                misses.clear();
+                            }
+                            misses.put(name, Boolean.TRUE);
+                            throw e;
+                        }
+                    }
+                }
+            }
+            if (resolve) {
+                resolveClass(c);
+            }
+            return c;
+        }
+    }
+
+    private static boolean isParentPackage(String name) {
+        for (String prefix : CONTRACT_PACKAGES) {
+            if (name.startsWith(prefix)) {
+                return false;
+            }
+        }
+        for (String prefix : PARENT_PACKAGES) {
+            if (name.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * misses命中时抛出，不填充调用栈
+     */
+    private static class Miss extends ClassNotFoundException {
+        private static final long serialVersionUID = 1L;
+
+        Miss(String name) {
+            super(name);
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+
     /**
      * 按照父类的机制，如果在父类中没有找到的类
      * 才会调用这个findClass来加载
@@ -109,19 +684,45 @@ public class Loader extends ClassLoader {
      * 而系统自带需要的class并不是由这个加载
      */
     @Override
-    protected Class<?> findClass(String name) {
-        System.out.println("findClass:" + name);
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        LoaderMetrics.trace("findClass", name);
+        long startTime = LoaderMetrics.start();
         try {
+            //只对合约自己的类插桩，公共类库不计量
+            boolean meter = metering && contract != null && contract.contains(name);
             byte[] result = getClassFromMap(name);
-            if (result == null) {
-                throw new FileNotFoundException();
-            } else {
+            if (result != null) {
+                if (meter) {
+                    result = MeterInstrumenter.instrument(result);
+                }
                 return defineClass(name, result, 0, result.length);
             }
+            //lazyJar模式或合约镜像按需读取
+            ClassSource index = getClassIndex(name);
+            ByteBuffer buffer = index == null ? null : index.read(name);
+            if (buffer == null) {
+                LoaderMetrics.trace("classNotFound", name);
+                throw new ClassNotFoundException(name);
+            }
+            try {
+                if (meter) {
+                    byte[] bytes = new byte[buffer.remaining()];
+                    buffer.get(bytes);
+                    bytes = MeterInstrumenter.instrument(bytes);
+                    return defineClass(name, bytes, 0, bytes.length);
+                }
+                return defineClass(name, buffer, (ProtectionDomain) null);
+            } finally {
+                BufferPool.release(buffer);
+            }
+        } catch (ClassNotFoundException e) {
+            throw e;
         } catch (Exception e) {
-            e.printStackTrace();
+            LoaderMetrics.error("findClass:" + name, e);
+            throw new ClassNotFoundException(name, e);
+        } finally {
+            LoaderMetrics.stop(LoaderMetrics.CLASS_DEFINE, startTime);
         }
-        return null;
     }
 
     /**
@@ -132,8 +733,11 @@ public class Loader extends ClassLoader {
      */
     private byte[] getClassFromMap(String name) {
         //load contract class
-        if (contractClass.containsKey(name)) {
-            return data.get(contractClass.get(name)).get(name);
+        if (contract != null && contract.getSource() == null && contract.contains(name)) {
+            byte[] result = data.get(contract.getStoreKey(), name);
+            if (result != null) {
+                return result;
+            }
         }
         //load common class
         if (common.containsKey(name)){
@@ -142,6 +746,106 @@ public class Loader extends ClassLoader {
         return null;
     }
 
+    /**
+     * 查找类所在jar包的索引
+     *
+     * @param name
+     * @return
+     */
+    private ClassSource getClassIndex(String name) {
+        //load contract class
+        if (contract != null && contract.getSource() != null && contract.contains(name)) {
+            return contract.getSource();
+        }
+        //load common class
+        return commonIndex.get(name);
+    }
+
+    /**
+     * 读取合约jar包中的资源，和类字节码来自同一个存储或映射
+     *
+     * @param path jar包中的条目路径
+     * @return 不是本合约的资源返回null
+     */
+    private byte[] getResourceBytes(String path) {
+        if (contract == null || !contract.containsResource(path)) {
+            return null;
+        }
+        String key = ClassSource.RESOURCE_PREFIX + path;
+        ClassSource source = contract.getSource();
+        if (source == null) {
+            return data.get(contract.getStoreKey(), key);
+        }
+        ByteBuffer buffer = null;
+        try {
+            buffer = source.read(key);
+            if (buffer == null) {
+                return null;
+            }
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            return bytes;
+        } catch (IOException e) {
+            LoaderMetrics.error("getResource:" + path, e);
+            return null;
+        } finally {
+            BufferPool.release(buffer);
+        }
+    }
+
+    /**
+     * 合约自己的资源优先，直接从内存返回，不再打开jar包
+     */
+    @Override
+    public InputStream getResourceAsStream(String name) {
+        byte[] bytes = getResourceBytes(name);
+        if (bytes != null) {
+            return new ByteArrayInputStream(bytes);
+        }
+        return super.getResourceAsStream(name);
+    }
+
+    @Override
+    public URL getResource(String name) {
+        URL url = findResource(name);
+        return url != null ? url : super.getResource(name);
+    }
+
+    /**
+     * 合约资源的URL，打开时从存储中读取
+     */
+    @Override
+    protected URL findResource(final String name) {
+        if (contract == null || !contract.containsResource(name)) {
+            return null;
+        }
+        try {
+            return new URL("chain33", null, -1, "/" + contract.getStoreKey() + "/" + name, new URLStreamHandler() {
+                @Override
+                protected URLConnection openConnection(URL url) {
+                    return new URLConnection(url) {
+                        @Override
+                        public void connect() {
+                            connected = true;
+                        }
+
+                        @Override
+                        public InputStream getInputStream() throws IOException {
+                            byte[] bytes = getResourceBytes(name);
+                            if (bytes == null) {
+                                throw new FileNotFoundException(url.toString());
+                            }
+                            return new ByteArrayInputStream(bytes);
+                        }
+                    };
+                }
+            });
+        } catch (MalformedURLException e) {
+            LoaderMetrics.error("findResource:" + name, e);
+            return null;
+        }
+    }
+
     /**
      * 从指定的classes文件夹下找到文件
      *
@@ -183,103 +887,186 @@ public class Loader extends ClassLoader {
 
     /**
      * 预读lib下面的包
+     * jar包按核数并行读取，读完后一次性合并到公共类表
+     * 已在classpath上的jar包由父加载器加载(可以使用CDS归档)，不再预读
      */
     private void preReadJarFile() {
 
-        List<File> list = scanDir();
-        for (File f : list) {
-            JarFile jar;
-            try {
-                jar = new JarFile(f);
-                readCommonJAR(jar);
-            } catch (IOException e) {
-                e.printStackTrace();
+        List<File> list = new ArrayList<File>();
+        for (File f : scanDir()) {
+            if (!CdsArchive.isOnClassPath(f)) {
+                list.add(f);
             }
         }
+        LibPreloader.Result result = LibPreloader.preload(list, Runtime.getRuntime().availableProcessors(), lazyJar);
+        common.putAll(result.getClasses());
+        commonIndex.putAll(result.getIndexes());
+        misses.clear();
+        for (String duplicate : result.getDuplicates()) {
+            LoaderMetrics.trace("duplicate class", duplicate);
+        }
+    }
+
+    /**
+     * 预读lib下的公共jar包，常驻执行器启动时调用一次
+     *
+     * @return lib目录不存在返回false
+     */
+    public static boolean loadLib() {
+        if (!new File(lib).isDirectory()) {
+            return false;
+        }
+        try {
+            new Loader().preReadJarFile();
+        } catch (Exception e) {
+            LoaderMetrics.error("loadLib", e);
+            return false;
+        }
+        return true;
     }
 
     /**
      * 预读指定的jar包
      */
-    private void preReadJarFile(String f) {
+    private Contract preReadJarFile(String f, long version) {
         try {
             JarFile jar = new JarFile(f);
-            readJAR(jar);
+            return readJAR(jar, version);
         } catch (IOException e) {
-            e.printStackTrace();
+            LoaderMetrics.error("readJar:" + f, e);
         }
+        return null;
     }
 
-    private void readCommonJAR(JarFile jar) throws IOException {
-        Enumeration<JarEntry> en = jar.entries();
-        while (en.hasMoreElements()) {
-            JarEntry je = en.nextElement();
-            String name = je.getName();
-            if (name.endsWith(".class")) {
-                String clss = name.replace(".class", "").replaceAll("/", ".");
-                if (this.findLoadedClass(clss) != null) continue;
-
-                InputStream input = jar.getInputStream(je);
-                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                int bufferSize = 4096;
-                byte[] buffer = new byte[bufferSize];
-                int bytesNumRead = 0;
-                while ((bytesNumRead = input.read(buffer)) != -1) {
-                    baos.write(buffer, 0, bytesNumRead);
-                }
-                byte[] cc = baos.toByteArray();
-                input.close();
-                this.common.put(clss, cc);
+    /**
+     * 映射合约镜像文件，生成合约版本
+     *
+     * @param file
+     * @param jar     合约jar包，存在时镜像必须由它的当前内容生成
+     * @param version
+     * @return 镜像损坏或已过期返回null
+     */
+    private Contract preReadImageFile(File file, File jar, long version) {
+        try {
+            ContractImage image = ContractImage.open(file);
+            if (jar.isFile() && !image.isBuiltFrom(jar)) {
+                LoaderMetrics.trace("staleImage", file.getPath());
+                return null;
             }
+            String contractName = file.getName().replace(ContractImage.SUFFIX, "");
+            return new Contract(contractName, version, image.getEntryClass(), image.classNames(),
+                    image.resourceNames(), image);
+        } catch (IOException e) {
+            LoaderMetrics.error("readImage:" + file, e);
         }
+        return null;
     }
 
     /**
-     * 读取一个jar包内的class文件，并存在当前加载器的map中
+     * 读取一个jar包内的class文件，存入data，生成合约版本
      *
      * @param jar
+     * @param version
      * @throws IOException
      */
-    private void readJAR(JarFile jar) throws IOException {
-        Hashtable<String, byte[]> map = new Hashtable<String, byte[]>(64);
+    private Contract readJAR(JarFile jar, long version) throws IOException {
+        if (lazyJar) {
+            return readJARIndex(jar, version);
+        }
+        HashMap<String, byte[]> map = new HashMap<String, byte[]>(64);
+        HashSet<String> classNames = new HashSet<String>(64);
+        HashSet<String> resources = new HashSet<String>();
         Enumeration<JarEntry> en = jar.entries();
-        String contractName = "";
+        String contractName = new File(jar.getName().trim()).getName().replace(".jar", "");
+        //入口类优先取MANIFEST.MF中声明的
+        String declared = EntryPoint.declaredEntryClass(jar);
+        String entry = declared;
         while (en.hasMoreElements()) {
             JarEntry je = en.nextElement();
             String name = je.getName();
+            if (je.isDirectory()) {
+                continue;
+            }
+            String key;
             if (name.endsWith(".class")) {
                 String clss = name.replace(".class", "").replaceAll("/", ".");
-                File file = new File(jar.getName().trim());
-                contractName = file.getName().replace(".jar", "");
                 //判断类文件是否为入口类
-                if (clss.endsWith(contractName)) {
-                    entryClass.put(contractName, clss);
+                if (declared == null && clss.endsWith(contractName)) {
+                    entry = clss;
                 }
-                //类文件映射合约名称
-                contractClass.put(clss, contractName);
-                if (this.findLoadedClass(clss) != null) continue;
+                classNames.add(clss);
+                key = clss;
+            } else {
+                //非类条目作为资源和类字节码一起保存
+                resources.add(name);
+                key = ClassSource.RESOURCE_PREFIX + name;
+            }
 
-                InputStream input = jar.getInputStream(je);
-                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                int bufferSize = 4096;
-                byte[] buffer = new byte[bufferSize];
-                int bytesNumRead = 0;
-                while ((bytesNumRead = input.read(buffer)) != -1) {
-                    baos.write(buffer, 0, bytesNumRead);
-                }
-                byte[] cc = baos.toByteArray();
-                input.close();
-                map.put(clss, cc);//保存下来
+            InputStream input = jar.getInputStream(je);
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            int bufferSize = 4096;
+            byte[] buffer = new byte[bufferSize];
+            int bytesNumRead = 0;
+            while ((bytesNumRead = input.read(buffer)) != -1) {
+                baos.write(buffer, 0, bytesNumRead);
             }
+            byte[] cc = baos.toByteArray();
+            input.close();
+            map.put(key, cc);//保存下来
         }
-        if (map.isEmpty()) {
-            return;
+        jar.close();
+        if (classNames.isEmpty()) {
+            return null;
         }
-        //把已经加载的jar保存到data中
-        this.data.put(contractName, map);
+        checkEntryClass(jar, declared, classNames);
+        Contract contract = new Contract(contractName, version, entry, classNames, resources, null);
+        //把已经加载的jar按版本保存到data中
+        data.put(contract.getStoreKey(), new File(jar.getName()), map);
+        return contract;
     }
 
 
+    /**
+     * 只记录jar包内 类名->jar包条目 的索引，不读取类字节码
+     *
+     * @param jar
+     */
+    private Contract readJARIndex(JarFile jar, long version) throws IOException {
+        String declared = EntryPoint.declaredEntryClass(jar);
+        JarIndex index = new JarIndex(jar);
+        if (index.isEmpty()) {
+            index.close();
+            return null;
+        }
+        String contractName = new File(jar.getName().trim()).getName().replace(".jar", "");
+        String entry = declared;
+        if (declared == null) {
+            for (String clss : index.classNames()) {
+                //判断类文件是否为入口类
+                if (clss.endsWith(contractName)) {
+                    entry = clss;
+                }
+            }
+        } else {
+            try {
+                checkEntryClass(jar, declared, index.classNames());
+            } catch (IOException e) {
+                index.close();
+                throw e;
+            }
+        }
+        return new Contract(contractName, version, entry, index.classNames(), index.resourceNames(), index);
+    }
+
+    /**
+     * 声明的入口类必须在合约jar包中
+     */
+    private static void checkEntryClass(JarFile jar, String declared, Set<String> classNames) throws IOException {
+        if (declared != null && !classNames.contains(declared)) {
+            throw new IOException(EntryPoint.ENTRY_CLASS_ATTRIBUTE + " " + declared + " not found in " + jar.getName());
+        }
+    }
+
     /**
      * 扫描lib下面的所有jar包
      *
@@ -296,7 +1083,7 @@ public class Loader extends ClassLoader {
     }
 
     /**
-     * 添加一个jar包到加载器中去。
+     * 添加一个jar包，作为合约的新版本安装
      *
      * @param jarPath
      * @throws IOException
@@ -305,7 +1092,14 @@ public class Loader extends ClassLoader {
         File file = new File(jarPath);
         if (file.exists()) {
             JarFile jar = new JarFile(file);
-            readJAR(jar);
+            Contract contract = readJAR(jar, nextVersion(file.getName().replace(".jar", "")));
+            if (contract != null) {
+                if (!verify(contract, file)) {
+                    release(contract);
+                    throw new IOException("contract rejected: " + jarPath);
+                }
+                install(contract);
+            }
         }
     }
 
@@ -371,17 +1165,114 @@ public class Loader extends ClassLoader {
         String[] progArgs = new String[args.length - 1];
         System.arraycopy(args, 1, progArgs
                 , 0, progArgs.length);
-        Loader loader = new Loader();
-        //检测合约是否存在
-        if (!isExist(contractName)) {
-            loader.loadContract(contractName);
+        long startTime = LoaderMetrics.start();
+        Contract contract = enter(contractName);
+        ChainBackend backend = stateBackend;
+        TxContext context = null;
+        boolean success = false;
+        Meter previous = metering ? Meter.start(meterBudget) : null;
+        try {
+            context = beginTx(backend);
+            entryPoint(contract).tx(progArgs);
+            success = true;
+        } finally {
+            if (metering) {
+                Meter.stop(previous);
+            }
+            endTx(context, backend, success);
+            exit(contract);
+            LoaderMetrics.stop(LoaderMetrics.TX_DISPATCH, startTime);
+        }
+        checkStopped(context);
+    }
+
+    /**
+     * 批量执行交易，一个区块的交易一次调用完成
+     * 每笔交易的格式与tx相同: {合约名称, 参数...}，按顺序执行，
+     * 同一批内每个合约只加载和解析入口一次，一笔交易失败不影响后续交易
+     *
+     * @param txs
+     * @return 每笔交易的状态和错误信息
+     */
+    public static TxBatchResult txBatch(String[][] txs) {
+        TxBatchResult result = new TxBatchResult(txs.length);
+        HashMap<String, Contract> entered = new HashMap<String, Contract>();
+        HashMap<String, EntryPoint> entries = new HashMap<String, EntryPoint>();
+        HashMap<String, String> missing = new HashMap<String, String>();
+        ChainBackend backend = stateBackend;
+        try {
+            for (int i = 0; i < txs.length; i++) {
+                String[] tx = txs[i];
+                if (tx == null || tx.length < 1) {
+                    result.fail(i, TxBatchResult.NOT_FOUND, "empty transaction");
+                    continue;
+                }
+                String contractName = tx[0];
+                if (missing.containsKey(contractName)) {
+                    result.fail(i, TxBatchResult.NOT_FOUND, missing.get(contractName));
+                    continue;
+                }
+                EntryPoint entry = entries.get(contractName);
+                if (entry == null) {
+                    try {
+                        Contract contract = entered.get(contractName);
+                        if (contract == null) {
+                            contract = enter(contractName);
+                            entered.put(contractName, contract);
+                        }
+                        entry = entryPoint(contract);
+                        entries.put(contractName, entry);
+                    } catch (VirtualMachineError e) {
+                        throw e;
+                    } catch (Throwable e) {
+                        // 包括合约类的格式、链接错误
+                        missing.put(contractName, String.valueOf(e));
+                        result.fail(i, TxBatchResult.NOT_FOUND, String.valueOf(e));
+                        continue;
+                    }
+                }
+                String[] progArgs = new String[tx.length - 1];
+                System.arraycopy(tx, 1, progArgs, 0, progArgs.length);
+                long startTime = LoaderMetrics.start();
+                TxContext context = null;
+                boolean success = false;
+                Meter previous = metering ? Meter.start(meterBudget) : null;
+                try {
+                    context = beginTx(backend);
+                    entry.tx(progArgs);
+                    success = true;
+                } catch (NoSuchMethodException e) {
+                    result.fail(i, TxBatchResult.NOT_FOUND, String.valueOf(e));
+                } catch (InvocationTargetException e) {
+                    result.fail(i, e.getCause() instanceof MeterExhaustedError ? TxBatchResult.OUT_OF_GAS
+                            : TxBatchResult.FAILED, String.valueOf(e.getCause()));
+                } catch (VirtualMachineError e) {
+                    throw e;
+                } catch (Throwable e) {
+                    // 建立交易缓冲失败、合约类链接错误等只让这一笔交易失败
+                    result.fail(i, TxBatchResult.FAILED, String.valueOf(e));
+                } finally {
+                    if (metering) {
+                        Meter.stop(previous);
+                    }
+                    LoaderMetrics.stop(LoaderMetrics.TX_DISPATCH, startTime);
+                }
+                try {
+                    endTx(context, backend, success);
+                } catch (RuntimeException e) {
+                    result.fail(i, TxBatchResult.FAILED, "commit failed: " + e);
+                    continue;
+                }
+                if (success && context != null && context.isFailed()) {
+                    result.fail(i, context.getStatus(), context.getError());
+                }
+            }
+        } finally {
+            for (Contract contract : entered.values()) {
+                exit(contract);
+            }
         }
-        // 加载需要运行的类
-        Class<?> clazz = loader.loadClass(getEntryClass(contractName));
-        // 获取需要运行的类的主方法
-        Method tx = clazz.getMethod("tx", (new String[0]).getClass());
-        Object[] argsArray = {progArgs};
-        tx.invoke(null, argsArray);
+        return result;
     }
 
     public static String[] query(String[] args) throws Exception {
@@ -396,17 +1287,118 @@ public class Loader extends ClassLoader {
         String[] progArgs = new String[args.length - 1];
         System.arraycopy(args, 1, progArgs
                 , 0, progArgs.length);
-        Loader loader = new Loader();
-        //检测合约是否存在
-        if (!isExist(contractName)) {
-            loader.loadContract(contractName);
-        }
-        // 加载需要运行的类
-        Class<?> clazz = loader.loadClass(getEntryClass(contractName));
-        // 获取需要运行的类的主方法
-        Method query = clazz.getMethod("query", (new String[0]).getClass());
-        Object[] argsArray = {progArgs};
-        Object result = query.invoke(null, argsArray);
-        return (String[]) result;
+        long startTime = LoaderMetrics.start();
+        Contract contract = enter(contractName);
+        TxContext context = null;
+        Meter previous = metering ? Meter.start(meterBudget) : null;
+        try {
+            context = beginQuery(stateBackend);
+            return entryPoint(contract).query(progArgs);
+        } finally {
+            if (metering) {
+                Meter.stop(previous);
+            }
+            endTx(context, null, false);
+            exit(contract);
+            LoaderMetrics.stop(LoaderMetrics.QUERY_DISPATCH, startTime);
+        }
+    }
+
+    /**
+     * 执行逐条输出结果的查询，结果直接写入sink，不在内存中拼出整个结果
+     *
+     * @param args 合约名称、函数名和参数
+     * @param sink 结果输出，如 QueryPage 或 PagedSink.Json
+     * @throws Exception
+     */
+    public static void query(String[] args, QuerySink sink) throws Exception {
+        String contractName = args[0];
+        String[] progArgs = new String[args.length - 1];
+        System.arraycopy(args, 1, progArgs, 0, progArgs.length);
+        long startTime = LoaderMetrics.start();
+        Contract contract = enter(contractName);
+        TxContext context = null;
+        Meter previous = metering ? Meter.start(meterBudget) : null;
+        try {
+            context = beginQuery(stateBackend);
+            entryPoint(contract).query(progArgs, sink);
+        } finally {
+            if (metering) {
+                Meter.stop(previous);
+            }
+            endTx(context, null, false);
+            exit(contract);
+            LoaderMetrics.stop(LoaderMetrics.QUERY_DISPATCH, startTime);
+        }
+    }
+
+    /**
+     * 查询一页结果
+     *
+     * @param args   合约名称、函数名和参数
+     * @param cursor 上一页返回的游标，第一页为null
+     * @param limit  每页条数
+     * @return
+     * @throws Exception
+     */
+    public static QueryPage queryPage(String[] args, String cursor, int limit) throws Exception {
+        QueryPage page = new QueryPage(cursor, limit);
+        query(args, page);
+        return page;
+    }
+
+    /**
+     * 用二进制编码执行交易，合约需要用@TxFunction声明函数
+     *
+     * @param contractName
+     * @param call         函数选择子和参数，见 AbiReader
+     * @throws Exception
+     */
+    public static void tx(String contractName, byte[] call) throws Exception {
+        long startTime = LoaderMetrics.start();
+        Contract contract = enter(contractName);
+        ChainBackend backend = stateBackend;
+        TxContext context = null;
+        boolean success = false;
+        Meter previous = metering ? Meter.start(meterBudget) : null;
+        try {
+            context = beginTx(backend);
+            entryPoint(contract).tx(call);
+            success = true;
+        } finally {
+            if (metering) {
+                Meter.stop(previous);
+            }
+            endTx(context, backend, success);
+            exit(contract);
+            LoaderMetrics.stop(LoaderMetrics.TX_DISPATCH, startTime);
+        }
+        checkStopped(context);
+    }
+
+    /**
+     * 用二进制编码执行查询，合约需要用@QueryFunction声明函数
+     *
+     * @param contractName
+     * @param call
+     * @return 编码后的查询结果
+     * @throws Exception
+     */
+    public static byte[] query(String contractName, byte[] call) throws Exception {
+        long startTime = LoaderMetrics.start();
+        Contract contract = enter(contractName);
+        TxContext context = null;
+        Meter previous = metering ? Meter.start(meterBudget) : null;
+        try {
+            context = beginQuery(stateBackend);
+            return entryPoint(contract).query(call);
+        } finally {
+            if (metering) {
+                Meter.stop(previous);
+            }
+            endTx(context, null, false);
+            exit(contract);
+            LoaderMetrics.stop(LoaderMetrics.QUERY_DISPATCH, startTime);
+        }
     }
 }
\ No newline at end of file
@@ -5,8 +5,10 @@ import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashMap;
-import java.util.Hashtable;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 
@@ -19,21 +21,26 @@ public class Loader2 extends ClassLoader {
      * Read all the classes in the jar package into memory
      * Then if you need to read, look up from the cache data
      * data (contract name->(class file name-->class bytecode))
+     * heap by default, compressed off-heap with -Dchain33.jvm.classStore=offheap
      */
-    private static HashMap<String, HashMap<String, byte[]>> data = new HashMap<String, HashMap<String, byte[]>>();
+    private static ClassStore data = ClassStores.fromSystemProperties();
     /**
      * contractClass  Class file -> contract name
      */
-    private static HashMap<String, String> contractClass = new HashMap<String, String>();
+    private static ConcurrentHashMap<String, String> contractClass = new ConcurrentHashMap<String, String>();
     /**
      * entryClass   Contract Name -> Contract Entry Class
      */
-    private static HashMap<String, String> entryClass = new HashMap<String, String>();
+    private static ConcurrentHashMap<String, String> entryClass = new ConcurrentHashMap<String, String>();
 
     /**
      * common   common class
      */
-    private static Hashtable<String, byte[]> common = new Hashtable<String, byte[]>();
+    private static ConcurrentHashMap<String, byte[]> common = new ConcurrentHashMap<String, byte[]>();
+    /**
+     * loading   contracts being read, concurrent loads of one contract read its jar once
+     */
+    private static SingleFlight<Integer> loading = new SingleFlight<Integer>();
     private static String lib = "lib";
     private String classes;
 
@@ -47,7 +54,7 @@ public class Loader2 extends ClassLoader {
      * @return
      */
     public static boolean isExist(String contractName) {
-        if (data.containsKey(contractName)) {
+        if (data.contains(contractName)) {
             return true;
         }
         return false;
@@ -68,20 +75,36 @@ public class Loader2 extends ClassLoader {
      *
      * @param contractName
      */
-    public static int loadContract(String contractName) {
-        File directory = new File(contractName + ".jar");
-        String path = directory.getAbsolutePath();
-        if (data.containsKey(contractName)) {
+    public static int loadContract(final String contractName) {
+        if (data.contains(contractName)) {
             return 0;
         }
-        Loader2 loader = new Loader2();
         try {
-            loader.preReadJarFile(path);
-        } catch (IOException e) {
+            return loading.run(contractName, new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    if (data.contains(contractName)) {
+                        return 0;
+                    }
+                    File directory = new File(contractName + ".jar");
+                    String path = directory.getAbsolutePath();
+                    Loader2 loader = new Loader2();
+                    try {
+                        loader.preReadJarFile(path);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                        return 1;
+                    }
+                    return 0;
+                }
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 2;
+        } catch (ExecutionException e) {
             e.printStackTrace();
-            return 1;
+            return 2;
         }
-        return 0;
     }
 
     /**
@@ -195,7 +218,7 @@ public class Loader2 extends ClassLoader {
     private byte[] getClassFromMap(String name) {
         //load contract class
         if (contractClass.containsKey(name)) {
-            return data.get(contractClass.get(name)).get(name);
+            return data.get(contractClass.get(name), name);
         }
         //load common class
         if (common.containsKey(name)) {
@@ -333,7 +356,7 @@ public class Loader2 extends ClassLoader {
             return;
         }
 
-        this.data.put(contractName, map);
+        data.put(contractName, new File(jar.getName()), map);
     }
 
     /**
@@ -0,0 +1,172 @@
+package cn.chain33.jvm;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 合约类加载器缓存
+ * 每个合约保留当前版本的定义类加载器，热点合约的类只需 defineClass 一次，
+ * 超过容量时淘汰最久未使用的合约(LRU)，被淘汰的加载器及其定义的类随后可被GC回收。
+ * 命中时只读并发表和更新访问时间，不加锁。
+ * 同一个加载器在多次调用之间复用，合约类的静态状态会保留，而是否保留取决于本节点的缓存容量和淘汰顺序，
+ * 因此 DeterminismScanner 拒绝在<clinit>之外写静态字段的合约；
+ * 静态final字段引用的对象(数组、集合等)同样不能在调用中修改，这一点没有检查
+ */
+public class LoaderCache {
+    /**
+     * 默认缓存的合约数量
+     */
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private final int capacity;
+    /**
+     * loaders 合约名称->合约类加载器
+     */
+    private final ConcurrentHashMap<String, Slot> loaders = new ConcurrentHashMap<String, Slot>();
+    /**
+     * 访问时钟，用于近似LRU
+     */
+    private final AtomicLong clock = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    private static class Slot {
+        final Loader loader;
+        volatile long lastAccess;
+
+        Slot(Loader loader, long lastAccess) {
+            this.loader = loader;
+            this.lastAccess = lastAccess;
+        }
+    }
+
+    public LoaderCache(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * 获取合约版本的类加载器，不存在则新建并缓存
+     * 缓存中是旧版本的加载器时替换；已退役的版本不再缓存，返回一次性的加载器
+     *
+     * @param contract
+     * @return
+     */
+    public Loader get(Contract contract) {
+        String contractName = contract.getName();
+        while (true) {
+            Slot slot = loaders.get(contractName);
+            if (slot != null && slot.loader.getContract() == contract) {
+                hits.incrementAndGet();
+                slot.lastAccess = clock.incrementAndGet();
+                return slot.loader;
+            }
+            if (contract.isRetired() || (slot != null && slot.loader.getContract().getVersion() > contract.getVersion())) {
+                misses.incrementAndGet();
+                return new Loader(contract);
+            }
+            Slot created = new Slot(new Loader(contract), clock.incrementAndGet());
+            boolean installed = slot == null ? loaders.putIfAbsent(contractName, created) == null
+                    : loaders.replace(contractName, slot, created);
+            if (installed) {
+                misses.incrementAndGet();
+                // 安装后版本才退役的，由退役方负责移除
+                if (contract.isRetired()) {
+                    loaders.remove(contractName, created);
+                }
+                evict(contractName);
+                return created.loader;
+            }
+            // 其他线程已经更新，重新检查
+        }
+    }
+
+    /**
+     * 超过容量时淘汰最久未访问的加载器，只在新建加载器时执行
+     */
+    private void evict(String keep) {
+        while (loaders.size() > capacity) {
+            String eldest = null;
+            Slot eldestSlot = null;
+            for (Map.Entry<String, Slot> entry : loaders.entrySet()) {
+                if (entry.getKey().equals(keep)) {
+                    continue;
+                }
+                if (eldestSlot == null || entry.getValue().lastAccess < eldestSlot.lastAccess) {
+                    eldest = entry.getKey();
+                    eldestSlot = entry.getValue();
+                }
+            }
+            if (eldest == null) {
+                return;
+            }
+            if (loaders.remove(eldest, eldestSlot)) {
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * 移除合约的类加载器，下次调用时重新定义合约类
+     *
+     * @param contractName
+     * @return 被移除的加载器，不存在返回null
+     */
+    public Loader remove(String contractName) {
+        Slot slot = loaders.remove(contractName);
+        return slot == null ? null : slot.loader;
+    }
+
+    /**
+     * 移除合约版本的类加载器，缓存中是其他版本时不移除
+     *
+     * @param contract
+     * @return 被移除的加载器，不存在返回null
+     */
+    public Loader remove(Contract contract) {
+        Slot slot = loaders.get(contract.getName());
+        if (slot != null && slot.loader.getContract() == contract && loaders.remove(contract.getName(), slot)) {
+            return slot.loader;
+        }
+        return null;
+    }
+
+    public boolean contains(String contractName) {
+        return loaders.containsKey(contractName);
+    }
+
+    public int size() {
+        return loaders.size();
+    }
+
+    public void clear() {
+        loaders.clear();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    @Override
+    public String toString() {
+        return "LoaderCache{size=" + size() + ",capacity=" + capacity + ",hits=" + hits.get()
+                + ",misses=" + misses.get() + ",evictions=" + evictions.get() + "}";
+    }
+}
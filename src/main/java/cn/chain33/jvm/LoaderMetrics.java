@@ -0,0 +1,290 @@
+package cn.chain33.jvm;
+
+import com.google.gson.Gson;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.management.ObjectName;
+
+/**
+ * 加载器的指标和跟踪
+ * 统计jar包读取、类定义、合约加载、入口调用的次数和耗时分布，以及加载器缓存的命中情况，
+ * 通过JMX(cn.chain33.jvm:type=LoaderMetrics)或定期写入的快照文件导出。
+ * 默认关闭，关闭时各记录点只有一次常量判断
+ *
+ * -Dchain33.jvm.metrics=true            开启指标
+ * -Dchain33.jvm.metricsFile=文件          定期把JSON快照写入文件
+ * -Dchain33.jvm.metricsInterval=10      快照间隔(秒)
+ * -Dchain33.jvm.trace=true              打印findClass等加载事件和异常堆栈
+ */
+public final class LoaderMetrics implements LoaderMetricsMBean {
+    public static final boolean ENABLED = Boolean.getBoolean("chain33.jvm.metrics");
+    public static final boolean TRACE = Boolean.getBoolean("chain33.jvm.trace");
+
+    /**
+     * 耗时分布，按2的幂分桶(纳秒)
+     */
+    public static final class Histogram {
+        private final String name;
+        private final AtomicLongArray buckets = new AtomicLongArray(64);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        Histogram(String name) {
+            this.name = name;
+        }
+
+        public void record(long nanos) {
+            if (nanos < 0) {
+                nanos = 0;
+            }
+            buckets.incrementAndGet(63 - Long.numberOfLeadingZeros(nanos | 1));
+            count.incrementAndGet();
+            sum.addAndGet(nanos);
+            long current;
+            while (nanos > (current = max.get()) && !max.compareAndSet(current, nanos)) {
+                // 重试
+            }
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        /**
+         * 分位数的近似值，取所在桶的上界
+         *
+         * @param p 0到1之间
+         * @return 纳秒
+         */
+        public long percentile(double p) {
+            long total = count.get();
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(total * p);
+            long seen = 0;
+            for (int i = 0; i < 64; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    return Math.min(max.get(), i >= 62 ? Long.MAX_VALUE : (2L << i) - 1);
+                }
+            }
+            return max.get();
+        }
+
+        Map<String, Object> snapshot() {
+            Map<String, Object> values = new LinkedHashMap<String, Object>();
+            long n = count.get();
+            values.put("count", n);
+            values.put("meanNanos", n == 0 ? 0 : sum.get() / n);
+            values.put("p50Nanos", percentile(0.5));
+            values.put("p99Nanos", percentile(0.99));
+            values.put("maxNanos", max.get());
+            return values;
+        }
+    }
+
+    public static final Histogram JAR_READ = new Histogram("jarRead");
+    public static final Histogram CLASS_DEFINE = new Histogram("classDefine");
+    public static final Histogram CONTRACT_LOAD = new Histogram("contractLoad");
+    public static final Histogram TX_DISPATCH = new Histogram("txDispatch");
+    public static final Histogram QUERY_DISPATCH = new Histogram("queryDispatch");
+    private static final Histogram[] HISTOGRAMS = {JAR_READ, CLASS_DEFINE, CONTRACT_LOAD, TX_DISPATCH, QUERY_DISPATCH};
+
+    private static final AtomicLong errors = new AtomicLong();
+    private static final LoaderMetrics INSTANCE = new LoaderMetrics();
+    private static boolean installed;
+
+    private LoaderMetrics() {
+    }
+
+    /**
+     * 开启时注册JMX并启动快照文件，只执行一次
+     */
+    static synchronized void install() {
+        if (!ENABLED || installed) {
+            return;
+        }
+        installed = true;
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName("cn.chain33.jvm:type=LoaderMetrics"));
+        } catch (Exception e) {
+            error("metrics.jmx", e);
+        }
+        String file = System.getProperty("chain33.jvm.metricsFile");
+        if (file != null) {
+            final File target = new File(file);
+            long interval = Long.getLong("chain33.jvm.metricsInterval", 10);
+            ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "chain33-metrics");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            timer.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        writeSnapshot(target);
+                    } catch (IOException e) {
+                        error("metrics.file", e);
+                    }
+                }
+            }, interval, interval, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * 开始计时
+     *
+     * @return 关闭时返回0
+     */
+    public static long start() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    /**
+     * 结束计时并记录
+     *
+     * @param histogram
+     * @param start     start()的返回值
+     */
+    public static void stop(Histogram histogram, long start) {
+        if (ENABLED) {
+            histogram.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * 加载事件，只在开启跟踪时打印
+     *
+     * @param event
+     * @param detail
+     */
+    public static void trace(String event, String detail) {
+        if (TRACE) {
+            System.out.println(event + ":" + detail);
+        }
+    }
+
+    /**
+     * 记录异常，打印一行，开启跟踪时打印完整堆栈
+     *
+     * @param where
+     * @param e
+     */
+    public static void error(String where, Throwable e) {
+        errors.incrementAndGet();
+        System.err.println("chain33.jvm error at " + where + ": " + e);
+        if (TRACE) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 全部指标
+     *
+     * @return
+     */
+    public static Map<String, Object> snapshot() {
+        Map<String, Object> values = new LinkedHashMap<String, Object>();
+        values.put("enabled", ENABLED);
+        for (Histogram histogram : HISTOGRAMS) {
+            values.put(histogram.getName(), histogram.snapshot());
+        }
+        LoaderCache cache = Loader.getLoaderCache();
+        Map<String, Object> loaders = new LinkedHashMap<String, Object>();
+        loaders.put("size", cache.size());
+        loaders.put("hits", cache.getHits());
+        loaders.put("misses", cache.getMisses());
+        loaders.put("evictions", cache.getEvictions());
+        values.put("loaderCache", loaders);
+        values.put("errors", errors.get());
+        return values;
+    }
+
+    /**
+     * 把快照写入文件，先写临时文件再改名
+     *
+     * @param target
+     * @throws IOException
+     */
+    public static void writeSnapshot(File target) throws IOException {
+        File tmp = new File(target.getPath() + ".tmp");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+        try {
+            writer.write(INSTANCE.getSnapshot());
+            writer.write('\n');
+        } finally {
+            writer.close();
+        }
+        if (!tmp.renameTo(target)) {
+            throw new IOException("rename failed: " + target);
+        }
+    }
+
+    @Override
+    public long getJarReads() {
+        return JAR_READ.getCount();
+    }
+
+    @Override
+    public long getClassDefines() {
+        return CLASS_DEFINE.getCount();
+    }
+
+    @Override
+    public long getContractLoads() {
+        return CONTRACT_LOAD.getCount();
+    }
+
+    @Override
+    public long getTxDispatches() {
+        return TX_DISPATCH.getCount();
+    }
+
+    @Override
+    public long getQueryDispatches() {
+        return QUERY_DISPATCH.getCount();
+    }
+
+    @Override
+    public long getLoaderCacheHits() {
+        return Loader.getLoaderCache().getHits();
+    }
+
+    @Override
+    public long getLoaderCacheMisses() {
+        return Loader.getLoaderCache().getMisses();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.get();
+    }
+
+    @Override
+    public String getSnapshot() {
+        return new Gson().toJson(snapshot());
+    }
+}
@@ -0,0 +1,29 @@
+package cn.chain33.jvm;
+
+/**
+ * 加载器指标的JMX接口，ObjectName为 cn.chain33.jvm:type=LoaderMetrics
+ */
+public interface LoaderMetricsMBean {
+    long getJarReads();
+
+    long getClassDefines();
+
+    long getContractLoads();
+
+    long getTxDispatches();
+
+    long getQueryDispatches();
+
+    long getLoaderCacheHits();
+
+    long getLoaderCacheMisses();
+
+    long getErrors();
+
+    /**
+     * 全部指标的JSON快照
+     *
+     * @return
+     */
+    String getSnapshot();
+}
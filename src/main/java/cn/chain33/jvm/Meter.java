@@ -0,0 +1,96 @@
+package cn.chain33.jvm;
+
+/**
+ * 交易的指令计量
+ * 插桩后的合约类在每个基本块开始时调用charge，累计执行的指令数，
+ * 超过预算时抛出MeterExhaustedError中止交易。计量绑定在当前线程上，没有开始计量时charge不计数
+ */
+public final class Meter {
+    private static final ThreadLocal<Meter> CURRENT = new ThreadLocal<Meter>();
+
+    private final long budget;
+    private long remaining;
+
+    private Meter(long budget) {
+        this.budget = budget;
+        this.remaining = budget;
+    }
+
+    /**
+     * 在当前线程开始计量
+     *
+     * @param budget 指令预算
+     * @return 之前的计量，结束时传给stop恢复
+     */
+    public static Meter start(long budget) {
+        Meter previous = CURRENT.get();
+        CURRENT.set(new Meter(budget));
+        return previous;
+    }
+
+    /**
+     * 结束当前线程的计量
+     *
+     * @param previous start的返回值
+     * @return 本次计量用掉的指令数
+     */
+    public static long stop(Meter previous) {
+        Meter meter = CURRENT.get();
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+        return meter == null ? 0 : meter.getUsed();
+    }
+
+    /**
+     * 由插桩代码调用
+     *
+     * @param cost 基本块的指令数
+     */
+    public static void charge(int cost) {
+        Meter meter = CURRENT.get();
+        if (meter != null) {
+            meter.remaining -= cost;
+            if (meter.remaining < 0) {
+                throw new MeterExhaustedError(meter.budget);
+            }
+        }
+    }
+
+    /**
+     * 由插桩代码在异常处理器入口调用：计量用完后合约的catch和finally不能再执行，异常继续向外抛出。
+     * 持有监视器的帧(synchronized)由JVM在退出时释放监视器，异常被替换为IllegalMonitorStateException，
+     * 外层处理器和 exhausted 把它还原为MeterExhaustedError
+     *
+     * @param e 处理器捕获的异常
+     */
+    public static void rethrowExhausted(Throwable e) {
+        Throwable exhausted = exhausted(e);
+        if (exhausted instanceof MeterExhaustedError) {
+            throw (MeterExhaustedError) exhausted;
+        }
+    }
+
+    /**
+     * 当前线程的计量已用完时返回MeterExhaustedError，否则原样返回e
+     *
+     * @param e 合约抛出的异常
+     * @return
+     */
+    public static Throwable exhausted(Throwable e) {
+        if (e instanceof MeterExhaustedError) {
+            return e;
+        }
+        Meter meter = CURRENT.get();
+        if (meter != null && meter.remaining < 0) {
+            return new MeterExhaustedError(meter.budget);
+        }
+        return e;
+    }
+
+    public long getUsed() {
+        return Math.min(budget, budget - remaining);
+    }
+}
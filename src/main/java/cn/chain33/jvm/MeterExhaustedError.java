@@ -0,0 +1,20 @@
+package cn.chain33.jvm;
+
+/**
+ * 交易的指令预算用完
+ * 继承Error，合约中 catch (Exception e) 不会吞掉它
+ */
+public class MeterExhaustedError extends Error {
+    private static final long serialVersionUID = 1L;
+
+    private final long budget;
+
+    public MeterExhaustedError(long budget) {
+        super("instruction budget exhausted: " + budget);
+        this.budget = budget;
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+}
@@ -0,0 +1,173 @@
+package cn.chain33.jvm;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 指令计量插桩
+ * 把每个方法按基本块切分，在块开始处插入 Meter.charge(块内指令数)，
+ * 循环的每次迭代、每次方法调用都会计量。插入的代码不改变操作数栈和局部变量，原有的栈帧保持有效。
+ * 异常处理器入口插入 Meter.rethrowExhausted，计量用完后合约的catch和finally拦截不到异常继续执行；
+ * 这段检查从所有异常保护范围中移除，否则覆盖自身的处理器(如synchronized生成的catch-any)会反复捕获重新抛出的异常。
+ * 静态初始化块不计量：类只在加载后第一次使用时初始化，计量它会让同一笔交易的消耗取决于加载器缓存，
+ * DeterminismScanner禁止<clinit>中的循环，它只能执行有限条指令，调用的方法仍然计量
+ */
+public final class MeterInstrumenter {
+    private static final String METER = Meter.class.getName().replace('.', '/');
+
+    private MeterInstrumenter() {
+    }
+
+    /**
+     * 插桩一个类
+     *
+     * @param bytes 类字节码
+     * @return 插桩后的类字节码
+     */
+    public static byte[] instrument(byte[] bytes) {
+        ClassReader reader = new ClassReader(bytes);
+        ClassNode node = new ClassNode();
+        reader.accept(node, 0);
+        for (MethodNode method : node.methods) {
+            if (method.instructions.size() > 0 && !"<clinit>".equals(method.name)) {
+                instrument(method);
+            }
+        }
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        node.accept(writer);
+        return writer.toByteArray();
+    }
+
+    private static void instrument(MethodNode method) {
+        InsnList instructions = method.instructions;
+        Set<LabelNode> leaders = new HashSet<LabelNode>();
+        for (AbstractInsnNode insn = instructions.getFirst(); insn != null; insn = insn.getNext()) {
+            if (insn instanceof JumpInsnNode) {
+                leaders.add(((JumpInsnNode) insn).label);
+            } else if (insn instanceof TableSwitchInsnNode) {
+                leaders.add(((TableSwitchInsnNode) insn).dflt);
+                leaders.addAll(((TableSwitchInsnNode) insn).labels);
+            } else if (insn instanceof LookupSwitchInsnNode) {
+                leaders.add(((LookupSwitchInsnNode) insn).dflt);
+                leaders.addAll(((LookupSwitchInsnNode) insn).labels);
+            }
+        }
+        for (TryCatchBlockNode block : method.tryCatchBlocks) {
+            leaders.add(block.handler);
+        }
+
+        // 块开始处的标签、行号和栈帧之后才是插入点
+        AbstractInsnNode start = null;
+        int cost = 0;
+        boolean newBlock = true;
+        for (AbstractInsnNode insn = instructions.getFirst(); insn != null; insn = insn.getNext()) {
+            if (insn instanceof LabelNode && leaders.contains(insn)) {
+                charge(instructions, start, cost);
+                newBlock = true;
+                cost = 0;
+            }
+            if (insn.getOpcode() < 0) {
+                continue;
+            }
+            if (newBlock) {
+                start = insn;
+                newBlock = false;
+            }
+            cost++;
+            if (endsBlock(insn)) {
+                charge(instructions, start, cost);
+                newBlock = true;
+                cost = 0;
+            }
+        }
+        charge(instructions, start, cost);
+
+        Set<LabelNode> handlers = new LinkedHashSet<LabelNode>();
+        for (TryCatchBlockNode block : method.tryCatchBlocks) {
+            handlers.add(block.handler);
+        }
+        for (LabelNode handler : handlers) {
+            guardHandler(method, handler);
+        }
+    }
+
+    /**
+     * 在处理器入口插入 dup; Meter.rethrowExhausted，并把这两条指令从所有保护范围中切出去
+     */
+    private static void guardHandler(MethodNode method, LabelNode handler) {
+        InsnList instructions = method.instructions;
+        AbstractInsnNode first = handler;
+        while (first.getOpcode() < 0) {
+            first = first.getNext();
+        }
+        LabelNode resume = new LabelNode();
+        InsnList check = new InsnList();
+        check.add(new InsnNode(Opcodes.DUP));
+        check.add(new MethodInsnNode(Opcodes.INVOKESTATIC, METER, "rethrowExhausted", "(Ljava/lang/Throwable;)V", false));
+        check.add(resume);
+        instructions.insertBefore(first, check);
+
+        int position = instructions.indexOf(handler);
+        List<TryCatchBlockNode> blocks = new ArrayList<TryCatchBlockNode>(method.tryCatchBlocks.size() + 1);
+        for (TryCatchBlockNode block : method.tryCatchBlocks) {
+            if (instructions.indexOf(block.start) > position || instructions.indexOf(block.end) <= position) {
+                blocks.add(block);
+                continue;
+            }
+            if (hasCode(block.start, handler)) {
+                blocks.add(new TryCatchBlockNode(block.start, handler, block.handler, block.type));
+            }
+            if (hasCode(resume, block.end)) {
+                blocks.add(new TryCatchBlockNode(resume, block.end, block.handler, block.type));
+            }
+        }
+        method.tryCatchBlocks = blocks;
+    }
+
+    private static boolean hasCode(AbstractInsnNode from, LabelNode to) {
+        for (AbstractInsnNode insn = from; insn != to; insn = insn.getNext()) {
+            if (insn.getOpcode() >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean endsBlock(AbstractInsnNode insn) {
+        int opcode = insn.getOpcode();
+        return insn instanceof JumpInsnNode || insn instanceof TableSwitchInsnNode || insn instanceof LookupSwitchInsnNode
+                || (opcode >= Opcodes.IRETURN && opcode <= Opcodes.RETURN) || opcode == Opcodes.ATHROW || opcode == Opcodes.RET;
+    }
+
+    /**
+     * 在块的第一条指令前插入计量
+     */
+    private static void charge(InsnList instructions, AbstractInsnNode start, int cost) {
+        if (start == null || cost == 0) {
+            return;
+        }
+        InsnList charge = new InsnList();
+        charge.add(new LdcInsnNode(cost));
+        charge.add(new MethodInsnNode(Opcodes.INVOKESTATIC, METER, "charge", "(I)V", false));
+        instructions.insertBefore(start, charge);
+    }
+}
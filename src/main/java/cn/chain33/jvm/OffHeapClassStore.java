@@ -0,0 +1,295 @@
+package cn.chain33.jvm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.jar.JarFile;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 压缩后放在堆外的类字节码存储
+ * 每个合约的类字节码压缩后连续存放在一块直接内存(arena)中，按合约整体淘汰；
+ * 总大小超过容量时淘汰最久未使用的合约，被淘汰的合约下次访问时重新读取jar包。
+ * 放入时记录全部字节码的hash，重新读取的内容与之不同(jar包已被替换)时拒绝使用，
+ * 合约版本只会用到放入时的、经过检查的字节码
+ */
+public class OffHeapClassStore implements ClassStore {
+    /**
+     * 默认容量 64MB (压缩后的字节数)
+     */
+    public static final long DEFAULT_CAPACITY = 64L * 1024 * 1024;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final long capacity;
+    /**
+     * 当前所有arena占用的字节数
+     */
+    private long used;
+    /**
+     * arenas 合约名称->压缩的类字节码，按访问顺序排列
+     */
+    private final LinkedHashMap<String, Arena> arenas = new LinkedHashMap<String, Arena>(16, 0.75f, true);
+    /**
+     * jars 合约名称->合约jar包，包括已经被淘汰的合约
+     */
+    private final HashMap<String, File> jars = new HashMap<String, File>();
+    /**
+     * hashes 合约名称->放入时全部字节码的hash
+     */
+    private final HashMap<String, byte[]> hashes = new HashMap<String, byte[]>();
+
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong reloads = new AtomicLong();
+
+    /**
+     * 类字节码在arena中的位置
+     */
+    private static class Slot {
+        final int offset;
+        final int length;
+        final int rawLength;
+
+        Slot(int offset, int length, int rawLength) {
+            this.offset = offset;
+            this.length = length;
+            this.rawLength = rawLength;
+        }
+    }
+
+    /**
+     * 一个合约的全部压缩类字节码
+     */
+    private static class Arena {
+        final ByteBuffer buffer;
+        final HashMap<String, Slot> slots;
+
+        Arena(ByteBuffer buffer, HashMap<String, Slot> slots) {
+            this.buffer = buffer;
+            this.slots = slots;
+        }
+    }
+
+    public OffHeapClassStore(long capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+    }
+
+    @Override
+    public void put(String contractName, File jar, Map<String, byte[]> classes) {
+        byte[] hash = hash(classes);
+        Arena arena = compress(classes);
+        synchronized (this) {
+            hashes.put(contractName, hash);
+            install(contractName, jar, arena);
+        }
+    }
+
+    @Override
+    public byte[] get(String contractName, String clss) {
+        Arena arena;
+        File jar;
+        byte[] hash;
+        synchronized (this) {
+            arena = arenas.get(contractName);
+            jar = jars.get(contractName);
+            hash = hashes.get(contractName);
+        }
+        if (arena == null) {
+            if (jar == null) {
+                return null;
+            }
+            arena = reload(contractName, jar, hash);
+            if (arena == null) {
+                return null;
+            }
+        }
+        Slot slot = arena.slots.get(clss);
+        if (slot == null) {
+            return null;
+        }
+        return inflate(arena.buffer, slot);
+    }
+
+    @Override
+    public synchronized boolean contains(String contractName) {
+        return jars.containsKey(contractName);
+    }
+
+    @Override
+    public synchronized void remove(String contractName) {
+        jars.remove(contractName);
+        hashes.remove(contractName);
+        Arena arena = arenas.remove(contractName);
+        if (arena != null) {
+            used -= arena.buffer.capacity();
+        }
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public synchronized long getUsed() {
+        return used;
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public long getReloads() {
+        return reloads.get();
+    }
+
+    private synchronized void install(String contractName, File jar, Arena arena) {
+        jars.put(contractName, jar);
+        Arena prev = arenas.put(contractName, arena);
+        if (prev != null) {
+            used -= prev.buffer.capacity();
+        }
+        used += arena.buffer.capacity();
+        // 至少保留刚放入的合约
+        Iterator<Map.Entry<String, Arena>> it = arenas.entrySet().iterator();
+        while (used > capacity && arenas.size() > 1 && it.hasNext()) {
+            Map.Entry<String, Arena> eldest = it.next();
+            if (eldest.getKey().equals(contractName)) {
+                continue;
+            }
+            used -= eldest.getValue().buffer.capacity();
+            it.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * 合约字节码已被淘汰，重新读取jar包
+     *
+     * @param hash 放入时的字节码hash
+     * @return jar包不可读或内容已变化返回null
+     */
+    private Arena reload(String contractName, File jar, byte[] hash) {
+        HashMap<String, byte[]> classes = new HashMap<String, byte[]>(64);
+        try {
+            JarIndex index = new JarIndex(new JarFile(jar));
+            try {
+                for (String clss : index.classNames()) {
+                    classes.put(clss, index.readBytes(clss));
+                }
+                for (String path : index.resourceNames()) {
+                    classes.put(ClassSource.RESOURCE_PREFIX + path, index.readBytes(ClassSource.RESOURCE_PREFIX + path));
+                }
+            } finally {
+                index.close();
+            }
+        } catch (IOException e) {
+            LoaderMetrics.error("reload:" + contractName, e);
+            return null;
+        }
+        if (!Arrays.equals(hash, hash(classes))) {
+            LoaderMetrics.error("reload:" + contractName, new IOException("jar changed since load: " + jar));
+            return null;
+        }
+        Arena arena = compress(classes);
+        synchronized (this) {
+            // 重新读取期间合约被移除，不再放回
+            if (!jars.containsKey(contractName)) {
+                return arena;
+            }
+        }
+        install(contractName, jar, arena);
+        reloads.incrementAndGet();
+        return arena;
+    }
+
+    /**
+     * 按名称排序后全部名称和字节码的SHA-256
+     */
+    private static byte[] hash(Map<String, byte[]> classes) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        ByteBuffer length = ByteBuffer.allocate(4);
+        for (Map.Entry<String, byte[]> entry : new TreeMap<String, byte[]>(classes).entrySet()) {
+            byte[] name = entry.getKey().getBytes(UTF8);
+            length.clear();
+            digest.update(length.putInt(name.length).array());
+            digest.update(name);
+            length.clear();
+            digest.update(length.putInt(entry.getValue().length).array());
+            digest.update(entry.getValue());
+        }
+        return digest.digest();
+    }
+
+    private static Arena compress(Map<String, byte[]> classes) {
+        HashMap<String, byte[]> compressed = new HashMap<String, byte[]>(classes.size() * 2);
+        int total = 0;
+        Deflater deflater = new Deflater();
+        byte[] chunk = new byte[4096];
+        try {
+            for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+                deflater.reset();
+                deflater.setInput(entry.getValue());
+                deflater.finish();
+                ByteArrayOutputStream baos = new ByteArrayOutputStream(entry.getValue().length / 2 + 16);
+                while (!deflater.finished()) {
+                    int n = deflater.deflate(chunk);
+                    baos.write(chunk, 0, n);
+                }
+                byte[] bytes = baos.toByteArray();
+                compressed.put(entry.getKey(), bytes);
+                total += bytes.length;
+            }
+        } finally {
+            deflater.end();
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(total);
+        HashMap<String, Slot> slots = new HashMap<String, Slot>(classes.size() * 2);
+        for (Map.Entry<String, byte[]> entry : compressed.entrySet()) {
+            byte[] bytes = entry.getValue();
+            slots.put(entry.getKey(), new Slot(buffer.position(), bytes.length, classes.get(entry.getKey()).length));
+            buffer.put(bytes);
+        }
+        return new Arena(buffer, slots);
+    }
+
+    private static byte[] inflate(ByteBuffer buffer, Slot slot) {
+        byte[] input = new byte[slot.length];
+        ByteBuffer view = buffer.duplicate();
+        view.position(slot.offset);
+        view.get(input);
+        byte[] raw = new byte[slot.rawLength];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(input);
+            int n = 0;
+            while (n < raw.length && !inflater.finished()) {
+                n += inflater.inflate(raw, n, raw.length - n);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("corrupted class bytes", e);
+        } finally {
+            inflater.end();
+        }
+        return raw;
+    }
+}
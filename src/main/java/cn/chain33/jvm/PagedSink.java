@@ -0,0 +1,153 @@
+package cn.chain33.jvm;
+
+import cn.chain33.jvm.abi.AbiWriter;
+import cn.chain33.jvm.interfaces.QuerySink;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * 分页的查询结果输出
+ * 每页最多limit条，合约尝试输出第limit+1条时返回false并记下下一页的游标(本页最后一条的游标)；
+ * 合约扫描完所有结果时下一页游标为null。
+ * Json和Binary两种实现每条结果输出后立即写出，第一条结果在扫描结束前就已经发出
+ */
+public abstract class PagedSink implements QuerySink {
+    private final String cursor;
+    private final int limit;
+    private int count;
+    private String last;
+    private String next;
+    private IOException error;
+
+    protected PagedSink(String cursor, int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit must be positive: " + limit);
+        }
+        this.cursor = cursor;
+        this.limit = limit;
+    }
+
+    @Override
+    public String getCursor() {
+        return cursor;
+    }
+
+    @Override
+    public boolean emit(String cursor, String value) {
+        if (error != null) {
+            return false;
+        }
+        if (count == limit) {
+            next = last;
+            return false;
+        }
+        try {
+            write(cursor, value);
+        } catch (IOException e) {
+            error = e;
+            return false;
+        }
+        count++;
+        last = cursor;
+        return true;
+    }
+
+    /**
+     * 写出一条结果
+     *
+     * @param cursor
+     * @param value
+     * @throws IOException
+     */
+    protected abstract void write(String cursor, String value) throws IOException;
+
+    /**
+     * 查询结束后写出下一页游标
+     *
+     * @throws IOException 输出过程中的写错误
+     */
+    public void finish() throws IOException {
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * 下一页的游标
+     *
+     * @return 没有更多结果返回null
+     */
+    public String getNextCursor() {
+        return next;
+    }
+
+    /**
+     * JSON格式: {"items":["...",...],"next":"..."}，没有下一页时next为null
+     */
+    public static class Json extends PagedSink {
+        private final JsonWriter writer;
+
+        public Json(Writer out, String cursor, int limit) throws IOException {
+            super(cursor, limit);
+            this.writer = new JsonWriter(out);
+            writer.setSerializeNulls(true);
+            writer.beginObject().name("items").beginArray();
+        }
+
+        @Override
+        protected void write(String cursor, String value) throws IOException {
+            writer.value(value);
+            writer.flush();
+        }
+
+        @Override
+        public void finish() throws IOException {
+            super.finish();
+            writer.endArray().name("next").value(getNextCursor()).endObject();
+            writer.flush();
+        }
+    }
+
+    /**
+     * 二进制格式(见 AbiReader): 每条结果为 true + 字符串，结束为 false + 是否有下一页 + 下一页游标
+     */
+    public static class Binary extends PagedSink {
+        private final OutputStream out;
+        private final AbiWriter writer = new AbiWriter();
+
+        public Binary(OutputStream out, String cursor, int limit) {
+            super(cursor, limit);
+            this.out = out;
+        }
+
+        @Override
+        protected void write(String cursor, String value) throws IOException {
+            writer.reset();
+            writer.writeBoolean(true).writeString(value);
+            flush();
+        }
+
+        @Override
+        public void finish() throws IOException {
+            super.finish();
+            writer.reset();
+            writer.writeBoolean(false).writeBoolean(getNextCursor() != null);
+            if (getNextCursor() != null) {
+                writer.writeString(getNextCursor());
+            }
+            flush();
+        }
+
+        private void flush() throws IOException {
+            out.write(writer.toByteArray());
+            out.flush();
+        }
+    }
+}
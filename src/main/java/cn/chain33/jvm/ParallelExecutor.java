@@ -0,0 +1,263 @@
+package cn.chain33.jvm;
+
+import cn.chain33.jvm.state.StateStore;
+import cn.chain33.jvm.state.TxContext;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 乐观并行执行一个区块的交易
+ * 1. 所有交易在线程池中基于区块执行前的状态并行试执行，记录读写集合
+ * 2. 按区块顺序提交：交易读过的键没有被前面的交易写过，直接提交它的写集合；
+ *    否则基于已提交的状态重新执行后再提交
+ * 提交结果与按顺序串行执行完全一致。合约的状态必须全部经过ChainState读写，
+ * 合约类的静态字段等不经过ChainState的状态不受保护
+ * 冲突多的区块几乎每笔交易都要重新执行，比串行更慢：一个区块的冲突率超过阈值后，
+ * 之后的若干个区块退回串行执行，再重新尝试并行
+ */
+public class ParallelExecutor {
+
+    /**
+     * 执行一笔交易，交易的状态读写通过当前线程的TxContext进行
+     */
+    public interface TxRunner {
+        void run(String[] tx) throws Exception;
+    }
+
+    /**
+     * 通过Loader.tx执行合约
+     */
+    public static final TxRunner LOADER = new TxRunner() {
+        @Override
+        public void run(String[] tx) throws Exception {
+            Loader.tx(tx);
+        }
+    };
+
+    /**
+     * 区块中的一笔交易
+     */
+    public static class Tx {
+        final String from;
+        final String[] args;
+
+        /**
+         * @param from 交易发送者
+         * @param args {合约名称, 参数...}
+         */
+        public Tx(String from, String... args) {
+            this.from = from;
+            this.args = args;
+        }
+    }
+
+    /**
+     * 默认的冲突率阈值：重新执行的交易超过一半时退回串行
+     */
+    public static final double DEFAULT_MAX_CONFLICT_RATE = 0.5;
+    /**
+     * 默认退回串行执行的区块数
+     */
+    public static final int DEFAULT_SERIAL_BLOCKS = 16;
+
+    private final ExecutorService pool;
+    private final TxRunner runner;
+    private final double maxConflictRate;
+    private final int serialBlocks;
+    private final AtomicLong executed = new AtomicLong();
+    private final AtomicLong reexecuted = new AtomicLong();
+    private final AtomicLong serialExecuted = new AtomicLong();
+    /**
+     * 还需串行执行的区块数，区块按顺序逐个执行，只在execute中读写
+     */
+    private int serialRemaining;
+
+    public ParallelExecutor(int threads, TxRunner runner) {
+        this(threads, runner, DEFAULT_MAX_CONFLICT_RATE, DEFAULT_SERIAL_BLOCKS);
+    }
+
+    /**
+     * @param threads         线程数
+     * @param runner
+     * @param maxConflictRate 区块中重新执行的交易占比超过它时退回串行
+     * @param serialBlocks    退回串行执行的区块数
+     */
+    public ParallelExecutor(int threads, TxRunner runner, double maxConflictRate, int serialBlocks) {
+        this.pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicLong count = new AtomicLong();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "chain33-tx-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.runner = runner;
+        this.maxConflictRate = maxConflictRate;
+        this.serialBlocks = serialBlocks;
+    }
+
+    /**
+     * 并行执行一个区块的交易，结果提交到state
+     * 前面区块的冲突率超过阈值时串行执行
+     *
+     * @param state  执行前的状态，执行后包含区块的全部写入
+     * @param height 区块高度
+     * @param txs
+     * @return 每笔交易的状态
+     * @throws InterruptedException
+     */
+    public TxBatchResult execute(final StateStore state, final long height, List<Tx> txs) throws InterruptedException {
+        if (serialRemaining > 0) {
+            serialRemaining--;
+            serialExecuted.incrementAndGet();
+            return executeSerial(runner, state, height, txs);
+        }
+        List<Future<TxContext>> speculative = new ArrayList<Future<TxContext>>(txs.size());
+        for (final Tx tx : txs) {
+            speculative.add(pool.submit(new Callable<TxContext>() {
+                @Override
+                public TxContext call() {
+                    return run(runner, state, height, tx);
+                }
+            }));
+        }
+        // 全部试执行结束后才开始提交，试执行读到的都是区块执行前的状态
+        List<TxContext> contexts = new ArrayList<TxContext>(txs.size());
+        for (Future<TxContext> future : speculative) {
+            try {
+                contexts.add(future.get());
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        executed.addAndGet(txs.size());
+        TxBatchResult result = new TxBatchResult(txs.size());
+        // 本区块中已提交交易写过的键
+        Set<String> dirty = new HashSet<String>();
+        int conflicted = 0;
+        for (int i = 0; i < txs.size(); i++) {
+            TxContext context = contexts.get(i);
+            if (conflicts(context.getReadSet(), dirty)) {
+                conflicted++;
+                reexecuted.incrementAndGet();
+                context = run(runner, state, height, txs.get(i));
+            }
+            context.commit(state);
+            if (context.isFailed()) {
+                result.fail(i, context.getStatus(), context.getError());
+            } else {
+                dirty.addAll(context.getWrites().keySet());
+            }
+        }
+        if (conflicted > maxConflictRate * txs.size()) {
+            serialRemaining = serialBlocks;
+            LoaderMetrics.trace("serialFallback", height + " " + conflicted + "/" + txs.size());
+        }
+        return result;
+    }
+
+    /**
+     * 按顺序串行执行，作为并行执行的对照
+     *
+     * @param runner
+     * @param state
+     * @param height
+     * @param txs
+     * @return
+     */
+    public static TxBatchResult executeSerial(TxRunner runner, StateStore state, long height, List<Tx> txs) {
+        TxBatchResult result = new TxBatchResult(txs.size());
+        for (int i = 0; i < txs.size(); i++) {
+            TxContext context = run(runner, state, height, txs.get(i));
+            context.commit(state);
+            if (context.isFailed()) {
+                result.fail(i, context.getStatus(), context.getError());
+            }
+        }
+        return result;
+    }
+
+    private static boolean conflicts(Set<String> reads, Set<String> dirty) {
+        if (dirty.isEmpty()) {
+            return false;
+        }
+        for (String key : reads) {
+            if (dirty.contains(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 在当前线程基于state执行一笔交易，不提交
+     */
+    private static TxContext run(TxRunner runner, StateStore state, long height, Tx tx) {
+        TxContext context = new TxContext(state, tx.from, height);
+        TxContext previous = TxContext.bind(context);
+        try {
+            runner.run(tx.args);
+        } catch (InvocationTargetException e) {
+            context.fail(e.getCause() instanceof MeterExhaustedError ? TxBatchResult.OUT_OF_GAS
+                    : TxBatchResult.FAILED, String.valueOf(e.getCause()));
+        } catch (ClassNotFoundException e) {
+            context.fail(TxBatchResult.NOT_FOUND, String.valueOf(e));
+        } catch (NoSuchMethodException e) {
+            context.fail(TxBatchResult.NOT_FOUND, String.valueOf(e));
+        } catch (MeterExhaustedError e) {
+            context.fail(TxBatchResult.OUT_OF_GAS, String.valueOf(e));
+        } catch (VirtualMachineError e) {
+            throw e;
+        } catch (Throwable e) {
+            // 合约类链接错误等只让这一笔交易失败，重新执行时也不会中断区块的提交
+            context.fail(TxBatchResult.FAILED, String.valueOf(e));
+        } finally {
+            TxContext.bind(previous);
+        }
+        return context;
+    }
+
+    /**
+     * 试执行的交易总数
+     *
+     * @return
+     */
+    public long getExecuted() {
+        return executed.get();
+    }
+
+    /**
+     * 因冲突重新执行的交易数
+     *
+     * @return
+     */
+    public long getReexecuted() {
+        return reexecuted.get();
+    }
+
+    /**
+     * 因冲突率过高而串行执行的区块数
+     *
+     * @return
+     */
+    public long getSerialExecuted() {
+        return serialExecuted.get();
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+}
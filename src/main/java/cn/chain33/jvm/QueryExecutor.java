@@ -0,0 +1,285 @@
+package cn.chain33.jvm;
+
+import cn.chain33.jvm.state.MemoryState;
+import cn.chain33.jvm.state.StateView;
+import cn.chain33.jvm.state.TxContext;
+import cn.chain33.jvm.state.VersionedState;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 查询执行器，与交易执行隔离
+ * 查询在独立的线程上执行(支持时使用虚拟线程，否则使用有界线程池)，
+ * 读取最近一次发布的状态快照，不会读到正在执行的区块的中间状态，查询中的写入被丢弃。
+ * 快照来自 VersionedState.snapshot()(可以包装NativeState，不复制状态)或 MemoryState.snapshot()。
+ * 每个合约和全局都有并发上限，超过上限的查询立即拒绝，不排队等待；
+ * 按合约记录的并发计数最多保留 MAX_CONTRACTS 个，超出时淘汰空闲的合约
+ */
+public class QueryExecutor {
+    /**
+     * 保留并发计数的合约数上限
+     */
+    public static final int MAX_CONTRACTS = 1024;
+    /**
+     * 合约名称的最大长度
+     */
+    public static final int MAX_NAME_LENGTH = 256;
+
+    /**
+     * 执行一次查询，状态读取通过当前线程的TxContext进行
+     */
+    public interface QueryRunner {
+        String[] query(String[] args) throws Exception;
+    }
+
+    /**
+     * 通过Loader.query执行合约查询
+     */
+    public static final QueryRunner LOADER = new QueryRunner() {
+        @Override
+        public String[] query(String[] args) throws Exception {
+            return Loader.query(args);
+        }
+    };
+
+    /**
+     * 状态快照和对应的区块高度，一起发布
+     */
+    private static class Snapshot {
+        final StateView state;
+        final long height;
+
+        Snapshot(StateView state, long height) {
+            this.state = state;
+            this.height = height;
+        }
+    }
+
+    private final QueryRunner runner;
+    private final ExecutorService executor;
+    private final boolean virtual;
+    private final int perContract;
+    private final Semaphore total;
+    /**
+     * limits 合约名称->正在执行的查询数，-1表示已被淘汰
+     */
+    private final ConcurrentHashMap<String, AtomicInteger> limits = new ConcurrentHashMap<String, AtomicInteger>();
+    private volatile Snapshot snapshot;
+
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * @param runner
+     * @param maxConcurrent 全局并发上限
+     * @param perContract   每个合约的并发上限
+     */
+    public QueryExecutor(QueryRunner runner, int maxConcurrent, int perContract) {
+        this.runner = runner;
+        this.perContract = perContract;
+        this.total = new Semaphore(maxConcurrent);
+        ExecutorService threads = newVirtualThreadExecutor();
+        this.virtual = threads != null;
+        if (threads == null) {
+            // 没有虚拟线程时用有界线程池，排队数不超过并发上限
+            int cores = Runtime.getRuntime().availableProcessors();
+            threads = new ThreadPoolExecutor(cores, cores, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(maxConcurrent), new ThreadFactory() {
+                private final AtomicLong count = new AtomicLong();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "chain33-query-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        this.executor = threads;
+    }
+
+    /**
+     * JDK 21及以上通过反射创建虚拟线程执行器
+     *
+     * @return 不支持虚拟线程返回null
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * 发布新的状态快照，之后提交的查询读取这个快照
+     * 区块执行并提交完成后调用
+     *
+     * @param state  VersionedState.snapshot() 或 MemoryState.snapshot() 生成的只读快照
+     * @param height
+     * @throws IllegalArgumentException state不是快照
+     */
+    public void publish(StateView state, long height) {
+        if (!(state instanceof VersionedState.Snapshot)
+                && !(state instanceof MemoryState && ((MemoryState) state).isSnapshot())) {
+            throw new IllegalArgumentException("not a state snapshot: " + (state == null ? null : state.getClass().getName()));
+        }
+        snapshot = new Snapshot(state, height);
+    }
+
+    /**
+     * 提交查询
+     *
+     * @param args {合约名称, 参数...}
+     * @return
+     * @throws IllegalArgumentException   没有合约名称或名称过长
+     * @throws RejectedExecutionException 超过并发上限或没有发布快照
+     */
+    public Future<String[]> submit(final String[] args) {
+        if (args == null || args.length == 0 || args[0] == null || args[0].isEmpty()
+                || args[0].length() > MAX_NAME_LENGTH) {
+            throw new IllegalArgumentException("bad contract name");
+        }
+        final Snapshot current = snapshot;
+        if (current == null) {
+            throw new RejectedExecutionException("no state snapshot published");
+        }
+        // 先占用全局额度，忙碌的合约计数不超过全局并发上限
+        if (!total.tryAcquire()) {
+            rejected.incrementAndGet();
+            throw new RejectedExecutionException("query overloaded");
+        }
+        final AtomicInteger limit = acquire(args[0]);
+        if (limit == null) {
+            total.release();
+            rejected.incrementAndGet();
+            throw new RejectedExecutionException("query overloaded: " + args[0]);
+        }
+        try {
+            return executor.submit(new Callable<String[]>() {
+                @Override
+                public String[] call() throws Exception {
+                    TxContext previous = TxContext.bind(new TxContext(current.state, null, current.height));
+                    try {
+                        return runner.query(args);
+                    } finally {
+                        TxContext.bind(previous);
+                        limit.decrementAndGet();
+                        total.release();
+                        completed.incrementAndGet();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            limit.decrementAndGet();
+            total.release();
+            rejected.incrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * 执行查询并等待结果
+     * 超时后查询继续执行完，期间仍占用并发额度
+     *
+     * @param args
+     * @param timeout 毫秒
+     * @return
+     * @throws ExecutionException   查询抛出异常
+     * @throws TimeoutException
+     * @throws InterruptedException
+     */
+    public String[] query(String[] args, long timeout) throws ExecutionException, TimeoutException, InterruptedException {
+        return submit(args).get(timeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 占用合约的并发额度
+     *
+     * @param contractName
+     * @return 合约的计数，超过上限返回null
+     */
+    private AtomicInteger acquire(String contractName) {
+        while (true) {
+            AtomicInteger count = limits.get(contractName);
+            if (count == null) {
+                if (limits.size() >= MAX_CONTRACTS) {
+                    evictIdle();
+                }
+                AtomicInteger created = new AtomicInteger();
+                count = limits.putIfAbsent(contractName, created);
+                if (count == null) {
+                    count = created;
+                }
+            }
+            int running = count.get();
+            if (running < 0) {
+                // 已被淘汰，换成新的计数
+                limits.remove(contractName, count);
+                continue;
+            }
+            if (running >= perContract) {
+                return null;
+            }
+            if (count.compareAndSet(running, running + 1)) {
+                return count;
+            }
+        }
+    }
+
+    /**
+     * 淘汰没有正在执行查询的合约计数，计数置为-1后其他线程不会再使用它
+     */
+    private void evictIdle() {
+        for (Map.Entry<String, AtomicInteger> entry : limits.entrySet()) {
+            if (entry.getValue().compareAndSet(0, -1)) {
+                limits.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * 保留并发计数的合约数
+     *
+     * @return
+     */
+    int trackedContracts() {
+        return limits.size();
+    }
+
+    /**
+     * 是否使用虚拟线程
+     *
+     * @return
+     */
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    public long getCompleted() {
+        return completed.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
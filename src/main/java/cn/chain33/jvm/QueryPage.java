@@ -0,0 +1,30 @@
+package cn.chain33.jvm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 在内存中收集一页查询结果，大小受limit限制
+ */
+public class QueryPage extends PagedSink {
+    private final List<String> items = new ArrayList<String>();
+
+    public QueryPage(String cursor, int limit) {
+        super(cursor, limit);
+    }
+
+    @Override
+    protected void write(String cursor, String value) {
+        items.add(value);
+    }
+
+    public List<String> getItems() {
+        return Collections.unmodifiableList(items);
+    }
+
+    @Override
+    public String toString() {
+        return "QueryPage{items=" + items.size() + ",next=" + getNextCursor() + "}";
+    }
+}
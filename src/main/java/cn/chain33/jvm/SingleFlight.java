@@ -0,0 +1,70 @@
+package cn.chain33.jvm;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * 同一个key同时只执行一次
+ * 多个线程同时加载同一个合约时，只有第一个线程读取jar包，其余线程等待并共享它的结果
+ *
+ * @param <V>
+ */
+public class SingleFlight<V> {
+    /**
+     * calls key->正在执行的调用
+     */
+    private final ConcurrentHashMap<String, FutureTask<V>> calls = new ConcurrentHashMap<String, FutureTask<V>>();
+
+    /**
+     * 执行call，同一个key已有调用在执行时等待其结果
+     *
+     * @param key
+     * @param call
+     * @return
+     * @throws ExecutionException   call抛出的异常
+     * @throws InterruptedException
+     */
+    public V run(String key, Callable<V> call) throws ExecutionException, InterruptedException {
+        FutureTask<V> task = new FutureTask<V>(call);
+        FutureTask<V> running = calls.putIfAbsent(key, task);
+        if (running == null) {
+            running = task;
+            try {
+                task.run();
+            } finally {
+                calls.remove(key, task);
+            }
+        }
+        return running.get();
+    }
+
+    /**
+     * 等待key正在执行的调用结束，不发起新的调用，调用失败由发起它的线程处理
+     *
+     * @param key
+     * @throws InterruptedException
+     */
+    public void await(String key) throws InterruptedException {
+        FutureTask<V> running = calls.get(key);
+        if (running == null) {
+            return;
+        }
+        try {
+            running.get();
+        } catch (ExecutionException e) {
+            // 只等待结束，不关心结果
+        }
+    }
+
+    /**
+     * key是否有调用正在执行
+     *
+     * @param key
+     * @return
+     */
+    public boolean isRunning(String key) {
+        return calls.containsKey(key);
+    }
+}
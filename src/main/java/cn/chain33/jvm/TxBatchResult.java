@@ -0,0 +1,80 @@
+package cn.chain33.jvm;
+
+/**
+ * 批量交易的执行结果，按交易顺序保存每笔交易的状态和错误信息
+ */
+public class TxBatchResult {
+    public static final int OK = 0;
+    /**
+     * 合约方法抛出异常
+     */
+    public static final int FAILED = 1;
+    /**
+     * 合约或入口方法不存在
+     */
+    public static final int NOT_FOUND = 2;
+    /**
+     * 指令预算用完
+     */
+    public static final int OUT_OF_GAS = 3;
+
+    private final int[] status;
+    private final String[] errors;
+    private int failed;
+
+    public TxBatchResult(int size) {
+        this.status = new int[size];
+        this.errors = new String[size];
+    }
+
+    /**
+     * 记录第i笔交易失败
+     *
+     * @param i
+     * @param status
+     * @param error
+     */
+    public void fail(int i, int status, String error) {
+        if (this.status[i] == OK) {
+            failed++;
+        }
+        this.status[i] = status;
+        this.errors[i] = error;
+    }
+
+    public int size() {
+        return status.length;
+    }
+
+    public int getStatus(int i) {
+        return status[i];
+    }
+
+    /**
+     * 第i笔交易的错误信息
+     *
+     * @param i
+     * @return 成功返回null
+     */
+    public String getError(int i) {
+        return errors[i];
+    }
+
+    public boolean isOk(int i) {
+        return status[i] == OK;
+    }
+
+    /**
+     * 失败的交易数
+     *
+     * @return
+     */
+    public int getFailed() {
+        return failed;
+    }
+
+    @Override
+    public String toString() {
+        return "TxBatchResult{size=" + status.length + ",failed=" + failed + "}";
+    }
+}
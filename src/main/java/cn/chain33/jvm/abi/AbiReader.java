@@ -0,0 +1,174 @@
+package cn.chain33.jvm.abi;
+
+import java.nio.charset.Charset;
+
+/**
+ * 二进制调用编码的解码器
+ * 直接在调用数据的字节数组上按位置读取，整数、布尔和定长地址的读取不分配对象，
+ * 可以用reset复用同一个实例解码多次调用。数据不完整或格式错误时抛出IllegalArgumentException
+ *
+ * 编码:
+ * 函数选择子     4字节大端，见 AbiWriter.selector
+ * int/long      zigzag编码的varint
+ * boolean       1字节，0或1
+ * byte[]/String varint长度 + 内容(String为UTF-8)
+ * Address       20字节，无长度前缀
+ */
+public final class AbiReader {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private byte[] buf;
+    private int pos;
+    private int limit;
+
+    public AbiReader(byte[] buf) {
+        reset(buf, 0, buf.length);
+    }
+
+    public AbiReader(byte[] buf, int offset, int length) {
+        reset(buf, offset, length);
+    }
+
+    /**
+     * 改为读取另一段数据
+     *
+     * @param buf
+     * @param offset
+     * @param length
+     */
+    public void reset(byte[] buf, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > buf.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        this.buf = buf;
+        this.pos = offset;
+        this.limit = offset + length;
+    }
+
+    public byte[] array() {
+        return buf;
+    }
+
+    public int position() {
+        return pos;
+    }
+
+    public int remaining() {
+        return limit - pos;
+    }
+
+    public boolean hasRemaining() {
+        return pos < limit;
+    }
+
+    public void skip(int n) {
+        require(n);
+        pos += n;
+    }
+
+    /**
+     * 读取4字节的函数选择子
+     *
+     * @return
+     */
+    public int readSelector() {
+        require(4);
+        int value = (buf[pos] & 0xff) << 24 | (buf[pos + 1] & 0xff) << 16 | (buf[pos + 2] & 0xff) << 8 | buf[pos + 3] & 0xff;
+        pos += 4;
+        return value;
+    }
+
+    /**
+     * 读取无符号varint
+     *
+     * @return
+     */
+    public long readVarint() {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            require(1);
+            byte b = buf[pos++];
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("varint too long at " + pos);
+    }
+
+    public long readLong() {
+        long raw = readVarint();
+        return (raw >>> 1) ^ -(raw & 1);
+    }
+
+    public int readInt() {
+        long value = readLong();
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("int out of range: " + value);
+        }
+        return (int) value;
+    }
+
+    public boolean readBoolean() {
+        require(1);
+        byte b = buf[pos++];
+        if (b == 0) {
+            return false;
+        }
+        if (b == 1) {
+            return true;
+        }
+        throw new IllegalArgumentException("not a boolean: " + b);
+    }
+
+    /**
+     * 读取byte[]/String的长度，之后内容从position()开始，可以直接在array()上处理再skip
+     *
+     * @return
+     */
+    public int readLength() {
+        long length = readVarint();
+        if (length < 0 || length > remaining()) {
+            throw new IllegalArgumentException("bad length " + length + " at " + pos);
+        }
+        return (int) length;
+    }
+
+    public byte[] readBytes() {
+        int length = readLength();
+        byte[] bytes = new byte[length];
+        System.arraycopy(buf, pos, bytes, 0, length);
+        pos += length;
+        return bytes;
+    }
+
+    public String readString() {
+        int length = readLength();
+        String value = new String(buf, pos, length, UTF8);
+        pos += length;
+        return value;
+    }
+
+    /**
+     * 读取地址到调用方提供的数组，不分配对象
+     *
+     * @param dst 长度至少为 Address.LENGTH
+     */
+    public void readAddress(byte[] dst) {
+        require(Address.LENGTH);
+        System.arraycopy(buf, pos, dst, 0, Address.LENGTH);
+        pos += Address.LENGTH;
+    }
+
+    public Address readAddress() {
+        byte[] bytes = new byte[Address.LENGTH];
+        readAddress(bytes);
+        return new Address(bytes);
+    }
+
+    private void require(int n) {
+        if (n < 0 || limit - pos < n) {
+            throw new IllegalArgumentException("truncated call data at " + pos);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package cn.chain33.jvm.abi;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * 二进制调用编码的编码器，格式见 AbiReader
+ */
+public final class AbiWriter {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private byte[] buf;
+    private int size;
+
+    public AbiWriter() {
+        this(64);
+    }
+
+    public AbiWriter(int capacity) {
+        buf = new byte[Math.max(capacity, 16)];
+    }
+
+    /**
+     * 函数选择子: 函数名UTF-8编码的SHA-256的前4字节(大端)
+     *
+     * @param function
+     * @return
+     */
+    public static int selector(String function) {
+        byte[] hash;
+        try {
+            hash = MessageDigest.getInstance("SHA-256").digest(function.getBytes(UTF8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        return (hash[0] & 0xff) << 24 | (hash[1] & 0xff) << 16 | (hash[2] & 0xff) << 8 | hash[3] & 0xff;
+    }
+
+    /**
+     * 编码一次调用，参数按运行时类型编码(Integer/Long/Boolean/String/byte[]/Address)
+     *
+     * @param function
+     * @param args
+     * @return
+     */
+    public static byte[] call(String function, Object... args) {
+        AbiWriter writer = new AbiWriter();
+        writer.writeSelector(selector(function));
+        for (Object arg : args) {
+            writer.writeValue(arg);
+        }
+        return writer.toByteArray();
+    }
+
+    public AbiWriter writeSelector(int selector) {
+        ensure(4);
+        buf[size++] = (byte) (selector >>> 24);
+        buf[size++] = (byte) (selector >>> 16);
+        buf[size++] = (byte) (selector >>> 8);
+        buf[size++] = (byte) selector;
+        return this;
+    }
+
+    public AbiWriter writeVarint(long value) {
+        ensure(10);
+        while ((value & ~0x7fL) != 0) {
+            buf[size++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        buf[size++] = (byte) value;
+        return this;
+    }
+
+    public AbiWriter writeLong(long value) {
+        return writeVarint((value << 1) ^ (value >> 63));
+    }
+
+    public AbiWriter writeInt(int value) {
+        return writeLong(value);
+    }
+
+    public AbiWriter writeBoolean(boolean value) {
+        ensure(1);
+        buf[size++] = (byte) (value ? 1 : 0);
+        return this;
+    }
+
+    public AbiWriter writeBytes(byte[] value) {
+        writeVarint(value.length);
+        ensure(value.length);
+        System.arraycopy(value, 0, buf, size, value.length);
+        size += value.length;
+        return this;
+    }
+
+    public AbiWriter writeString(String value) {
+        return writeBytes(value.getBytes(UTF8));
+    }
+
+    public AbiWriter writeAddress(Address value) {
+        ensure(Address.LENGTH);
+        System.arraycopy(value.getBytes(), 0, buf, size, Address.LENGTH);
+        size += Address.LENGTH;
+        return this;
+    }
+
+    /**
+     * 按运行时类型编码一个值，String[]编码为 varint个数 + 各个字符串
+     *
+     * @param value
+     * @return
+     */
+    public AbiWriter writeValue(Object value) {
+        if (value instanceof Integer || value instanceof Long) {
+            return writeLong(((Number) value).longValue());
+        }
+        if (value instanceof Boolean) {
+            return writeBoolean((Boolean) value);
+        }
+        if (value instanceof String) {
+            return writeString((String) value);
+        }
+        if (value instanceof byte[]) {
+            return writeBytes((byte[]) value);
+        }
+        if (value instanceof Address) {
+            return writeAddress((Address) value);
+        }
+        if (value instanceof String[]) {
+            String[] values = (String[]) value;
+            writeVarint(values.length);
+            for (String s : values) {
+                writeString(s);
+            }
+            return this;
+        }
+        throw new IllegalArgumentException("unsupported type: " + (value == null ? "null" : value.getClass().getName()));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void reset() {
+        size = 0;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buf, size);
+    }
+
+    private void ensure(int n) {
+        if (size + n > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + n));
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package cn.chain33.jvm.abi;
+
+import java.util.Arrays;
+
+/**
+ * 定长的地址类型，20字节(公钥hash160)，在调用编码中不带长度前缀
+ */
+public final class Address {
+    public static final int LENGTH = 20;
+
+    private final byte[] bytes;
+
+    public Address(byte[] bytes) {
+        if (bytes.length != LENGTH) {
+            throw new IllegalArgumentException("address must be " + LENGTH + " bytes: " + bytes.length);
+        }
+        this.bytes = bytes.clone();
+    }
+
+    /**
+     * 从40个十六进制字符解析，可以带0x前缀
+     *
+     * @param hex
+     * @return
+     */
+    public static Address fromHex(String hex) {
+        if (hex.startsWith("0x") || hex.startsWith("0X")) {
+            hex = hex.substring(2);
+        }
+        if (hex.length() != LENGTH * 2) {
+            throw new IllegalArgumentException("not a hex address: " + hex);
+        }
+        byte[] bytes = new byte[LENGTH];
+        for (int i = 0; i < LENGTH; i++) {
+            int high = Character.digit(hex.charAt(i * 2), 16);
+            int low = Character.digit(hex.charAt(i * 2 + 1), 16);
+            if (high < 0 || low < 0) {
+                throw new IllegalArgumentException("not a hex address: " + hex);
+            }
+            bytes[i] = (byte) (high << 4 | low);
+        }
+        return new Address(bytes);
+    }
+
+    public byte[] getBytes() {
+        return bytes.clone();
+    }
+
+    public String toHex() {
+        StringBuilder sb = new StringBuilder(LENGTH * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Address && Arrays.equals(bytes, ((Address) o).bytes);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(bytes);
+    }
+
+    @Override
+    public String toString() {
+        return toHex();
+    }
+}
@@ -37,5 +37,27 @@ public class LocalDB {
     // get value from local db in format of string
     public native String getFromLocalInStr(String key);
 
+    // get values of several keys from local db in one call, keys and values are packed by MultiKV
+    public native byte[] getFromLocalMulti(byte[] keys);
+
+    // set several key/value pairs to local db in one call, packed by MultiKV.packEntries
+    public native boolean setLocalMulti(byte[] entries);
+
+    // get values of several keys from local db, a missing key gets null
+    public byte[][] getMulti(byte[][] keys) {
+        if (keys.length == 0) {
+            return new byte[0][];
+        }
+        return MultiKV.unpackValues(getFromLocalMulti(MultiKV.pack(keys)), keys.length);
+    }
+
+    // set several key/value pairs to local db
+    public boolean setMulti(byte[][] keys, byte[][] values) {
+        if (keys.length == 0) {
+            return true;
+        }
+        return setLocalMulti(MultiKV.packEntries(keys, values));
+    }
+
     private static native void registerNatives0();
 }
\ No newline at end of file
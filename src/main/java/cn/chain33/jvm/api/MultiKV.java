@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2020 fuzamei-33cn Group Holding Limited. All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation. fuzamei designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package cn.chain33.jvm.api;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Packs several keys or values into one contiguous buffer, so that a batch
+ * of state operations crosses the native boundary only once.
+ * Layout (big endian): count:int32, then for each item length:int32 and the bytes,
+ * a length of -1 stands for null.
+ * Key/value pairs are packed as key,value,key,value...
+ */
+public final class MultiKV {
+    private static final int NULL = -1;
+
+    private MultiKV() {
+    }
+
+    // pack items into one buffer, an item may be null
+    public static byte[] pack(byte[]... items) {
+        int size = 4;
+        for (byte[] item : items) {
+            size += 4 + (item == null ? 0 : item.length);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(items.length);
+        for (byte[] item : items) {
+            if (item == null) {
+                buffer.putInt(NULL);
+            } else {
+                buffer.putInt(item.length);
+                buffer.put(item);
+            }
+        }
+        return buffer.array();
+    }
+
+    // unpack a buffer built by pack
+    public static byte[][] unpack(byte[] packed) {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(packed);
+            int count = buffer.getInt();
+            if (count < 0 || count > buffer.remaining() / 4) {
+                throw new IllegalArgumentException("bad item count: " + count);
+            }
+            byte[][] items = new byte[count][];
+            for (int i = 0; i < count; i++) {
+                int length = buffer.getInt();
+                if (length == NULL) {
+                    continue;
+                }
+                if (length < 0 || length > buffer.remaining()) {
+                    throw new IllegalArgumentException("bad item length: " + length);
+                }
+                items[i] = new byte[length];
+                buffer.get(items[i]);
+            }
+            if (buffer.hasRemaining()) {
+                throw new IllegalArgumentException("trailing bytes: " + buffer.remaining());
+            }
+            return items;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("truncated buffer");
+        }
+    }
+
+    // pack key/value pairs, keys and values must have the same length
+    public static byte[] packEntries(byte[][] keys, byte[][] values) {
+        if (keys.length != values.length) {
+            throw new IllegalArgumentException("keys: " + keys.length + ", values: " + values.length);
+        }
+        byte[][] items = new byte[keys.length * 2][];
+        for (int i = 0; i < keys.length; i++) {
+            items[2 * i] = keys[i];
+            items[2 * i + 1] = values[i];
+        }
+        return pack(items);
+    }
+
+    // unpack the values returned for count keys
+    static byte[][] unpackValues(byte[] packed, int count) {
+        byte[][] values = unpack(packed);
+        if (values.length != count) {
+            throw new IllegalArgumentException("expect " + count + " values, got " + values.length);
+        }
+        return values;
+    }
+}
@@ -37,5 +37,27 @@ public class StateDB {
     // get value from statedb in the format of string
     public native String getFromStateInStr(String key);
 
+    // get values of several keys from statedb in one call, keys and values are packed by MultiKV
+    public native byte[] getFromStateMulti(byte[] keys);
+
+    // set several key/value pairs to statedb in one call, packed by MultiKV.packEntries
+    public native boolean setStateMulti(byte[] entries);
+
+    // get values of several keys from statedb, a missing key gets null
+    public byte[][] getMulti(byte[][] keys) {
+        if (keys.length == 0) {
+            return new byte[0][];
+        }
+        return MultiKV.unpackValues(getFromStateMulti(MultiKV.pack(keys)), keys.length);
+    }
+
+    // set several key/value pairs to statedb
+    public boolean setMulti(byte[][] keys, byte[][] values) {
+        if (keys.length == 0) {
+            return true;
+        }
+        return setStateMulti(MultiKV.packEntries(keys, values));
+    }
+
     private static native void registerNatives0();
 }
\ No newline at end of file
@@ -1,10 +1,17 @@
 package cn.chain33.jvm.dapp.guess;
 
 
+import cn.chain33.jvm.ClassStore;
+import cn.chain33.jvm.ClassStores;
+import cn.chain33.jvm.SingleFlight;
+
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 
@@ -25,21 +32,26 @@ public class Chain33Loader extends ClassLoader {
      * Read all the classes in the jar package into memory
      * Then if you need to read, look up from the cache data
      * data (contract name->(class file name-->class bytecode))
+     * heap by default, compressed off-heap with -Dchain33.jvm.classStore=offheap
      */
-    private static HashMap<String, HashMap<String, byte[]>> data = new HashMap<String, HashMap<String, byte[]>>();
+    private static ClassStore data = ClassStores.fromSystemProperties();
     /**
      * contractClass  Class file -> contract name
      */
-    private static HashMap<String, String> contractClass = new HashMap<String, String>();
+    private static ConcurrentHashMap<String, String> contractClass = new ConcurrentHashMap<String, String>();
     /**
      * entryClass   Contract Name -> Contract Entry Class
      */
-    private static HashMap<String, String> entryClass = new HashMap<String, String>();
+    private static ConcurrentHashMap<String, String> entryClass = new ConcurrentHashMap<String, String>();
 
     /**
      * common   common class
      */
-    private static HashMap<String, byte[]> common = new HashMap<String, byte[]>();
+    private static ConcurrentHashMap<String, byte[]> common = new ConcurrentHashMap<String, byte[]>();
+    /**
+     * loading   contracts being read, concurrent loads of one contract read its jar once
+     */
+    private static SingleFlight<Integer> loading = new SingleFlight<Integer>();
     private static String lib = "lib";
     private String classes;
 
@@ -50,7 +62,7 @@ public class Chain33Loader extends ClassLoader {
      * @return
      */
     public static boolean isExist(String contractName) {
-        if (INSTANCE.data.containsKey(contractName)) {
+        if (INSTANCE.data.contains(contractName)) {
             return true;
         }
         return false;
@@ -71,19 +83,35 @@ public class Chain33Loader extends ClassLoader {
      *
      * @param contractName
      */
-    public static int loadContract(String contractName) {
-        File directory = new File(contractName + ".jar");
-        String path = directory.getAbsolutePath();
-        if (INSTANCE.data.containsKey(contractName)) {
+    public static int loadContract(final String contractName) {
+        if (INSTANCE.data.contains(contractName)) {
             return 0;
         }
         try {
-            INSTANCE.preReadJarFile(path);
-        } catch (IOException e) {
+            return loading.run(contractName, new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    if (INSTANCE.data.contains(contractName)) {
+                        return 0;
+                    }
+                    File directory = new File(contractName + ".jar");
+                    String path = directory.getAbsolutePath();
+                    try {
+                        INSTANCE.preReadJarFile(path);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                        return 1;
+                    }
+                    return 0;
+                }
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 1;
+        } catch (ExecutionException e) {
             e.printStackTrace();
             return 1;
         }
-        return 0;
     }
 
     /**
@@ -231,7 +259,7 @@ public class Chain33Loader extends ClassLoader {
     private byte[] getClassFromMap(String name) {
         //load contract class
         if (this.contractClass.containsKey(name)) {
-            return this.data.get(this.contractClass.get(name)).get(name);
+            return this.data.get(this.contractClass.get(name), name);
         }
         //load common class
         if (this.common.containsKey(name)) {
@@ -369,7 +397,7 @@ public class Chain33Loader extends ClassLoader {
             return;
         }
 
-        this.data.put(contractName, map);
+        this.data.put(contractName, new File(jar.getName()), map);
     }
 
     /**
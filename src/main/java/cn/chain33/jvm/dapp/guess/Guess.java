@@ -1,13 +1,20 @@
 package cn.chain33.jvm.dapp.guess;
 
+import cn.chain33.jvm.interfaces.QueryFunction;
+import cn.chain33.jvm.interfaces.QuerySink;
+import cn.chain33.jvm.interfaces.TxFunction;
+import cn.chain33.jvm.state.ChainState;
 import com.fuzamei.chain33.Account;
 import com.fuzamei.chain33.Blockchain;
-import com.fuzamei.chain33.LocalDB;
-import com.fuzamei.chain33.StateDB;
 import com.google.gson.Gson;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
+/**
+ * 猜数字游戏合约
+ * StateDB/LocalDB和交易信息都通过ChainState读写，经过Loader建立的交易缓冲；
+ * 账户余额和随机数仍由宿主的Account/Blockchain提供
+ */
 public class Guess {
     private static final Guess INSTANCE = new Guess();
 
@@ -40,16 +47,16 @@ public class Guess {
 
 
     public Guess loadData() {
-        byte[] bytes = LocalDB.getFromLocal(LastRound.getBytes());
+        byte[] bytes = ChainState.getFromLocal(LastRound.getBytes());
         if (bytes != null) {
-            byte[] data = StateDB.getFromState(bytes.toString().getBytes());
+            byte[] data = ChainState.getFromState(bytes);
             if (data != null) {
                 Gson gson = new Gson();
-                Guess guess = gson.fromJson(data.toString(), new Guess().getClass());
-                if (guess.isClosed) {
+                Guess guess = gson.fromJson(new String(data), new Guess().getClass());
+                if (Boolean.TRUE.equals(guess.isClosed)) {
                     Guess nextRound = new Guess();
                     nextRound.admin = guess.admin;
-                    nextRound.startHeight = Blockchain.getCurrentHeight();
+                    nextRound.startHeight = ChainState.getCurrentHeight();
                     nextRound.round = guess.round + 1;
                     nextRound.data = new LinkedHashMap<Integer, LinkedHashMap<String, Integer>>();
                     nextRound.bonusPool = guess.legacyBonus;
@@ -57,40 +64,41 @@ public class Guess {
                 }
                 return guess;
             } else {
-                Blockchain.stopTransWithErrInfo("not found last round game info! round:" + bytes.toString());
-                throw new IllegalStateException("not found last round game info! round:" + bytes.toString());
+                ChainState.stopTransWithErrInfo("not found last round game info! round:" + new String(bytes));
+                throw new IllegalStateException("not found last round game info! round:" + new String(bytes));
             }
         }
         return null;
     }
 
     public Guess loadData(Integer round) {
-        byte[] data = StateDB.getFromState(round.toString().getBytes());
+        byte[] data = ChainState.getFromState(round.toString().getBytes());
         if (data != null) {
             Gson gson = new Gson();
-            Guess guess = gson.fromJson(data.toString(), new Guess().getClass());
+            Guess guess = gson.fromJson(new String(data), new Guess().getClass());
             return guess;
         }
-        Blockchain.stopTransWithErrInfo("not found last round game info! round:" + round);
+        ChainState.stopTransWithErrInfo("not found last round game info! round:" + round);
         throw new IllegalStateException("not found last round game info! round:" + round);
     }
 
     public boolean saveData() {
         Gson gson = new Gson();
         String jsonStr = gson.toJson(this);
-        StateDB.setState(this.round.toString().getBytes(), jsonStr.getBytes());
+        ChainState.setState(this.round.toString().getBytes(), jsonStr.getBytes());
         //LastRound, The index information is placed in the localdb
-        Boolean flag = LocalDB.setLocal(LastRound.getBytes(), this.round.toString().getBytes());
+        boolean flag = ChainState.setLocal(LastRound.getBytes(), this.round.toString().getBytes());
         return flag;
     }
 
     //It only needs to be started once
+    @TxFunction
     public boolean startGame() {
         Guess guess = loadData();
         if (guess == null) {
             Guess newGuess = new Guess();
-            newGuess.admin = Blockchain.getFrom();
-            newGuess.startHeight = Blockchain.getCurrentHeight();
+            newGuess.admin = ChainState.getFrom();
+            newGuess.startHeight = ChainState.getCurrentHeight();
             newGuess.round = 1;
             newGuess.data = new LinkedHashMap<Integer, LinkedHashMap<String, Integer>>();
             return newGuess.saveData();
@@ -99,15 +107,20 @@ public class Guess {
         return true;
     }
 
+    @TxFunction
     public void playGame(Integer lucky, Integer ticketNum) {
         Guess guess = loadData();
         if (guess == null) {
-            Blockchain.stopTransWithErrInfo("the game hasn't started yet!");
+            ChainState.stopTransWithErrInfo("the game hasn't started yet!");
             throw new IllegalStateException("the game hasn't started yet!");
         }
         LinkedHashMap<String, Integer> recordMap = guess.data.get(lucky);
+        if (recordMap == null) {
+            recordMap = new LinkedHashMap<String, Integer>();
+            guess.data.put(lucky, recordMap);
+        }
         long amount = ticketNum.longValue() * TicketPrice;
-        String from = Blockchain.getFrom();
+        String from = ChainState.getFrom();
         if (Account.execTransfer(from, guess.admin, amount)) {
             if (Account.execFrozen(guess.admin, amount)) {
                 guess.bonusPool += amount;
@@ -143,19 +156,20 @@ public class Guess {
                 return;
             }
         }
-        Blockchain.stopTransWithErrInfo("lack of balance! need amount:" + amount);
+        ChainState.stopTransWithErrInfo("lack of balance! need amount:" + amount);
         throw new IllegalStateException("lack of balance! need amount:" + amount);
     }
 
+    @TxFunction
     public void closeGame() {
         Guess guess = loadData();
         if (guess == null) {
-            Blockchain.stopTransWithErrInfo("the game hasn't started yet!");
+            ChainState.stopTransWithErrInfo("the game hasn't started yet!");
             throw new IllegalStateException("the game hasn't started yet!");
         }
-        long blockHeight = Blockchain.getCurrentHeight();
+        long blockHeight = ChainState.getCurrentHeight();
         if (blockHeight - guess.startHeight <= 10) {
-            Blockchain.stopTransWithErrInfo("you have to wait for 10 block height!");
+            ChainState.stopTransWithErrInfo("you have to wait for 10 block height!");
             throw new IllegalStateException("you have to wait for 10 block height!");
         }
         // 0~9
@@ -189,7 +203,7 @@ public class Guess {
                     continue;
                 }
             }
-            Blockchain.stopTransWithErrInfo("The frozen bonus is insufficient!");
+            ChainState.stopTransWithErrInfo("The frozen bonus is insufficient!");
             throw new IllegalStateException("The frozen bonus is insufficient!");
         }
 
@@ -203,8 +217,56 @@ public class Guess {
     }
 
 
+    @QueryFunction
+    public static String getGuessRecordByRound(String address, int round) {
+        return String.valueOf(Record.getInstance(address).getGuessRecordByRound(round));
+    }
+
+    @QueryFunction
+    public static String getBonusByRound(String address, int round) {
+        return String.valueOf(Record.getInstance(address).getBonusByRound(round));
+    }
+
+    /**
+     * 玩家每一轮的投注记录，按轮次分页，游标为轮次
+     * 玩家的记录整体存成一个值，每一页都要读出并解析全部记录，分页只限制输出的条数
+     */
+    @QueryFunction
+    public static void getGuessRecords(String address, QuerySink sink) {
+        String cursor = sink.getCursor();
+        int after = cursor == null ? Integer.MIN_VALUE : Integer.parseInt(cursor);
+        for (Map.Entry<Integer, LinkedHashMap<Integer, Integer>> entry : Record.getInstance(address).getGuessRecord().entrySet()) {
+            if (entry.getKey() <= after) {
+                continue;
+            }
+            if (!sink.emit(entry.getKey().toString(), entry.getKey() + ":" + entry.getValue())) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 一轮的全部投注，每条为 号码:地址:票数，游标为序号
+     * 一轮的数据整体存成一个值，每一页都要读出并解析整轮数据，分页只限制输出的条数
+     */
+    @QueryFunction
+    public static void getBettorsByRound(int round, QuerySink sink) {
+        String cursor = sink.getCursor();
+        long after = cursor == null ? -1 : Long.parseLong(cursor);
+        long index = 0;
+        for (Map.Entry<Integer, LinkedHashMap<String, Integer>> lucky : INSTANCE.loadData(round).data.entrySet()) {
+            for (Map.Entry<String, Integer> bettor : lucky.getValue().entrySet()) {
+                if (index > after && !sink.emit(String.valueOf(index), lucky.getKey() + ":" + bettor.getKey() + ":" + bettor.getValue())) {
+                    return;
+                }
+                index++;
+            }
+        }
+    }
+
     /**
      * tx entry static function.
+     * 声明了@TxFunction后Loader按分发表调用，这里保留给按名称反射调用tx的加载器
      *
      * @param args
      */
@@ -216,7 +278,7 @@ public class Guess {
                 break;
             case "playGame":
                 if (args.length != 3) {
-                    Blockchain.stopTransWithErrInfo("insufficient paramenters!");
+                    ChainState.stopTransWithErrInfo("insufficient paramenters!");
                     return;
                 }
                 guess.playGame(Integer.valueOf(args[1]), Integer.valueOf(args[2]));
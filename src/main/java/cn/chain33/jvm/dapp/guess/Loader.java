@@ -1,9 +1,17 @@
 //package cn.chain33.jvm.dapp.guess;
 package com.fuzamei.chain33;
+import cn.chain33.jvm.SingleFlight;
+
 import java.io.*;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 
@@ -25,20 +33,31 @@ public class Loader extends ClassLoader{
      * Then if you need to read, look up from the cache data
      * data (contract name->(class file name-->class bytecode))
      */
-    private static HashMap<String, HashMap<String, byte[]>> data = new HashMap<String, HashMap<String, byte[]>>();
+    private static ConcurrentHashMap<String, HashMap<String, byte[]>> data = new ConcurrentHashMap<String, HashMap<String, byte[]>>();
     /**
      * contractClass  Class file -> contract name
      */
-    private static HashMap<String, String> contractClass = new HashMap<String, String>();
+    private static ConcurrentHashMap<String, String> contractClass = new ConcurrentHashMap<String, String>();
     /**
      * entryClass   Contract Name -> Contract Entry Class
      */
-    private static HashMap<String, String> entryClass = new HashMap<String, String>();
+    private static ConcurrentHashMap<String, String> entryClass = new ConcurrentHashMap<String, String>();
+    /**
+     * generations   Contract Name -> class loader and resolved entries of the contract bytes currently in data,
+     * dropped whenever the contract jar is read again so that the next call defines the new classes
+     */
+    private static ConcurrentHashMap<String, Generation> generations = new ConcurrentHashMap<String, Generation>();
+    private static final MethodType TX_TYPE = MethodType.methodType(void.class, String[].class);
+    private static final MethodType QUERY_TYPE = MethodType.methodType(String[].class, String[].class);
 
     /**
      * common   common class
      */
-    private static HashMap<String, byte[]> common = new HashMap<String, byte[]>();
+    private static ConcurrentHashMap<String, byte[]> common = new ConcurrentHashMap<String, byte[]>();
+    /**
+     * loading   contracts being read, concurrent loads of one contract read its jar once
+     */
+    private static SingleFlight<Integer> loading = new SingleFlight<Integer>();
     private static String lib = "lib";
     private String classes;
 
@@ -85,18 +104,35 @@ public class Loader extends ClassLoader{
             }
             return 0;
         }
-        File directory = new File(pathName + ".jar");
-        String path = directory.getAbsolutePath();
-        if (INSTANCE.data.containsKey(pathName)) {
+        final String contractName = pathName;
+        if (INSTANCE.data.containsKey(contractName)) {
             return 0;
         }
         try {
-            INSTANCE.preReadJarFile(path);
-        } catch (IOException e) {
+            return loading.run(contractName, new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    if (INSTANCE.data.containsKey(contractName)) {
+                        return 0;
+                    }
+                    File directory = new File(contractName + ".jar");
+                    String path = directory.getAbsolutePath();
+                    try {
+                        INSTANCE.preReadJarFile(path);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                        return 1;
+                    }
+                    return 0;
+                }
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 1;
+        } catch (ExecutionException e) {
             e.printStackTrace();
             return 1;
         }
-        return 0;
     }
 
 
@@ -148,15 +184,16 @@ public class Loader extends ClassLoader{
         String[] progArgs = new String[args.length - 1];
         System.arraycopy(args, 1, progArgs
                 , 0, progArgs.length);
-        Loader loader = new Loader();
         if (!isExist(contractName)) {
-            loader.loadJar(1,contractName);
+            loadJar(1,contractName);
         }
         try {
-            Class<?> clazz = loader.loadClass(getEntryClass(contractName));
-            Method tx = clazz.getMethod("tx", (new String[0]).getClass());
-            Object[] argsArray = {progArgs};
-            tx.invoke(null, argsArray);
+            MethodHandle tx = generation(contractName).tx(contractName);
+            try {
+                tx.invokeExact(progArgs);
+            } catch (Throwable t) {
+                throw new InvocationTargetException(t);
+            }
         } catch (ClassNotFoundException e) {
             e.printStackTrace();
             return 2;
@@ -179,16 +216,16 @@ public class Loader extends ClassLoader{
         String[] progArgs = new String[args.length - 1];
         System.arraycopy(args, 1, progArgs
                 , 0, progArgs.length);
-        Loader loader = new Loader();
         if (!isExist(contractName)) {
-            loader.loadJar(1,contractName);
+            loadJar(1,contractName);
         }
         try {
-            Class<?> clazz = loader.loadClass(getEntryClass(contractName));
-            Method query = clazz.getMethod("query", (new String[0]).getClass());
-            Object[] argsArray = {progArgs};
-            Object result = query.invoke(null, argsArray);
-            return (String[]) result;
+            MethodHandle query = generation(contractName).query(contractName);
+            try {
+                return (String[]) query.invokeExact(progArgs);
+            } catch (Throwable t) {
+                throw new InvocationTargetException(t);
+            }
         } catch (ClassNotFoundException e) {
             e.printStackTrace();
         } catch (NoSuchMethodException | SecurityException e) {
@@ -201,6 +238,58 @@ public class Loader extends ClassLoader{
         return null;
     }
 
+    /**
+     * One read of a contract jar: its own class loader and the entries resolved through it.
+     * Calls share the generation until the jar is read again.
+     */
+    private static class Generation {
+        final Loader loader = new Loader();
+        private volatile MethodHandle tx;
+        private volatile MethodHandle query;
+
+        MethodHandle tx(String contractName) throws ClassNotFoundException, NoSuchMethodException, IllegalAccessException {
+            MethodHandle handle = tx;
+            if (handle == null) {
+                handle = resolve(contractName, "tx", TX_TYPE);
+                tx = handle;
+            }
+            return handle;
+        }
+
+        MethodHandle query(String contractName) throws ClassNotFoundException, NoSuchMethodException, IllegalAccessException {
+            MethodHandle handle = query;
+            if (handle == null) {
+                handle = resolve(contractName, "query", QUERY_TYPE);
+                query = handle;
+            }
+            return handle;
+        }
+
+        private MethodHandle resolve(String contractName, String method, MethodType type)
+                throws ClassNotFoundException, NoSuchMethodException, IllegalAccessException {
+            Class<?> clazz = loader.loadClass(getEntryClass(contractName));
+            return MethodHandles.publicLookup().unreflect(clazz.getMethod(method, String[].class)).asType(type);
+        }
+    }
+
+    /**
+     * Get the current generation of a contract, creating it on the first call after the jar was read.
+     *
+     * @param contractName
+     * @return
+     */
+    private static Generation generation(String contractName) {
+        Generation generation = generations.get(contractName);
+        if (generation == null) {
+            Generation created = new Generation();
+            generation = generations.putIfAbsent(contractName, created);
+            if (generation == null) {
+                generation = created;
+            }
+        }
+        return generation;
+    }
+
     /**
      * According to the mechanism of the parent class, if the class is not found in the parent class
      * Will call this findClass to load
@@ -371,6 +460,8 @@ public class Loader extends ClassLoader{
         }
 
         this.data.put(contractName, map);
+        // classes defined from the previous bytes belong to the old generation
+        generations.remove(contractName);
     }
 
     /**
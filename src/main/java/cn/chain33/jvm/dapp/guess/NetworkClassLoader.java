@@ -1,18 +1,71 @@
 package cn.chain33.jvm.dapp.guess;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.net.URLConnection;
 import java.net.URLStreamHandlerFactory;
 import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.security.PermissionCollection;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.jar.Manifest;
 
+/**
+ * 从网络加载类和资源
+ * 设置cacheDir后，从baseUrl取到的类、资源和jar包按内容的SHA-256保存在本地磁盘，
+ * 之后(包括进程重启后)直接读本地文件，读取时重新计算hash校验，不一致的缓存文件被丢弃并重新下载；
+ * 服务端不存在的名称记入有上限的未命中表，不再重复请求。
+ * 合约按版本发布，同一个名称的内容不变；需要校验服务端内容时通过prefetch的类清单给出hash
+ *
+ * 缓存目录:
+ * objects/内容hash   内容
+ * names/名称hash     名称对应的内容hash
+ */
 public class NetworkClassLoader extends URLClassLoader {
+    /**
+     * 未命中表的上限
+     */
+    private static final int MISSING_CAPACITY = 1024;
 
     String baseUrl;
 
+    private File cacheDir;
+    /**
+     * 类清单中给出的 名称->内容hash
+     */
+    private final ConcurrentHashMap<String, String> hashes = new ConcurrentHashMap<String, String>();
+    private final Map<String, Boolean> missing = Collections.synchronizedMap(
+            new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                    return size() > MISSING_CAPACITY;
+                }
+            });
+    private final AtomicLong fetches = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong missingHits = new AtomicLong();
+
     public String getBaseUrl() {
         return baseUrl;
     }
@@ -21,6 +74,19 @@ public class NetworkClassLoader extends URLClassLoader {
         this.baseUrl = baseUrl;
     }
 
+    public File getCacheDir() {
+        return cacheDir;
+    }
+
+    /**
+     * 本地缓存目录，为null时不缓存
+     *
+     * @param cacheDir
+     */
+    public void setCacheDir(File cacheDir) {
+        this.cacheDir = cacheDir;
+    }
+
     public NetworkClassLoader(){
         this(new URL[]{});
     }
@@ -57,13 +123,15 @@ public class NetworkClassLoader extends URLClassLoader {
 
     /**
      * [添加baseUrl]
+     * 设置了cacheDir时jar包先下载到本地缓存，再从本地文件加载
      * @param url
      */
     public void addURL(String url){
         URL uurl=null;
         try {
-            uurl = new URL(baseUrl+url);
-        } catch (MalformedURLException e) {
+            File cached = cacheDir == null || !url.endsWith(".jar") ? null : fetchFile(url);
+            uurl = cached != null ? cached.toURI().toURL() : new URL(baseUrl+url);
+        } catch (IOException e) {
             // TODO Auto-generated catch block
             e.printStackTrace();
         }
@@ -86,11 +154,21 @@ public class NetworkClassLoader extends URLClassLoader {
 
     /**
      * 查找类对象
+     *   先从本地缓存或baseUrl取类文件，取不到时
      *   从以上的URLS中查找加载当前类对象[会打开所有的jars去查找指定的类]
      *   (可以通过调用findClass来得到以上URL加载包中的类)
      */
     protected Class<?> findClass(String name) throws ClassNotFoundException {
-        return super.findClass(name);
+        byte[] bytes;
+        try {
+            bytes = fetch(name.replace('.', '/') + ".class");
+        } catch (IOException e) {
+            throw new ClassNotFoundException(name, e);
+        }
+        if (bytes == null) {
+            return super.findClass(name);
+        }
+        return defineClass(name, bytes, 0, bytes.length);
     }
 
     /**
@@ -101,18 +179,25 @@ public class NetworkClassLoader extends URLClassLoader {
 
     /**
      * 查找资源[自定义相对URL查找路径]
-     *   从以上的URLS中查找当前名称的资源
+     *   资源存在时返回本地缓存文件的URL，没有缓存目录时返回baseUrl下的URL，
+     *   不存在时返回null并记入未命中表
      * 这个必须重写，因为是public 哈哈
      */
     public URL findResource(String name) {
-        URL url = null;
         try {
-            url = new URL(baseUrl+name);
-        } catch (MalformedURLException e) {
+            if (cacheDir != null) {
+                File file = fetchFile(name);
+                if (file != null) {
+                    return file.toURI().toURL();
+                }
+            } else if (fetch(name) != null) {
+                return new URL(baseUrl + name);
+            }
+        } catch (IOException e) {
             // TODO Auto-generated catch block
             e.printStackTrace();
         }
-        return url;
+        return super.findResource(name);
     }
 
     /**
@@ -122,6 +207,262 @@ public class NetworkClassLoader extends URLClassLoader {
         return super.findResources(name);
     }
 
+    /**
+     * 并行预取合约的全部类和资源到本地缓存
+     * 类清单放在baseUrl下，每行一个名称，或者 "内容hash 名称"；给出hash的条目下载和读缓存时都按hash校验
+     *
+     * @param listName 类清单的名称
+     * @param threads  并行下载数
+     * @return 预取到的条目数
+     * @throws IOException
+     */
+    public int prefetch(String listName, int threads) throws IOException {
+        if (cacheDir == null) {
+            throw new IllegalStateException("cacheDir not set");
+        }
+        byte[] list = download(baseUrl + listName);
+        if (list == null) {
+            throw new FileNotFoundException(baseUrl + listName);
+        }
+        final List<String> names = new ArrayList<String>();
+        for (String line : new String(list, "UTF-8").split("\n")) {
+            line = line.trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            int space = line.indexOf(' ');
+            if (space > 0) {
+                String name = line.substring(space + 1).trim();
+                hashes.put(name, line.substring(0, space).toLowerCase());
+                names.add(name);
+            } else {
+                names.add(line);
+            }
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, names.size())));
+        try {
+            List<Future<File>> futures = new ArrayList<Future<File>>(names.size());
+            for (final String name : names) {
+                futures.add(pool.submit(new Callable<File>() {
+                    @Override
+                    public File call() throws IOException {
+                        return fetchFile(name);
+                    }
+                }));
+            }
+            int fetched = 0;
+            for (Future<File> future : futures) {
+                if (future.get() != null) {
+                    fetched++;
+                }
+            }
+            return fetched;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * 取名称对应的内容，依次查未命中表、本地缓存、baseUrl
+     *
+     * @param name 相对baseUrl的名称
+     * @return 不存在返回null
+     * @throws IOException
+     */
+    private byte[] fetch(String name) throws IOException {
+        if (cacheDir != null) {
+            File file = fetchFile(name);
+            return file == null ? null : readFile(file);
+        }
+        if (isMissing(name)) {
+            return null;
+        }
+        return download(name, hashes.get(name));
+    }
+
+    /**
+     * 取名称对应的本地缓存文件，没有缓存时下载
+     *
+     * @param name
+     * @return 不存在返回null
+     * @throws IOException
+     */
+    private File fetchFile(String name) throws IOException {
+        if (isMissing(name)) {
+            return null;
+        }
+        String expected = hashes.get(name);
+        File nameFile = new File(new File(cacheDir, "names"), hex(sha256(name.getBytes("UTF-8"))));
+        String hash = expected;
+        if (hash == null && nameFile.isFile()) {
+            hash = new String(readFile(nameFile), "UTF-8");
+        }
+        if (hash != null) {
+            File object = new File(new File(cacheDir, "objects"), hash);
+            if (object.isFile()) {
+                if (hash.equals(hex(sha256(readFile(object))))) {
+                    cacheHits.incrementAndGet();
+                    return object;
+                }
+                // 缓存文件损坏
+                object.delete();
+            }
+        }
+        byte[] bytes = download(name, expected);
+        if (bytes == null) {
+            return null;
+        }
+        hash = hex(sha256(bytes));
+        File object = new File(new File(cacheDir, "objects"), hash);
+        writeFile(object, bytes);
+        writeFile(nameFile, hash.getBytes("UTF-8"));
+        return object;
+    }
+
+    private boolean isMissing(String name) {
+        if (missing.containsKey(name)) {
+            missingHits.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 从baseUrl下载，不存在时记入未命中表
+     */
+    private byte[] download(String name, String expected) throws IOException {
+        if (baseUrl == null) {
+            return null;
+        }
+        byte[] bytes = download(baseUrl + name);
+        if (bytes == null) {
+            missing.put(name, Boolean.TRUE);
+            return null;
+        }
+        if (expected != null && !expected.equals(hex(sha256(bytes)))) {
+            throw new IOException("hash mismatch: " + name);
+        }
+        return bytes;
+    }
+
+    /**
+     * 下载URL的内容
+     *
+     * @param url
+     * @return HTTP 404/410 或文件不存在返回null
+     * @throws IOException
+     */
+    private byte[] download(String url) throws IOException {
+        fetches.incrementAndGet();
+        URLConnection connection = new URL(url).openConnection();
+        if (connection instanceof HttpURLConnection) {
+            int code = ((HttpURLConnection) connection).getResponseCode();
+            if (code == HttpURLConnection.HTTP_NOT_FOUND || code == HttpURLConnection.HTTP_GONE) {
+                ((HttpURLConnection) connection).disconnect();
+                return null;
+            }
+        }
+        InputStream input;
+        try {
+            input = connection.getInputStream();
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        try {
+            return readAll(input);
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * 网络请求次数
+     *
+     * @return
+     */
+    public long getFetches() {
+        return fetches.get();
+    }
+
+    /**
+     * 本地缓存命中次数
+     *
+     * @return
+     */
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    /**
+     * 未命中表命中次数
+     *
+     * @return
+     */
+    public long getMissingHits() {
+        return missingHits.get();
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        InputStream input = new FileInputStream(file);
+        try {
+            return readAll(input);
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * 先写临时文件再改名，并发写同一个文件时读到的总是完整内容
+     */
+    private static void writeFile(File file, byte[] bytes) throws IOException {
+        file.getParentFile().mkdirs();
+        File tmp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+        FileOutputStream output = new FileOutputStream(tmp);
+        try {
+            output.write(bytes);
+        } finally {
+            output.close();
+        }
+        if (!tmp.renameTo(file)) {
+            file.delete();
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+                throw new IOException("rename failed: " + file);
+            }
+        }
+    }
+
+    private static byte[] readAll(InputStream input) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = input.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] sha256(byte[] bytes) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(bytes);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
     /**
      * 在当前的ClassLoader中，定义一个新的Package,Package的属性由Manifest指定.这个包的源文件
      */
@@ -136,4 +477,4 @@ public class NetworkClassLoader extends URLClassLoader {
     protected PermissionCollection getPermissions(CodeSource codesource) {
         return super.getPermissions(codesource);
     }
-}
\ No newline at end of file
+}
@@ -1,7 +1,6 @@
 package cn.chain33.jvm.dapp.guess;
 
-import com.fuzamei.chain33.Blockchain;
-import com.fuzamei.chain33.LocalDB;
+import cn.chain33.jvm.state.ChainState;
 import com.google.gson.Gson;
 
 import java.util.LinkedHashMap;
@@ -47,21 +46,21 @@ public class Record {
     }
 
     public Record loadData() {
-        byte[] values = LocalDB.getFromLocal(Blockchain.getFrom().getBytes());
+        byte[] values = ChainState.getFromLocal(ChainState.getFrom().getBytes());
         if (values == null) {
             Record record = new Record();
-            record.setAddress(Blockchain.getFrom());
+            record.setAddress(ChainState.getFrom());
             record.guessRecord = new LinkedHashMap<Integer, LinkedHashMap<Integer, Integer>>();
             record.prizeRecord = new LinkedHashMap<Integer, Long>();
             return record;
         }
         Gson gson = new Gson();
-        Record record = gson.fromJson(values.toString(), new Record().getClass());
+        Record record = gson.fromJson(new String(values), new Record().getClass());
         return record;
     }
 
     public Record loadData(String from) {
-        byte[] values = LocalDB.getFromLocal(from.getBytes());
+        byte[] values = ChainState.getFromLocal(from.getBytes());
         if (values == null) {
             Record record = new Record();
             record.setAddress(from);
@@ -70,14 +69,14 @@ public class Record {
             return record;
         }
         Gson gson = new Gson();
-        Record record = gson.fromJson(values.toString(), new Record().getClass());
+        Record record = gson.fromJson(new String(values), new Record().getClass());
         return record;
     }
 
     public boolean saveData() {
         Gson gson = new Gson();
         String jsonStr = gson.toJson(this);
-        return LocalDB.setLocal(this.address.getBytes(), jsonStr.getBytes());
+        return ChainState.setLocal(this.address.getBytes(), jsonStr.getBytes());
     }
 
     /**
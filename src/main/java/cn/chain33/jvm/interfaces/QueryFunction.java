@@ -0,0 +1,14 @@
+package cn.chain33.jvm.interfaces;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+//声明入口类中的查询函数，返回String[]、String或其他对象(转成字符串)
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface QueryFunction {
+    //函数名，默认为方法名
+    String value() default "";
+}
@@ -0,0 +1,11 @@
+package cn.chain33.jvm.interfaces;
+
+//查询结果的输出，声明为@QueryFunction最后一个参数的查询函数逐条输出结果，不需要在内存中拼出整个结果
+//每条结果带一个游标，表示它在合约扫描顺序中的位置，下一页从上一页最后一条的游标之后开始
+public interface QuerySink {
+    //本页从哪个游标之后开始，第一页为null
+    String getCursor();
+
+    //输出一条结果，返回false表示本页已满或输出失败，合约应停止扫描
+    boolean emit(String cursor, String value);
+}
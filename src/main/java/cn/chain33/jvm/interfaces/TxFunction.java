@@ -0,0 +1,15 @@
+package cn.chain33.jvm.interfaces;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+//声明入口类中的交易函数，调用时 args[0] 为函数名，其余参数按方法的参数类型解码
+//实例方法每次调用时用无参构造函数新建实例
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface TxFunction {
+    //函数名，默认为方法名
+    String value() default "";
+}
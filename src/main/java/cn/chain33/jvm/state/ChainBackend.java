@@ -0,0 +1,20 @@
+package cn.chain33.jvm.state;
+
+/**
+ * 宿主提供的链上状态，交易执行时在它前面建立TxContext缓冲
+ */
+public interface ChainBackend extends StateStore {
+    /**
+     * 当前交易的发送者
+     *
+     * @return
+     */
+    String getFrom();
+
+    /**
+     * 当前区块高度
+     *
+     * @return
+     */
+    long getCurrentHeight();
+}
@@ -0,0 +1,212 @@
+package cn.chain33.jvm.state;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * 合约可见的链上状态操作，对应宿主API StateDB/LocalDB/Account/Blockchain
+ * 所有读写都经过当前线程的TxContext，宿主API的实现委托到这里，交易的读写集合才完整
+ * 键的命名空间:
+ * state/键   StateDB
+ * local/键   LocalDB
+ * balance/地址  账户可用余额
+ * frozen/地址   账户冻结余额
+ */
+public final class ChainState {
+    public static final String STATE = "state/";
+    public static final String LOCAL = "local/";
+    public static final String BALANCE = "balance/";
+    public static final String FROZEN = "frozen/";
+
+    /**
+     * 字节键按ISO-8859-1逐字节转换为字符串，不丢失信息
+     */
+    private static final Charset RAW = Charset.forName("ISO-8859-1");
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private ChainState() {
+    }
+
+    public static String stateKey(byte[] key) {
+        return STATE + new String(key, RAW);
+    }
+
+    public static String localKey(byte[] key) {
+        return LOCAL + new String(key, RAW);
+    }
+
+    public static String balanceKey(String address) {
+        return BALANCE + address;
+    }
+
+    public static String frozenKey(String address) {
+        return FROZEN + address;
+    }
+
+    public static byte[] getFromState(byte[] key) {
+        return TxContext.current().get(stateKey(key));
+    }
+
+    public static boolean setState(byte[] key, byte[] value) {
+        TxContext.current().put(stateKey(key), value);
+        return true;
+    }
+
+    public static String getFromStateInStr(String key) {
+        byte[] value = getFromState(key.getBytes(UTF8));
+        return value == null ? null : new String(value, UTF8);
+    }
+
+    public static boolean setStateInStr(String key, String value) {
+        return setState(key.getBytes(UTF8), value == null ? null : value.getBytes(UTF8));
+    }
+
+    /**
+     * 一次读取多个StateDB键，只访问一次宿主
+     *
+     * @param keys
+     * @return 与keys一一对应的值
+     */
+    public static byte[][] getFromStateMulti(byte[][] keys) {
+        String[] names = new String[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            names[i] = stateKey(keys[i]);
+        }
+        return TxContext.current().getMulti(names);
+    }
+
+    public static boolean setStateMulti(byte[][] keys, byte[][] values) {
+        if (keys.length != values.length) {
+            throw new IllegalArgumentException("keys: " + keys.length + ", values: " + values.length);
+        }
+        TxContext context = TxContext.current();
+        for (int i = 0; i < keys.length; i++) {
+            context.put(stateKey(keys[i]), values[i]);
+        }
+        return true;
+    }
+
+    public static byte[] getFromLocal(byte[] key) {
+        return TxContext.current().get(localKey(key));
+    }
+
+    public static boolean setLocal(byte[] key, byte[] value) {
+        TxContext.current().put(localKey(key), value);
+        return true;
+    }
+
+    /**
+     * 一次读取多个LocalDB键，只访问一次宿主
+     *
+     * @param keys
+     * @return 与keys一一对应的值
+     */
+    public static byte[][] getFromLocalMulti(byte[][] keys) {
+        String[] names = new String[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            names[i] = localKey(keys[i]);
+        }
+        return TxContext.current().getMulti(names);
+    }
+
+    public static boolean setLocalMulti(byte[][] keys, byte[][] values) {
+        if (keys.length != values.length) {
+            throw new IllegalArgumentException("keys: " + keys.length + ", values: " + values.length);
+        }
+        TxContext context = TxContext.current();
+        for (int i = 0; i < keys.length; i++) {
+            context.put(localKey(keys[i]), values[i]);
+        }
+        return true;
+    }
+
+    public static String getFromLocalInStr(String key) {
+        byte[] value = getFromLocal(key.getBytes(UTF8));
+        return value == null ? null : new String(value, UTF8);
+    }
+
+    public static boolean setLocalInStr(String key, String value) {
+        return setLocal(key.getBytes(UTF8), value == null ? null : value.getBytes(UTF8));
+    }
+
+    public static String getFrom() {
+        return TxContext.current().getFrom();
+    }
+
+    public static long getCurrentHeight() {
+        return TxContext.current().getHeight();
+    }
+
+    /**
+     * 中止当前交易，交易缓冲的写入全部丢弃
+     *
+     * @param info 错误信息
+     */
+    public static void stopTransWithErrInfo(String info) {
+        TxContext.current().fail(TxContext.STOPPED, info);
+    }
+
+    public static long getBalance(String address) {
+        return decodeLong(TxContext.current().get(balanceKey(address)));
+    }
+
+    public static long getFrozen(String address) {
+        return decodeLong(TxContext.current().get(frozenKey(address)));
+    }
+
+    /**
+     * 同一合约内两个账户间转账
+     *
+     * @return 余额不足返回false
+     */
+    public static boolean execTransfer(String from, String to, long amount) {
+        if (amount < 0) {
+            return false;
+        }
+        long balance = getBalance(from);
+        if (balance < amount) {
+            return false;
+        }
+        TxContext context = TxContext.current();
+        context.put(balanceKey(from), encodeLong(balance - amount));
+        context.put(balanceKey(to), encodeLong(getBalance(to) + amount));
+        return true;
+    }
+
+    /**
+     * 冻结账户的可用余额
+     *
+     * @return 余额不足返回false
+     */
+    public static boolean execFrozen(String address, long amount) {
+        return move(balanceKey(address), frozenKey(address), amount);
+    }
+
+    /**
+     * 解冻账户的冻结余额
+     *
+     * @return 冻结余额不足返回false
+     */
+    public static boolean execActive(String address, long amount) {
+        return move(frozenKey(address), balanceKey(address), amount);
+    }
+
+    private static boolean move(String fromKey, String toKey, long amount) {
+        TxContext context = TxContext.current();
+        long source = decodeLong(context.get(fromKey));
+        if (amount < 0 || source < amount) {
+            return false;
+        }
+        context.put(fromKey, encodeLong(source - amount));
+        context.put(toKey, encodeLong(decodeLong(context.get(toKey)) + amount));
+        return true;
+    }
+
+    public static byte[] encodeLong(long value) {
+        return ByteBuffer.allocate(8).putLong(value).array();
+    }
+
+    public static long decodeLong(byte[] value) {
+        return value == null ? 0 : ByteBuffer.wrap(value).getLong();
+    }
+}
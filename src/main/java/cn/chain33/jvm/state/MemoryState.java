@@ -0,0 +1,96 @@
+package cn.chain33.jvm.state;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 内存中的状态存储，代替链上的状态数据库用于测试和执行模式的对比
+ */
+public class MemoryState implements StateStore {
+    private final ConcurrentHashMap<String, byte[]> data = new ConcurrentHashMap<String, byte[]>();
+    /**
+     * snapshot()生成的副本不可写
+     */
+    private final boolean frozen;
+
+    public MemoryState() {
+        this.frozen = false;
+    }
+
+    public MemoryState(MemoryState other) {
+        this(other, false);
+    }
+
+    private MemoryState(MemoryState other, boolean frozen) {
+        data.putAll(other.data);
+        this.frozen = frozen;
+    }
+
+    @Override
+    public byte[] get(String key) {
+        return data.get(key);
+    }
+
+    @Override
+    public void put(String key, byte[] value) {
+        if (frozen) {
+            throw new UnsupportedOperationException("state snapshot is read-only");
+        }
+        if (value == null) {
+            data.remove(key);
+        } else {
+            data.put(key, value);
+        }
+    }
+
+    /**
+     * 当前内容的只读副本，之后的写入不影响副本
+     *
+     * @return
+     */
+    public MemoryState snapshot() {
+        return new MemoryState(this, true);
+    }
+
+    /**
+     * 是否是snapshot()生成的只读副本
+     *
+     * @return
+     */
+    public boolean isSnapshot() {
+        return frozen;
+    }
+
+    public int size() {
+        return data.size();
+    }
+
+    /**
+     * 按键排序的内容副本
+     *
+     * @return
+     */
+    public TreeMap<String, byte[]> toMap() {
+        return new TreeMap<String, byte[]>(data);
+    }
+
+    /**
+     * 内容是否完全相同
+     *
+     * @param other
+     * @return
+     */
+    public boolean sameAs(MemoryState other) {
+        if (data.size() != other.data.size()) {
+            return false;
+        }
+        for (Map.Entry<String, byte[]> entry : data.entrySet()) {
+            if (!Arrays.equals(entry.getValue(), other.data.get(entry.getKey()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
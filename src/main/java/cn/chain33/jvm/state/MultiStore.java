@@ -0,0 +1,21 @@
+package cn.chain33.jvm.state;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 支持批量读写的状态存储，一批键只访问一次底层存储
+ * TxContext批量预读和提交时优先使用
+ */
+public interface MultiStore extends StateStore {
+    /**
+     * @param keys
+     * @return 与keys一一对应的值，不存在为null
+     */
+    byte[][] getMulti(List<String> keys);
+
+    /**
+     * @param entries 键->值，值为null时删除，按迭代顺序写入
+     */
+    void putMulti(Map<String, byte[]> entries);
+}
@@ -0,0 +1,161 @@
+package cn.chain33.jvm.state;
+
+import cn.chain33.jvm.api.Blockchain;
+import cn.chain33.jvm.api.LocalDB;
+import cn.chain33.jvm.api.StateDB;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 通过宿主的native接口读写StateDB/LocalDB
+ * 每次get/put都会跨越native边界，交易执行时应当放在TxContext后面，
+ * 同一笔交易里重复读同一个键只调用一次native，写入在交易成功后一次性写回。
+ * 批量读写按命名空间合并，每个库只调用一次getMulti/setMulti
+ * 账户余额由宿主的Account接口维护，不经过这里
+ */
+public class NativeState implements ChainBackend, MultiStore {
+    private static final Charset RAW = Charset.forName("ISO-8859-1");
+    /**
+     * native接口没有删除操作，写入空值表示删除
+     */
+    private static final byte[] EMPTY = new byte[0];
+
+    private final StateDB stateDB;
+    private final LocalDB localDB;
+    private final Blockchain blockchain;
+
+    public NativeState() {
+        this(new StateDB(), new LocalDB(), new Blockchain());
+    }
+
+    /**
+     * 测试时可以传入不依赖宿主的实现
+     *
+     * @param stateDB
+     * @param localDB
+     * @param blockchain
+     */
+    public NativeState(StateDB stateDB, LocalDB localDB, Blockchain blockchain) {
+        this.stateDB = stateDB;
+        this.localDB = localDB;
+        this.blockchain = blockchain;
+    }
+
+    @Override
+    public byte[] get(String key) {
+        byte[] value;
+        if (key.startsWith(ChainState.STATE)) {
+            value = stateDB.getFromState(rawKey(key, ChainState.STATE));
+        } else if (key.startsWith(ChainState.LOCAL)) {
+            value = localDB.getFromLocal(rawKey(key, ChainState.LOCAL));
+        } else {
+            throw new UnsupportedOperationException("not a native key: " + key);
+        }
+        return orNull(value);
+    }
+
+    @Override
+    public void put(String key, byte[] value) {
+        byte[] data = value == null ? EMPTY : value;
+        boolean ok;
+        if (key.startsWith(ChainState.STATE)) {
+            ok = stateDB.setState(rawKey(key, ChainState.STATE), data);
+        } else if (key.startsWith(ChainState.LOCAL)) {
+            ok = localDB.setLocal(rawKey(key, ChainState.LOCAL), data);
+        } else {
+            throw new UnsupportedOperationException("not a native key: " + key);
+        }
+        if (!ok) {
+            throw new IllegalStateException("native write failed: " + key);
+        }
+    }
+
+    @Override
+    public byte[][] getMulti(List<String> keys) {
+        List<Integer> stateIndex = new ArrayList<Integer>();
+        List<Integer> localIndex = new ArrayList<Integer>();
+        for (int i = 0; i < keys.size(); i++) {
+            namespace(keys.get(i), stateIndex, localIndex).add(i);
+        }
+        byte[][] values = new byte[keys.size()][];
+        if (!stateIndex.isEmpty()) {
+            fill(values, stateIndex, stateDB.getMulti(rawKeys(keys, stateIndex, ChainState.STATE)));
+        }
+        if (!localIndex.isEmpty()) {
+            fill(values, localIndex, localDB.getMulti(rawKeys(keys, localIndex, ChainState.LOCAL)));
+        }
+        return values;
+    }
+
+    @Override
+    public void putMulti(Map<String, byte[]> entries) {
+        List<String> keys = new ArrayList<String>(entries.keySet());
+        List<Integer> stateIndex = new ArrayList<Integer>();
+        List<Integer> localIndex = new ArrayList<Integer>();
+        for (int i = 0; i < keys.size(); i++) {
+            namespace(keys.get(i), stateIndex, localIndex).add(i);
+        }
+        if (!stateIndex.isEmpty() && !stateDB.setMulti(rawKeys(keys, stateIndex, ChainState.STATE),
+                values(keys, stateIndex, entries))) {
+            throw new IllegalStateException("native write failed: statedb");
+        }
+        if (!localIndex.isEmpty() && !localDB.setMulti(rawKeys(keys, localIndex, ChainState.LOCAL),
+                values(keys, localIndex, entries))) {
+            throw new IllegalStateException("native write failed: localdb");
+        }
+    }
+
+    @Override
+    public String getFrom() {
+        return blockchain.getFrom();
+    }
+
+    @Override
+    public long getCurrentHeight() {
+        return blockchain.getCurrentHeight();
+    }
+
+    private static List<Integer> namespace(String key, List<Integer> state, List<Integer> local) {
+        if (key.startsWith(ChainState.STATE)) {
+            return state;
+        }
+        if (key.startsWith(ChainState.LOCAL)) {
+            return local;
+        }
+        throw new UnsupportedOperationException("not a native key: " + key);
+    }
+
+    private static byte[][] rawKeys(List<String> keys, List<Integer> index, String prefix) {
+        byte[][] raw = new byte[index.size()][];
+        for (int i = 0; i < raw.length; i++) {
+            raw[i] = rawKey(keys.get(index.get(i)), prefix);
+        }
+        return raw;
+    }
+
+    private static byte[][] values(List<String> keys, List<Integer> index, Map<String, byte[]> entries) {
+        byte[][] values = new byte[index.size()][];
+        for (int i = 0; i < values.length; i++) {
+            byte[] value = entries.get(keys.get(index.get(i)));
+            values[i] = value == null ? EMPTY : value;
+        }
+        return values;
+    }
+
+    private static void fill(byte[][] values, List<Integer> index, byte[][] found) {
+        for (int i = 0; i < found.length; i++) {
+            values[index.get(i)] = orNull(found[i]);
+        }
+    }
+
+    private static byte[] orNull(byte[] value) {
+        return value == null || value.length == 0 ? null : value;
+    }
+
+    private static byte[] rawKey(String key, String prefix) {
+        return key.substring(prefix.length()).getBytes(RAW);
+    }
+}
@@ -0,0 +1,12 @@
+package cn.chain33.jvm.state;
+
+/**
+ * 可写的状态存储
+ */
+public interface StateStore extends StateView {
+    /**
+     * @param key
+     * @param value 为null时删除
+     */
+    void put(String key, byte[] value);
+}
@@ -0,0 +1,13 @@
+package cn.chain33.jvm.state;
+
+/**
+ * 只读的状态视图
+ * StateDB、LocalDB和账户共用一个键空间，键由ChainState按命名空间加前缀
+ */
+public interface StateView {
+    /**
+     * @param key
+     * @return 不存在返回null
+     */
+    byte[] get(String key);
+}
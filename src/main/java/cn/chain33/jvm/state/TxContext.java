@@ -0,0 +1,261 @@
+package cn.chain33.jvm.state;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 一笔交易的执行上下文
+ * 交易读到的键记入读集合，写入先缓存在写集合里，交易成功后按顺序提交到状态存储，
+ * 交易失败时写集合被丢弃。执行期间通过 current() 绑定到当前线程
+ */
+public class TxContext implements StateStore {
+    /**
+     * 合约调用stopTransWithErrInfo中止交易，与TxBatchResult.FAILED一致
+     */
+    public static final int STOPPED = 1;
+
+    private static final ThreadLocal<TxContext> CURRENT = new ThreadLocal<TxContext>();
+
+    private final StateView base;
+    /**
+     * chain 发送者和区块高度的来源，为null时使用构造时传入的值
+     */
+    private final ChainBackend chain;
+    private final boolean hasFrom;
+    private String from;
+    private long height;
+    /**
+     * reads 键->第一次读到的值
+     */
+    private final HashMap<String, byte[]> reads = new HashMap<String, byte[]>();
+    /**
+     * writes 键->最后写入的值，保持写入顺序
+     */
+    private final LinkedHashMap<String, byte[]> writes = new LinkedHashMap<String, byte[]>();
+    private int status;
+    private String error;
+
+    /**
+     * @param base   交易读取的状态
+     * @param from   交易发送者
+     * @param height 区块高度
+     */
+    public TxContext(StateView base, String from, long height) {
+        this.base = base;
+        this.chain = null;
+        this.hasFrom = from != null;
+        this.from = from;
+        this.height = height;
+    }
+
+    /**
+     * 在backend前面建立缓冲，发送者和区块高度第一次用到时才从backend读取，
+     * 不访问它们的合约不跨越native边界
+     *
+     * @param backend 交易读取的状态
+     * @param hasFrom 是否有发送者，查询为false
+     */
+    public TxContext(ChainBackend backend, boolean hasFrom) {
+        this.base = backend;
+        this.chain = backend;
+        this.hasFrom = hasFrom;
+        this.height = -1;
+    }
+
+    /**
+     * 当前线程正在执行的交易
+     *
+     * @return
+     * @throws IllegalStateException 不在交易中
+     */
+    public static TxContext current() {
+        TxContext context = CURRENT.get();
+        if (context == null) {
+            throw new IllegalStateException("no transaction on current thread");
+        }
+        return context;
+    }
+
+    /**
+     * 当前线程正在执行的交易
+     *
+     * @return 不在交易中返回null
+     */
+    public static TxContext peek() {
+        return CURRENT.get();
+    }
+
+    /**
+     * 把交易绑定到当前线程，返回之前绑定的交易
+     *
+     * @param context 为null时解除绑定
+     * @return
+     */
+    public static TxContext bind(TxContext context) {
+        TxContext previous = CURRENT.get();
+        if (context == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(context);
+        }
+        return previous;
+    }
+
+    /**
+     * 返回值的副本，调用方修改返回的数组不影响缓冲里的值
+     */
+    @Override
+    public byte[] get(String key) {
+        byte[] value;
+        if (writes.containsKey(key)) {
+            value = writes.get(key);
+        } else if (reads.containsKey(key)) {
+            value = reads.get(key);
+        } else {
+            value = base.get(key);
+            reads.put(key, value);
+        }
+        return value == null ? null : value.clone();
+    }
+
+    /**
+     * 一次读取多个键，还没读过的键合并成一次批量读取
+     *
+     * @param keys
+     * @return 与keys一一对应的值
+     */
+    public byte[][] getMulti(String[] keys) {
+        prefetch(Arrays.asList(keys));
+        byte[][] values = new byte[keys.length][];
+        for (int i = 0; i < keys.length; i++) {
+            values[i] = get(keys[i]);
+        }
+        return values;
+    }
+
+    /**
+     * 预读多个键到读缓存，状态存储支持批量读取时只访问一次
+     *
+     * @param keys
+     */
+    public void prefetch(Collection<String> keys) {
+        if (!(base instanceof MultiStore)) {
+            return;
+        }
+        LinkedHashSet<String> unread = new LinkedHashSet<String>();
+        for (String key : keys) {
+            if (!writes.containsKey(key) && !reads.containsKey(key)) {
+                unread.add(key);
+            }
+        }
+        if (unread.size() < 2) {
+            return;
+        }
+        List<String> missing = new ArrayList<String>(unread);
+        byte[][] values = ((MultiStore) base).getMulti(missing);
+        for (int i = 0; i < values.length; i++) {
+            reads.put(missing.get(i), values[i]);
+        }
+    }
+
+    @Override
+    public void put(String key, byte[] value) {
+        writes.put(key, value == null ? null : value.clone());
+    }
+
+    public String getFrom() {
+        if (hasFrom && from == null && chain != null) {
+            from = chain.getFrom();
+        }
+        return from;
+    }
+
+    public long getHeight() {
+        if (height < 0 && chain != null) {
+            height = chain.getCurrentHeight();
+        }
+        return height;
+    }
+
+    /**
+     * 从状态存储读过的键
+     *
+     * @return
+     */
+    public Set<String> getReadSet() {
+        return Collections.unmodifiableSet(reads.keySet());
+    }
+
+    /**
+     * 交易写入的键和值
+     *
+     * @return
+     */
+    public Map<String, byte[]> getWrites() {
+        return Collections.unmodifiableMap(writes);
+    }
+
+    /**
+     * 交易失败，写集合不再提交
+     *
+     * @param status
+     * @param error
+     */
+    public void fail(int status, String error) {
+        this.status = status;
+        this.error = error;
+    }
+
+    public boolean isFailed() {
+        return status != 0;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * 成功的交易把写集合按写入顺序提交到target
+     * 写回的值与交易读到的值相同的键不是脏数据，不再提交；
+     * target支持批量写入时所有脏数据一次写入
+     *
+     * @param target
+     * @return 提交的键数
+     */
+    public int commit(StateStore target) {
+        if (isFailed()) {
+            return 0;
+        }
+        LinkedHashMap<String, byte[]> dirty = new LinkedHashMap<String, byte[]>();
+        for (Map.Entry<String, byte[]> entry : writes.entrySet()) {
+            String key = entry.getKey();
+            if (reads.containsKey(key) && Arrays.equals(reads.get(key), entry.getValue())) {
+                continue;
+            }
+            dirty.put(key, entry.getValue());
+        }
+        if (dirty.isEmpty()) {
+            return 0;
+        }
+        if (target instanceof MultiStore) {
+            ((MultiStore) target).putMulti(dirty);
+        } else {
+            for (Map.Entry<String, byte[]> entry : dirty.entrySet()) {
+                target.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return dirty.size();
+    }
+}
@@ -0,0 +1,19 @@
+package cn.chain33.jvm.state;
+
+/**
+ * 合约调用stopTransWithErrInfo中止了交易，交易的写入已丢弃
+ */
+public class TxStoppedException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    private final int status;
+
+    public TxStoppedException(int status, String error) {
+        super(error);
+        this.status = status;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+}
@@ -0,0 +1,214 @@
+package cn.chain33.jvm.state;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * 带版本的状态，在任意ChainBackend(包括NativeState)前面提供只读快照
+ * snapshot() 不复制状态：之后第一次写一个键时保存它的旧值，快照读取时
+ * 键在快照之后被改写过的返回保存的旧值，否则直接读底层存储。
+ * 开销只与快照之后改写的键数成正比，第一次调用snapshot之前写入不保存旧值。
+ * 只保留最近 retained 个快照的旧值，更早的快照读取时抛出IllegalStateException。
+ * 写入(交易提交)和snapshot只能在一个线程上按区块顺序调用，快照可以在任意线程并发读取；
+ * 不经过这里直接写入底层存储的状态，快照读到的是新值
+ */
+public class VersionedState implements ChainBackend, MultiStore {
+    /**
+     * 默认保留的快照数
+     */
+    public static final int DEFAULT_RETAINED = 16;
+    /**
+     * 旧值不存在的标记，按引用比较
+     */
+    private static final byte[] ABSENT = new byte[0];
+
+    private final ChainBackend base;
+    private final int retained;
+    /**
+     * history 键->(快照编号->该快照看到的值)，只记录快照之后改写过的键
+     */
+    private final ConcurrentHashMap<String, ConcurrentSkipListMap<Long, byte[]>> history =
+            new ConcurrentHashMap<String, ConcurrentSkipListMap<Long, byte[]>>();
+    /**
+     * 最近一个快照的编号，没有快照时为-1
+     */
+    private volatile long latest = -1;
+    /**
+     * 仍然可以读取的最早快照编号
+     */
+    private volatile long oldest;
+
+    public VersionedState(ChainBackend base) {
+        this(base, DEFAULT_RETAINED);
+    }
+
+    /**
+     * @param base
+     * @param retained 保留的快照数
+     */
+    public VersionedState(ChainBackend base, int retained) {
+        if (retained < 1) {
+            throw new IllegalArgumentException("retained: " + retained);
+        }
+        this.base = base;
+        this.retained = retained;
+    }
+
+    /**
+     * 当前状态的只读快照，区块提交完成后调用
+     *
+     * @return
+     */
+    public Snapshot snapshot() {
+        long version = latest + 1;
+        latest = version;
+        long expired = version - retained + 1;
+        if (expired > oldest) {
+            // 先更新oldest再删除，读到已删除旧值的快照一定能发现自己已过期
+            oldest = expired;
+            for (Map.Entry<String, ConcurrentSkipListMap<Long, byte[]>> entry : history.entrySet()) {
+                ConcurrentSkipListMap<Long, byte[]> versions = entry.getValue();
+                versions.headMap(expired).clear();
+                if (versions.isEmpty()) {
+                    history.remove(entry.getKey(), versions);
+                }
+            }
+        }
+        return new Snapshot(this, version);
+    }
+
+    /**
+     * 保存旧值的键数
+     *
+     * @return
+     */
+    public int historySize() {
+        return history.size();
+    }
+
+    @Override
+    public byte[] get(String key) {
+        return base.get(key);
+    }
+
+    @Override
+    public void put(String key, byte[] value) {
+        long version = latest;
+        if (version >= 0 && !saved(key, version)) {
+            save(key, version, base.get(key));
+        }
+        base.put(key, value);
+    }
+
+    @Override
+    public byte[][] getMulti(List<String> keys) {
+        if (base instanceof MultiStore) {
+            return ((MultiStore) base).getMulti(keys);
+        }
+        byte[][] values = new byte[keys.size()][];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = base.get(keys.get(i));
+        }
+        return values;
+    }
+
+    @Override
+    public void putMulti(Map<String, byte[]> entries) {
+        long version = latest;
+        if (version >= 0) {
+            List<String> unsaved = new ArrayList<String>();
+            for (String key : entries.keySet()) {
+                if (!saved(key, version)) {
+                    unsaved.add(key);
+                }
+            }
+            if (!unsaved.isEmpty()) {
+                // 旧值也批量读取，每个库只多一次调用
+                byte[][] values = getMulti(unsaved);
+                for (int i = 0; i < values.length; i++) {
+                    save(unsaved.get(i), version, values[i]);
+                }
+            }
+        }
+        if (base instanceof MultiStore) {
+            ((MultiStore) base).putMulti(entries);
+        } else {
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                base.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    @Override
+    public String getFrom() {
+        return base.getFrom();
+    }
+
+    @Override
+    public long getCurrentHeight() {
+        return base.getCurrentHeight();
+    }
+
+    private boolean saved(String key, long version) {
+        ConcurrentSkipListMap<Long, byte[]> versions = history.get(key);
+        return versions != null && versions.containsKey(version);
+    }
+
+    private void save(String key, long version, byte[] value) {
+        ConcurrentSkipListMap<Long, byte[]> versions = history.get(key);
+        if (versions == null) {
+            versions = new ConcurrentSkipListMap<Long, byte[]>();
+            history.put(key, versions);
+        }
+        versions.put(version, value == null ? ABSENT : value);
+    }
+
+    /**
+     * 快照读取：先读底层存储，再查快照之后是否改写过
+     * 写入先保存旧值再写底层存储，所以读到新值时一定能查到旧值
+     */
+    private byte[] read(String key, long version) {
+        byte[] current = base.get(key);
+        byte[] old = null;
+        ConcurrentSkipListMap<Long, byte[]> versions = history.get(key);
+        if (versions != null) {
+            ConcurrentNavigableMap<Long, byte[]> after = versions.tailMap(version);
+            if (!after.isEmpty()) {
+                old = after.firstEntry().getValue();
+            }
+        }
+        if (version < oldest) {
+            throw new IllegalStateException("state snapshot " + version + " expired, oldest " + oldest);
+        }
+        if (old == null) {
+            return current;
+        }
+        return old == ABSENT ? null : old;
+    }
+
+    /**
+     * VersionedState的只读快照
+     */
+    public static final class Snapshot implements StateView {
+        private final VersionedState state;
+        private final long version;
+
+        private Snapshot(VersionedState state, long version) {
+            this.state = state;
+            this.version = version;
+        }
+
+        @Override
+        public byte[] get(String key) {
+            return state.read(key, version);
+        }
+
+        public long getVersion() {
+            return version;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package cn.chain33.jvm;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+public class ContractImageTest extends TestCase {
+
+    public void testBuildAndOpen() throws IOException {
+        File dir = File.createTempFile("image", "");
+        dir.delete();
+        dir.mkdirs();
+        File jar = new File(dir, "Guess.jar");
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+        out.putNextEntry(new JarEntry("cn/chain33/jvm/dapp/guess/Guess.class"));
+        out.write("guess".getBytes("UTF-8"));
+        out.closeEntry();
+        out.putNextEntry(new JarEntry("cn/chain33/jvm/dapp/guess/Record.class"));
+        out.write("record".getBytes("UTF-8"));
+        out.closeEntry();
+        out.close();
+
+        File img = new File(dir, "Guess" + ContractImage.SUFFIX);
+        ContractImage.build(jar, img);
+        ContractImage image = ContractImage.open(img);
+        assertEquals("cn.chain33.jvm.dapp.guess.Guess", image.getEntryClass());
+        assertEquals(2, image.classNames().size());
+        assertTrue(image.verify());
+
+        ByteBuffer record = image.read("cn.chain33.jvm.dapp.guess.Record");
+        byte[] bytes = new byte[record.remaining()];
+        record.get(bytes);
+        assertEquals("record", new String(bytes, "UTF-8"));
+        assertNull(image.read("cn.chain33.jvm.dapp.guess.Missing"));
+
+        img.deleteOnExit();
+        jar.deleteOnExit();
+        dir.deleteOnExit();
+    }
+
+    public void testResources() throws IOException {
+        File dir = File.createTempFile("image", "");
+        dir.delete();
+        dir.mkdirs();
+        File jar = new File(dir, "Guess.jar");
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+        out.putNextEntry(new JarEntry("cn/chain33/jvm/dapp/guess/Guess.class"));
+        out.write("guess".getBytes("UTF-8"));
+        out.closeEntry();
+        out.putNextEntry(new JarEntry("abi/"));
+        out.closeEntry();
+        out.putNextEntry(new JarEntry("abi/guess.json"));
+        out.write("{\"playGame\":1}".getBytes("UTF-8"));
+        out.closeEntry();
+        out.close();
+
+        File img = new File(dir, "Guess" + ContractImage.SUFFIX);
+        ContractImage image = ContractImage.build(jar, img);
+        assertEquals("cn.chain33.jvm.dapp.guess.Guess", image.getEntryClass());
+        assertEquals(1, image.classNames().size());
+        assertEquals(1, image.resourceNames().size());
+        assertTrue(image.resourceNames().contains("abi/guess.json"));
+
+        Contract contract = new Contract("Guess", 1, image.getEntryClass(), image.classNames(),
+                image.resourceNames(), image);
+        Loader loader = new Loader(contract);
+        assertEquals("{\"playGame\":1}", readAll(loader.getResourceAsStream("abi/guess.json")));
+        assertEquals("{\"playGame\":1}", readAll(loader.getResource("abi/guess.json").openStream()));
+        assertNull(loader.getResource("abi/missing.json"));
+
+        img.deleteOnExit();
+        jar.deleteOnExit();
+        dir.deleteOnExit();
+    }
+
+    public void testStaleAndCorruptImages() throws IOException {
+        File dir = File.createTempFile("image", "");
+        dir.delete();
+        dir.mkdirs();
+        File jar = new File(dir, "Guess.jar");
+        writeJar(jar, "guess");
+        File img = new File(dir, "Guess" + ContractImage.SUFFIX);
+        ContractImage image = ContractImage.build(jar, img);
+        assertTrue(image.isBuiltFrom(jar));
+        // 重新部署的jar包
+        writeJar(jar, "guess v2");
+        assertFalse(image.isBuiltFrom(jar));
+
+        long length = img.length();
+        RandomAccessFile raf = new RandomAccessFile(img, "rw");
+        try {
+            raf.seek(length - 1);
+            raf.write('x');
+        } finally {
+            raf.close();
+        }
+        // 加载时不读取类字节码区，损坏只能由verify发现
+        assertFalse(ContractImage.open(img).verify());
+        ContractImage.build(jar, img);
+        // 把Record的offset改成指向Guess，条目仍在范围内，hash覆盖条目表
+        raf = new RandomAccessFile(img, "rw");
+        try {
+            raf.seek(slotOffset(raf, "cn.chain33.jvm.dapp.guess.Record"));
+            raf.writeInt(0);
+        } finally {
+            raf.close();
+        }
+        assertFalse(ContractImage.open(img).verify());
+        raf = new RandomAccessFile(img, "rw");
+        try {
+            raf.setLength(raf.length() - 8);
+        } finally {
+            raf.close();
+        }
+        assertOpenFails(img, "bad slot");
+        raf = new RandomAccessFile(img, "rw");
+        try {
+            raf.setLength(50);
+        } finally {
+            raf.close();
+        }
+        assertOpenFails(img, "");
+
+        img.deleteOnExit();
+        jar.deleteOnExit();
+        dir.deleteOnExit();
+    }
+
+    private static void writeJar(File jar, String content) throws IOException {
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+        out.putNextEntry(new JarEntry("cn/chain33/jvm/dapp/guess/Guess.class"));
+        out.write(content.getBytes("UTF-8"));
+        out.closeEntry();
+        out.putNextEntry(new JarEntry("cn/chain33/jvm/dapp/guess/Record.class"));
+        out.write("record".getBytes("UTF-8"));
+        out.closeEntry();
+        out.close();
+    }
+
+    /**
+     * 条目表中类名之后offset字段的位置
+     */
+    private static int slotOffset(RandomAccessFile raf, String name) throws IOException {
+        byte[] content = new byte[(int) raf.length()];
+        raf.seek(0);
+        raf.readFully(content);
+        byte[] key = name.getBytes("UTF-8");
+        for (int i = 0; i + key.length <= content.length; i++) {
+            boolean match = true;
+            for (int j = 0; j < key.length && match; j++) {
+                match = content[i + j] == key[j];
+            }
+            if (match) {
+                return i + key.length;
+            }
+        }
+        throw new IOException(name + " not found");
+    }
+
+    private static void assertOpenFails(File img, String message) {
+        try {
+            ContractImage.open(img);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(message));
+        }
+    }
+
+    private static String readAll(InputStream input) throws IOException {
+        try {
+            byte[] buffer = new byte[256];
+            int n = input.read(buffer);
+            return new String(buffer, 0, n, "UTF-8");
+        } finally {
+            input.close();
+        }
+    }
+}
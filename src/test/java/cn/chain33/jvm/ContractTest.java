@@ -0,0 +1,29 @@
+package cn.chain33.jvm;
+
+import junit.framework.TestCase;
+
+import java.util.Collections;
+
+public class ContractTest extends TestCase {
+
+    public void testRetireWithoutCalls() {
+        Contract contract = new Contract("guess", 1, "guess", Collections.<String>emptySet(), null);
+        assertTrue(contract.retire());
+        assertTrue(contract.isReleased());
+        assertFalse(contract.enter());
+    }
+
+    public void testDrainBeforeRelease() {
+        Contract contract = new Contract("guess", 1, "guess", Collections.<String>emptySet(), null);
+        assertTrue(contract.enter());
+        assertTrue(contract.enter());
+        assertFalse(contract.retire());
+        assertFalse(contract.isReleased());
+        assertFalse(contract.exit());
+        // 最后一个调用结束时释放
+        assertTrue(contract.exit());
+        assertTrue(contract.isReleased());
+        assertFalse(contract.enter());
+        assertEquals("guess@1", contract.getStoreKey());
+    }
+}
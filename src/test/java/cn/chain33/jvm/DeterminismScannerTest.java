@@ -0,0 +1,161 @@
+package cn.chain33.jvm;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+public class DeterminismScannerTest extends TestCase {
+
+    static class Clean {
+        static String join(List<String> values) {
+            StringBuilder out = new StringBuilder();
+            for (String value : values) {
+                out.append(value);
+            }
+            return out.toString();
+        }
+    }
+
+    static class Forbidden {
+        static long lucky() {
+            return new Random().nextInt(10) + System.currentTimeMillis();
+        }
+    }
+
+    static class Counter {
+        static final int[] LIMITS = {1, 2};
+        static int count;
+        static final String NAME;
+
+        static {
+            NAME = "counter";
+            count = LIMITS.length;
+        }
+
+        static int next(int i) {
+            switch (i) {
+                case 1:
+                    return 10;
+                case 1000:
+                    return 20;
+                default:
+                    break;
+            }
+            switch (i) {
+                case 1:
+                case 2:
+                case 3:
+                    count += i;
+                    break;
+                default:
+                    break;
+            }
+            return count;
+        }
+    }
+
+    static class SpinInit {
+        static final int TOTAL;
+
+        static {
+            int i = 0;
+            while (i >= 0) {
+                i++;
+            }
+            TOTAL = i;
+        }
+    }
+
+    static class Invoker {
+        static long time() throws Throwable {
+            return (long) MethodHandles.lookup()
+                    .findStatic(System.class, "nanoTime", MethodType.methodType(long.class)).invokeExact();
+        }
+    }
+
+    private static byte[] bytes(Class<?> clazz) throws IOException {
+        InputStream input = clazz.getResourceAsStream(clazz.getName().substring(clazz.getName().lastIndexOf('.') + 1) + ".class");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = input.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        input.close();
+        return out.toByteArray();
+    }
+
+    public void testScan() throws IOException {
+        List<String> violations = new ArrayList<String>();
+        DeterminismScanner.scan("Clean", bytes(Clean.class), violations);
+        assertTrue(violations.toString(), violations.isEmpty());
+
+        DeterminismScanner.scan("Forbidden", bytes(Forbidden.class), violations);
+        assertTrue(violations.contains("Forbidden -> java.util.Random"));
+        assertTrue(violations.contains("Forbidden -> java.lang.System.currentTimeMillis"));
+    }
+
+    public void testMethodHandleBypass() throws IOException {
+        List<String> violations = new ArrayList<String>();
+        DeterminismScanner.scan("Invoker", bytes(Invoker.class), violations);
+        assertTrue(violations.toString(), violations.contains("Invoker -> java.lang.invoke.MethodHandles.lookup"));
+        assertTrue(violations.toString(),
+                violations.contains("Invoker -> java.lang.invoke.MethodHandles$Lookup.findStatic"));
+    }
+
+    public void testStaticWritesOutsideClinit() throws IOException {
+        List<String> violations = new ArrayList<String>();
+        DeterminismScanner.scan("Clean", bytes(Clean.class), violations);
+        DeterminismScanner.scan("Counter", bytes(Counter.class), violations);
+        assertEquals(violations.toString(), 1, violations.size());
+        assertEquals("Counter -> static field " + Counter.class.getName() + ".count written outside <clinit>",
+                violations.get(0));
+    }
+
+    public void testLoopInClinit() throws IOException {
+        List<String> violations = new ArrayList<String>();
+        DeterminismScanner.scan("SpinInit", bytes(SpinInit.class), violations);
+        assertEquals(Collections.singletonList("SpinInit -> loop in <clinit>"), violations);
+    }
+
+    public void testVerdictCachedByHash() throws IOException {
+        final byte[] forbidden = bytes(Forbidden.class);
+        final int[] reads = new int[1];
+        ClassSource source = new ClassSource() {
+            @Override
+            public Set<String> classNames() {
+                return Collections.singleton("Forbidden");
+            }
+
+            @Override
+            public ByteBuffer read(String clss) {
+                reads[0]++;
+                return ByteBuffer.wrap(forbidden);
+            }
+        };
+        File jar = File.createTempFile("scan", ".jar");
+        jar.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(jar);
+        out.write(forbidden);
+        out.close();
+        assertEquals(2, DeterminismScanner.verify(jar, source).size());
+        assertEquals(2, DeterminismScanner.verify(jar, source).size());
+        assertEquals(1, reads[0]);
+    }
+
+    public void testCacheKeyIncludesRulesVersion() {
+        assertEquals("v" + DeterminismScanner.RULES_VERSION + "-abc", DeterminismScanner.cacheKey("abc"));
+    }
+}
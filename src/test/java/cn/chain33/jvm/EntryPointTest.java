@@ -0,0 +1,152 @@
+package cn.chain33.jvm;
+
+import cn.chain33.jvm.abi.AbiReader;
+import cn.chain33.jvm.abi.AbiWriter;
+import cn.chain33.jvm.interfaces.QueryFunction;
+import cn.chain33.jvm.interfaces.TxFunction;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+public class EntryPointTest extends TestCase {
+
+    public static class Game {
+        static final List<String> calls = new ArrayList<String>();
+
+        @TxFunction
+        public void playGame(int lucky, Integer ticketNum) {
+            calls.add("play " + lucky + " " + ticketNum);
+        }
+
+        @TxFunction("close")
+        public static void closeGame(long height, boolean force) {
+            calls.add("close " + height + " " + force);
+        }
+
+        @QueryFunction
+        public static String getBonus(String address) {
+            return address + ":0";
+        }
+
+        @TxFunction
+        public static void raw(AbiReader reader) {
+            calls.add("raw " + reader.readLong() + " " + reader.remaining());
+        }
+
+        public static void tx(String[] args) {
+            calls.add("legacy");
+        }
+    }
+
+    public static class Legacy {
+        public static String[] query(String[] args) {
+            return args;
+        }
+    }
+
+    @Override
+    protected void setUp() {
+        Game.calls.clear();
+    }
+
+    public void testDispatchTable() throws Exception {
+        EntryPoint entry = EntryPoint.resolve(Game.class);
+        assertEquals(3, entry.getTxFunctions().size());
+        entry.tx(new String[]{"playGame", "3", "2"});
+        entry.tx(new String[]{"close", "100", "true"});
+        assertEquals("[play 3 2, close 100 true]", Game.calls.toString());
+        assertEquals("addr:0", entry.query(new String[]{"getBonus", "addr"})[0]);
+    }
+
+    public void testRejectBeforeContractCode() throws Exception {
+        EntryPoint entry = EntryPoint.resolve(Game.class);
+        try {
+            entry.tx(new String[]{"unknown"});
+            fail();
+        } catch (NoSuchMethodException e) {
+            assertTrue(e.getMessage().endsWith(".unknown"));
+        }
+        try {
+            entry.tx(new String[]{"playGame", "x", "1"});
+            fail();
+        } catch (InvocationTargetException e) {
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+        try {
+            entry.tx(new String[]{"playGame", "1"});
+            fail();
+        } catch (InvocationTargetException e) {
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+        assertTrue(Game.calls.isEmpty());
+    }
+
+    public void testBinaryCalls() throws Exception {
+        EntryPoint entry = EntryPoint.resolve(Game.class);
+        entry.tx(AbiWriter.call("playGame", 3, 2));
+        entry.tx(AbiWriter.call("close", 100L, true));
+        entry.tx(AbiWriter.call("raw", -7L, "x"));
+        assertEquals("[play 3 2, close 100 true, raw -7 2]", Game.calls.toString());
+        AbiReader result = new AbiReader(entry.query(AbiWriter.call("getBonus", "addr")));
+        assertEquals("addr:0", result.readString());
+        try {
+            entry.tx(AbiWriter.call("missing"));
+            fail();
+        } catch (NoSuchMethodException e) {
+            assertTrue(e.getMessage().contains("unknown selector"));
+        }
+        try {
+            entry.tx(AbiWriter.call("playGame", 3, 2, 1));
+            fail();
+        } catch (InvocationTargetException e) {
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+        try {
+            entry.tx(new String[]{"raw", "1"});
+            fail();
+        } catch (InvocationTargetException e) {
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+        assertEquals(3, Game.calls.size());
+    }
+
+    public void testLegacyEntry() throws Exception {
+        EntryPoint entry = EntryPoint.resolve(Legacy.class);
+        assertTrue(entry.getQueryFunctions().isEmpty());
+        assertEquals("a", entry.query(new String[]{"a"})[0]);
+    }
+
+    public void testManifestEntryClass() throws IOException {
+        File dir = File.createTempFile("entry", "");
+        dir.delete();
+        dir.mkdirs();
+        File jar = new File(dir, "Guess.jar");
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().putValue(EntryPoint.ENTRY_CLASS_ATTRIBUTE, "cn.chain33.jvm.dapp.guess.Game");
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(jar), manifest);
+        out.putNextEntry(new JarEntry("cn/chain33/jvm/dapp/guess/Game.class"));
+        out.write("game".getBytes("UTF-8"));
+        out.closeEntry();
+        out.putNextEntry(new JarEntry("cn/chain33/jvm/dapp/guess/Guess.class"));
+        out.write("guess".getBytes("UTF-8"));
+        out.closeEntry();
+        out.close();
+
+        File img = new File(dir, "Guess" + ContractImage.SUFFIX);
+        assertEquals("cn.chain33.jvm.dapp.guess.Game", ContractImage.build(jar, img).getEntryClass());
+
+        img.deleteOnExit();
+        jar.deleteOnExit();
+        dir.deleteOnExit();
+    }
+}
@@ -0,0 +1,67 @@
+package cn.chain33.jvm;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+public class ExecutorServerTest extends TestCase {
+
+    public void testServeFrames() throws IOException {
+        ByteArrayOutputStream requests = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(requests);
+        ExecutorProtocol.write(out, new ExecutorProtocol.Frame(7, ExecutorProtocol.UNLOAD, new String[]{"missing"}));
+        ExecutorProtocol.write(out, new ExecutorProtocol.Frame(8, (byte) 99, new String[]{"参数"}));
+
+        ByteArrayOutputStream responses = new ByteArrayOutputStream();
+        ExecutorServer server = new ExecutorServer(new ByteArrayInputStream(requests.toByteArray()), responses);
+        server.serve();
+        assertEquals(2, server.getRequests());
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(responses.toByteArray()));
+        ExecutorProtocol.Frame unload = ExecutorProtocol.read(in);
+        assertEquals(7, unload.id);
+        assertEquals(ExecutorProtocol.OK, unload.code);
+        assertEquals("1", unload.values[0]);
+        ExecutorProtocol.Frame unknown = ExecutorProtocol.read(in);
+        assertEquals(8, unknown.id);
+        assertEquals(ExecutorProtocol.ERROR, unknown.code);
+        assertNull(ExecutorProtocol.read(in));
+    }
+
+    public void testBatchWithMissingContract() throws IOException {
+        String[][] txs = {{"missing", "a"}, {}, {"missing"}};
+        String[][] decoded = ExecutorProtocol.decodeBatch(ExecutorProtocol.encodeBatch(txs));
+        assertEquals(3, decoded.length);
+        assertEquals("a", decoded[0][1]);
+
+        TxBatchResult result = ExecutorProtocol.decodeResult(ExecutorProtocol.encodeResult(Loader.txBatch(decoded)));
+        assertEquals(3, result.size());
+        assertEquals(3, result.getFailed());
+        assertEquals(TxBatchResult.NOT_FOUND, result.getStatus(0));
+        assertEquals(result.getError(0), result.getError(2));
+    }
+
+    public void testValueLengthsBoundByFrame() throws IOException {
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(frame);
+        // 两个值各声明8字节，单个不超过帧长度，合计超过
+        out.writeInt(9 + 4 + 8);
+        out.writeInt(1);
+        out.writeByte(ExecutorProtocol.TX);
+        out.writeInt(2);
+        out.writeInt(4);
+        out.write(new byte[4]);
+        out.writeInt(8);
+        out.write(new byte[8]);
+        try {
+            ExecutorProtocol.read(new DataInputStream(new ByteArrayInputStream(frame.toByteArray())));
+            fail();
+        } catch (IOException e) {
+            assertEquals("bad value length:8", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package cn.chain33.jvm;
+
+import junit.framework.TestCase;
+
+import java.util.HashMap;
+
+public class HeapClassStoreTest extends TestCase {
+
+    public void testShareIdenticalClasses() {
+        HeapClassStore store = new HeapClassStore();
+        HashMap<String, byte[]> guess = new HashMap<String, byte[]>();
+        guess.put("cn.chain33.jvm.dapp.guess.Guess", "guess".getBytes());
+        guess.put("util.Helper", "helper".getBytes());
+        HashMap<String, byte[]> lottery = new HashMap<String, byte[]>();
+        lottery.put("lottery.Lottery", "lottery".getBytes());
+        lottery.put("util.Helper", "helper".getBytes());
+        store.put("guess@1", null, guess);
+        store.put("lottery@1", null, lottery);
+
+        assertSame(store.get("guess@1", "util.Helper"), store.get("lottery@1", "util.Helper"));
+        assertEquals(3, store.getSharedClasses());
+        assertEquals(24, store.getTotalBytes());
+        assertEquals(18, store.getSharedBytes());
+
+        store.remove("guess@1");
+        assertNull(store.get("guess@1", "util.Helper"));
+        assertEquals("helper", new String(store.get("lottery@1", "util.Helper")));
+        assertEquals(2, store.getSharedClasses());
+
+        store.remove("lottery@1");
+        assertEquals(0, store.getSharedClasses());
+        assertEquals(0, store.getSharedBytes());
+    }
+}
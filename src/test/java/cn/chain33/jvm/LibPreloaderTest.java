@@ -0,0 +1,42 @@
+package cn.chain33.jvm;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+public class LibPreloaderTest extends TestCase {
+
+    public void testPreloadMergesJarsAndReportsDuplicates() throws IOException {
+        List<File> jars = new ArrayList<File>();
+        jars.add(jar("lib-a", "x/A.class", "x/Shared.class"));
+        jars.add(jar("lib-b", "y/B.class"));
+        jars.add(jar("lib-c", "x/Shared.class", "z/C.class"));
+
+        LibPreloader.Result result = LibPreloader.preload(jars, 2, false);
+        assertEquals(4, result.getClasses().size());
+        assertTrue(result.getClasses().containsKey("x.A"));
+        assertTrue(result.getClasses().containsKey("z.C"));
+        assertEquals(jars.get(2).getName(), result.getSources().get("x.Shared"));
+        assertEquals(1, result.getDuplicates().size());
+        assertTrue(result.getDuplicates().get(0).startsWith("x.Shared"));
+    }
+
+    private File jar(String prefix, String... entries) throws IOException {
+        File file = File.createTempFile(prefix, ".jar");
+        file.deleteOnExit();
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(file));
+        for (String entry : entries) {
+            out.putNextEntry(new JarEntry(entry));
+            out.write(entry.getBytes("UTF-8"));
+            out.closeEntry();
+        }
+        out.close();
+        return file;
+    }
+}
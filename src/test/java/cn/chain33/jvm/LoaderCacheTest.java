@@ -0,0 +1,54 @@
+package cn.chain33.jvm;
+
+import junit.framework.TestCase;
+
+import java.util.Collections;
+
+public class LoaderCacheTest extends TestCase {
+
+    private static Contract contract(String name, long version) {
+        return new Contract(name, version, name, Collections.<String>emptySet(), null);
+    }
+
+    public void testReuseLoader() {
+        LoaderCache cache = new LoaderCache(4);
+        Contract guess = contract("guess", 1);
+        Loader first = cache.get(guess);
+        Loader second = cache.get(guess);
+        assertSame(first, second);
+        assertEquals("guess", first.getContractName());
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+    }
+
+    public void testEvictLeastRecentlyUsed() {
+        LoaderCache cache = new LoaderCache(2);
+        Contract a = contract("a", 1);
+        cache.get(a);
+        cache.get(contract("b", 1));
+        cache.get(a);
+        cache.get(contract("c", 1));
+        assertEquals(2, cache.size());
+        assertTrue(cache.contains("a"));
+        assertFalse(cache.contains("b"));
+        assertEquals(1, cache.getEvictions());
+    }
+
+    public void testReplaceOlderVersion() {
+        LoaderCache cache = new LoaderCache(4);
+        Contract v1 = contract("guess", 1);
+        Contract v2 = contract("guess", 2);
+        Loader first = cache.get(v1);
+        Loader second = cache.get(v2);
+        assertNotSame(first, second);
+        assertSame(second, cache.get(v2));
+        // 旧版本上的调用拿到不缓存的加载器
+        assertNotSame(second, cache.get(v1));
+        assertSame(second, cache.get(v2));
+
+        v2.retire();
+        assertSame(second, cache.remove(v2));
+        assertNotSame(second, cache.get(v2));
+        assertFalse(cache.contains("guess"));
+    }
+}
@@ -0,0 +1,54 @@
+package cn.chain33.jvm;
+
+import com.google.gson.Gson;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Map;
+
+public class LoaderMetricsTest extends TestCase {
+
+    public void testHistogramPercentiles() {
+        LoaderMetrics.Histogram histogram = new LoaderMetrics.Histogram("test");
+        assertEquals(0, histogram.percentile(0.5));
+        for (int i = 0; i < 99; i++) {
+            histogram.record(1000);
+        }
+        histogram.record(1000000);
+        assertEquals(100, histogram.getCount());
+        // 1000落在[512,1024)桶，取桶的上界
+        assertEquals(1023, histogram.percentile(0.5));
+        assertEquals(1023, histogram.percentile(0.99));
+        assertEquals(1000000, histogram.percentile(1));
+    }
+
+    public void testNegativeAndZero() {
+        LoaderMetrics.Histogram histogram = new LoaderMetrics.Histogram("test");
+        histogram.record(-5);
+        histogram.record(0);
+        assertEquals(2, histogram.getCount());
+        assertEquals(0, histogram.percentile(1));
+    }
+
+    public void testSnapshotFile() throws Exception {
+        File file = File.createTempFile("metrics", ".json");
+        try {
+            LoaderMetrics.writeSnapshot(file);
+            Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+            Map<?, ?> snapshot;
+            try {
+                snapshot = new Gson().fromJson(reader, Map.class);
+            } finally {
+                reader.close();
+            }
+            assertEquals(Boolean.FALSE, snapshot.get("enabled"));
+            assertTrue(snapshot.containsKey("classDefine"));
+            assertTrue(snapshot.containsKey("loaderCache"));
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package cn.chain33.jvm;
+
+import cn.chain33.jvm.api.Blockchain;
+import cn.chain33.jvm.api.MemoryLocalDB;
+import cn.chain33.jvm.api.MemoryStateDB;
+import cn.chain33.jvm.dapp.BatchContract;
+import cn.chain33.jvm.dapp.DuplicateContract;
+import cn.chain33.jvm.dapp.Packaged;
+import cn.chain33.jvm.dapp.guess.Guess;
+import cn.chain33.jvm.dapp.guess.Record;
+import cn.chain33.jvm.state.ChainBackend;
+import cn.chain33.jvm.state.ChainState;
+import cn.chain33.jvm.state.MemoryState;
+import cn.chain33.jvm.state.NativeState;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+public class LoaderTest extends TestCase {
+
+    private static final String PACKAGED = Packaged.class.getName();
+
+    private Loader newLoader() throws IOException {
+        return newLoader(Packaged.class);
+    }
+
+    private Loader newLoader(Class<?>... classes) throws IOException {
+        return new Loader(newContract("Packaged", classes));
+    }
+
+    private Contract newContract(String name, Class<?>... classes) throws IOException {
+        File dir = File.createTempFile("loader", "");
+        dir.delete();
+        dir.mkdirs();
+        File jar = new File(dir, name + ".jar");
+        writeJar(jar, classes);
+        File img = new File(dir, name + ContractImage.SUFFIX);
+        ContractImage image = ContractImage.build(jar, img);
+        img.deleteOnExit();
+        jar.deleteOnExit();
+        dir.deleteOnExit();
+        return new Contract(name, 1, image.getEntryClass(), image.classNames(), image);
+    }
+
+    /**
+     * 写入指定值时失败的状态存储
+     */
+    private static class FailingBackend extends MemoryState implements ChainBackend {
+        @Override
+        public void put(String key, byte[] value) {
+            if ("boom".equals(new String(value))) {
+                throw new IllegalStateException("disk full");
+            }
+            super.put(key, value);
+        }
+
+        @Override
+        public String getFrom() {
+            return "addr";
+        }
+
+        @Override
+        public long getCurrentHeight() {
+            return 1;
+        }
+    }
+
+    private void writeJar(File jar, Class<?>... classes) throws IOException {
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+        for (Class<?> clss : classes) {
+            String path = clss.getName().replace('.', '/') + ".class";
+            out.putNextEntry(new JarEntry(path));
+            out.write(readAll(getClass().getResourceAsStream("/" + path)));
+            out.closeEntry();
+        }
+        out.close();
+    }
+
+    public void testRejectBadFunctionTableAtLoad() throws Exception {
+        // 合约jar包按名称从工作目录读取
+        File jar = new File("DuplicateContract.jar");
+        writeJar(jar, DuplicateContract.class);
+        try {
+            assertEquals(7, Loader.loadContract("DuplicateContract"));
+            assertFalse(Loader.isExist("DuplicateContract"));
+        } finally {
+            jar.delete();
+        }
+    }
+
+    public void testMissingContractFailsLoad() {
+        assertEquals(8, Loader.loadContract("MissingContract"));
+        assertEquals(8, Loader.upgradeContract("MissingContract"));
+        assertFalse(Loader.isExist("MissingContract"));
+    }
+
+    public void testBatchIsolatesFailures() throws Exception {
+        Loader.install(newContract("BatchContract", BatchContract.class));
+        FailingBackend backend = new FailingBackend();
+        Loader.setStateBackend(backend);
+        try {
+            TxBatchResult result = Loader.txBatch(new String[][]{
+                    {"BatchContract", "a"},
+                    {"BatchContract", "throw"},
+                    {"BatchContract", "boom"},
+                    {"BatchContract", "b"}});
+            assertEquals(2, result.getFailed());
+            assertTrue(result.isOk(0));
+            assertEquals(TxBatchResult.FAILED, result.getStatus(1));
+            assertTrue(result.getError(1), result.getError(1).contains("contract failed"));
+            assertEquals(TxBatchResult.FAILED, result.getStatus(2));
+            assertTrue(result.getError(2), result.getError(2).startsWith("commit failed"));
+            assertTrue(result.isOk(3));
+            assertEquals("b", new String(backend.get(ChainState.stateKey("value".getBytes("UTF-8")))));
+        } finally {
+            Loader.setStateBackend(null);
+            Loader.unloadContract("BatchContract");
+        }
+    }
+
+    public void testGuessThroughTxBuffer() throws Exception {
+        Loader.install(newContract("Guess", Guess.class, Record.class));
+        MemoryStateDB stateDB = new MemoryStateDB();
+        MemoryLocalDB localDB = new MemoryLocalDB();
+        final String[] from = {"admin"};
+        Loader.setStateBackend(new NativeState(stateDB, localDB, new Blockchain() {
+            @Override
+            public String getFrom() {
+                return from[0];
+            }
+
+            @Override
+            public long getCurrentHeight() {
+                return 5;
+            }
+        }));
+        try {
+            Loader.tx(new String[]{"Guess", "startGame"});
+            assertEquals("1", new String(localDB.getFromLocal(Guess.LastRound.getBytes())));
+            assertNotNull(stateDB.getFromState("1".getBytes()));
+
+            from[0] = "player";
+            Loader.tx(new String[]{"Guess", "playGame", "7", "2"});
+            assertEquals("{7=2}", Loader.query(new String[]{"Guess", "getGuessRecordByRound", "player", "1"})[0]);
+
+            // 不到10个区块不能结束，中止的交易报告为失败，状态不变
+            byte[] round = stateDB.getFromState("1".getBytes());
+            try {
+                Loader.tx(new String[]{"Guess", "closeGame"});
+                fail();
+            } catch (InvocationTargetException e) {
+                // expected
+            }
+            assertEquals(new String(round), new String(stateDB.getFromState("1".getBytes())));
+        } finally {
+            Loader.setStateBackend(null);
+            Loader.unloadContract("Guess");
+        }
+    }
+
+    public void testContractClassesSkipParent() throws Exception {
+        Loader loader = newLoader();
+        Class<?> clazz = loader.loadClass(PACKAGED);
+        assertSame(loader, clazz.getClassLoader());
+        assertSame(clazz, loader.loadClass(PACKAGED));
+        assertSame(String.class, loader.loadClass("java.lang.String"));
+        assertSame(TestCase.class, loader.loadClass(TestCase.class.getName()));
+    }
+
+    public void testHostClassesNotFromContract() throws Exception {
+        Loader loader = newLoader(Packaged.class, Meter.class);
+        assertEquals(Meter.class.getName(), Loader.hostClass(loader.getContract()));
+        assertSame(Meter.class, loader.loadClass(Meter.class.getName()));
+        assertNull(Loader.hostClass(newLoader().getContract()));
+    }
+
+    public void testMissCache() throws Exception {
+        Loader loader = newLoader();
+        try {
+            loader.loadClass("demo.NoSuchClass");
+            fail();
+        } catch (ClassNotFoundException e) {
+            assertTrue(e.getStackTrace().length > 0);
+        }
+        try {
+            loader.loadClass("demo.NoSuchClass");
+            fail();
+        } catch (ClassNotFoundException e) {
+            // 第二次直接从misses失败，不再查找
+            assertEquals(0, e.getStackTrace().length);
+            assertEquals("demo.NoSuchClass", e.getMessage());
+        }
+    }
+
+    private static byte[] readAll(InputStream input) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = input.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            input.close();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package cn.chain33.jvm;
+
+import com.google.gson.Gson;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.LinkedHashMap;
+
+/**
+ * 指令计量的开销测试
+ * Guess合约依赖宿主API，这里用 GuessWorkload 重放 playGame 的数据处理(记录表更新和Gson序列化)，
+ * 分别用原始类和插桩后的类执行相同的交易，输出每笔交易的耗时和计量的指令数
+ *
+ * java -cp ... cn.chain33.jvm.MeterBenchmark [交易数] [玩家数]
+ */
+public class MeterBenchmark {
+
+    /**
+     * playGame的数据处理部分：读出当前轮次，累加号码上的票数和玩家记录，再写回
+     */
+    public static class GuessWorkload {
+        private static final Gson GSON = new Gson();
+        private static String round = GSON.toJson(new Round());
+
+        public static class Round {
+            public long bonusPool;
+            public LinkedHashMap<Integer, LinkedHashMap<String, Integer>> data = new LinkedHashMap<Integer, LinkedHashMap<String, Integer>>();
+        }
+
+        public static void tx(String[] args) {
+            String from = args[0];
+            Integer lucky = Integer.valueOf(args[1]);
+            Integer ticketNum = Integer.valueOf(args[2]);
+            Round guess = GSON.fromJson(round, Round.class);
+            LinkedHashMap<String, Integer> recordMap = guess.data.get(lucky);
+            if (recordMap == null) {
+                recordMap = new LinkedHashMap<String, Integer>();
+                guess.data.put(lucky, recordMap);
+            }
+            guess.bonusPool += ticketNum.longValue() * 100000000L;
+            Integer value = recordMap.get(from);
+            recordMap.put(from, value == null ? ticketNum : value + ticketNum);
+            // 玩家多时每轮只保留最近的号码，保持每笔交易的工作量稳定
+            if (guess.data.size() > 10) {
+                guess.data.remove(guess.data.keySet().iterator().next());
+            }
+            round = GSON.toJson(guess);
+        }
+    }
+
+    private static class DefiningLoader extends ClassLoader {
+        DefiningLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    private static MethodHandle load(byte[] bytes) throws NoSuchMethodException, IllegalAccessException {
+        String name = GuessWorkload.class.getName();
+        Class<?> clazz = new DefiningLoader(MeterBenchmark.class.getClassLoader()).define(name, bytes);
+        return MethodHandles.publicLookup().findStatic(clazz, "tx", MethodType.methodType(void.class, String[].class));
+    }
+
+    private static byte[] classBytes(Class<?> clazz) throws IOException {
+        InputStream input = clazz.getResourceAsStream("/" + clazz.getName().replace('.', '/') + ".class");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = input.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        input.close();
+        return out.toByteArray();
+    }
+
+    /**
+     * 执行count笔交易，返回每笔的平均纳秒数
+     */
+    private static long run(MethodHandle tx, int count, int players, boolean metered) throws Throwable {
+        long startTime = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            String[] args = {"player" + (i % players), String.valueOf(i % 10), "1"};
+            Meter previous = metered ? Meter.start(Long.MAX_VALUE) : null;
+            try {
+                tx.invokeExact(args);
+            } finally {
+                if (metered) {
+                    Meter.stop(previous);
+                }
+            }
+        }
+        return (System.nanoTime() - startTime) / count;
+    }
+
+    public static void main(String[] args) throws Throwable {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int players = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        byte[] plain = classBytes(GuessWorkload.class);
+        MethodHandle original = load(plain);
+        MethodHandle metered = load(MeterInstrumenter.instrument(plain));
+
+        // 预热
+        for (int i = 0; i < 3; i++) {
+            run(original, count / 10, players, false);
+            run(metered, count / 10, players, true);
+        }
+        long originalNanos = run(original, count, players, false);
+        long meteredNanos = run(metered, count, players, true);
+
+        Meter previous = Meter.start(Long.MAX_VALUE);
+        metered.invokeExact(new String[]{"player0", "1", "1"});
+        long instructions = Meter.stop(previous);
+
+        System.out.println("transactions:" + count + ",players:" + players);
+        System.out.println("original:" + originalNanos + "ns/tx,metered:" + meteredNanos + "ns/tx,overhead:"
+                + (meteredNanos - originalNanos) * 100 / Math.max(1, originalNanos) + "%");
+        System.out.println("metered instructions per tx (contract code only):" + instructions);
+    }
+}
@@ -0,0 +1,169 @@
+package cn.chain33.jvm;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class MeterInstrumenterTest extends TestCase {
+
+    public static class Spin {
+        public static final Object LOCK = new Object();
+
+        public static int sum(int n) {
+            int total = 0;
+            for (int i = 0; i < n; i++) {
+                try {
+                    total += i;
+                } catch (RuntimeException e) {
+                    total = -1;
+                }
+            }
+            return total;
+        }
+
+        public static void forever() {
+            while (true) {
+                try {
+                    Thread.yield();
+                } catch (Exception e) {
+                    return;
+                }
+            }
+        }
+
+        public static void lockedForever() {
+            synchronized (LOCK) {
+                while (true) {
+                    Thread.yield();
+                }
+            }
+        }
+
+        public static void finallyForever() {
+            int n = 0;
+            try {
+                while (true) {
+                    n++;
+                }
+            } finally {
+                while (n > 0) {
+                    n++;
+                }
+            }
+        }
+
+        public static void catchForever() {
+            while (true) {
+                try {
+                    Thread.yield();
+                } catch (Throwable e) {
+                    Thread.yield();
+                }
+            }
+        }
+    }
+
+    private static class DefiningLoader extends ClassLoader {
+        DefiningLoader() {
+            super(MeterInstrumenterTest.class.getClassLoader());
+        }
+
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    private static Class<?> meteredSpin() throws IOException {
+        InputStream input = Spin.class.getResourceAsStream("MeterInstrumenterTest$Spin.class");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = input.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        input.close();
+        return new DefiningLoader().define(Spin.class.getName(), MeterInstrumenter.instrument(out.toByteArray()));
+    }
+
+    public void testChargePerIteration() throws Exception {
+        Method sum = meteredSpin().getMethod("sum", int.class);
+        Meter previous = Meter.start(1000000);
+        assertEquals(45, sum.invoke(null, 10));
+        long ten = Meter.stop(previous);
+        previous = Meter.start(1000000);
+        assertEquals(190, sum.invoke(null, 20));
+        long twenty = Meter.stop(previous);
+        assertTrue(ten > 0);
+        // 循环体的消耗与迭代次数成正比
+        assertTrue(twenty > ten);
+        assertEquals(0, (twenty - ten) % 10);
+        // 不计量时照常执行
+        assertEquals(45, sum.invoke(null, 10));
+    }
+
+    public void testAbortRunawayLoop() throws Exception {
+        Method forever = meteredSpin().getMethod("forever");
+        Meter previous = Meter.start(10000);
+        try {
+            forever.invoke(null);
+            fail("expected budget exhausted");
+        } catch (InvocationTargetException e) {
+            assertTrue(e.getCause() instanceof MeterExhaustedError);
+        } finally {
+            Meter.stop(previous);
+        }
+    }
+
+    /**
+     * 在新线程中执行，计量用完后合约的处理器拦截不到MeterExhaustedError，线程应当很快结束
+     */
+    private static void assertExhausted(final Class<?> spin, String name) throws Exception {
+        final Method method = spin.getMethod(name);
+        final AtomicReference<Throwable> result = new AtomicReference<Throwable>();
+        final AtomicReference<Boolean> locked = new AtomicReference<Boolean>();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Meter previous = Meter.start(10000);
+                try {
+                    method.invoke(null);
+                } catch (InvocationTargetException e) {
+                    // 与EntryPoint相同，synchronized帧退出时的IllegalMonitorStateException还原为MeterExhaustedError
+                    result.set(Meter.exhausted(e.getCause()));
+                } catch (Exception e) {
+                    result.set(e);
+                } finally {
+                    Meter.stop(previous);
+                }
+                try {
+                    locked.set(Thread.holdsLock(spin.getField("LOCK").get(null)));
+                } catch (Exception e) {
+                    result.set(e);
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        thread.join(10000);
+        assertFalse(name + " still running", thread.isAlive());
+        assertTrue(name + ": " + result.get(), result.get() instanceof MeterExhaustedError);
+        assertEquals(Boolean.FALSE, locked.get());
+    }
+
+    public void testAbortSynchronizedLoop() throws Exception {
+        assertExhausted(meteredSpin(), "lockedForever");
+    }
+
+    public void testAbortTryFinallyLoop() throws Exception {
+        assertExhausted(meteredSpin(), "finallyForever");
+    }
+
+    public void testCatchCannotSwallowExhaustion() throws Exception {
+        assertExhausted(meteredSpin(), "catchForever");
+    }
+}
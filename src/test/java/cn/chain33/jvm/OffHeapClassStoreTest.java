@@ -0,0 +1,91 @@
+package cn.chain33.jvm;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+public class OffHeapClassStoreTest extends TestCase {
+
+    public void testRoundTrip() throws IOException {
+        OffHeapClassStore store = new OffHeapClassStore(OffHeapClassStore.DEFAULT_CAPACITY);
+        Map<String, byte[]> classes = classes("a.A", "a.B");
+        store.put("a", jar("store-a", classes), classes);
+        assertTrue(store.contains("a"));
+        assertTrue(Arrays.equals(classes.get("a.B"), store.get("a", "a.B")));
+        assertNull(store.get("a", "a.C"));
+        assertNull(store.get("b", "a.A"));
+    }
+
+    public void testEvictAndReloadFromJar() throws IOException {
+        OffHeapClassStore store = new OffHeapClassStore(1);
+        Map<String, byte[]> a = classes("a.A");
+        Map<String, byte[]> b = classes("b.B");
+        store.put("a", jar("store-a", a), a);
+        store.put("b", jar("store-b", b), b);
+        assertEquals(1, store.getEvictions());
+        assertTrue(store.contains("a"));
+
+        assertTrue(Arrays.equals(a.get("a.A"), store.get("a", "a.A")));
+        assertEquals(1, store.getReloads());
+
+        store.remove("a");
+        assertFalse(store.contains("a"));
+        assertNull(store.get("a", "a.A"));
+    }
+
+    public void testReloadRefusesChangedJar() throws IOException {
+        OffHeapClassStore store = new OffHeapClassStore(1);
+        Map<String, byte[]> a = classes("a.A");
+        File jar = jar("store-a", a);
+        store.put("a@1", jar, a);
+        store.put("b@1", jar("store-b", classes("b.B")), classes("b.B"));
+        assertEquals(1, store.getEvictions());
+
+        // 淘汰后jar包被新版本覆盖
+        Map<String, byte[]> upgraded = classes("a.A");
+        upgraded.put("a.A", "upgraded".getBytes("UTF-8"));
+        write(jar, upgraded);
+        assertNull(store.get("a@1", "a.A"));
+        assertEquals(0, store.getReloads());
+
+        write(jar, a);
+        assertTrue(Arrays.equals(a.get("a.A"), store.get("a@1", "a.A")));
+        assertEquals(1, store.getReloads());
+    }
+
+    private Map<String, byte[]> classes(String... names) throws IOException {
+        Map<String, byte[]> classes = new HashMap<String, byte[]>();
+        for (String name : names) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 200; i++) {
+                sb.append(name).append(i);
+            }
+            classes.put(name, sb.toString().getBytes("UTF-8"));
+        }
+        return classes;
+    }
+
+    private File jar(String prefix, Map<String, byte[]> classes) throws IOException {
+        File file = File.createTempFile(prefix, ".jar");
+        file.deleteOnExit();
+        write(file, classes);
+        return file;
+    }
+
+    private static void write(File file, Map<String, byte[]> classes) throws IOException {
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(file));
+        for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+            out.putNextEntry(new JarEntry(entry.getKey().replace('.', '/') + ".class"));
+            out.write(entry.getValue());
+            out.closeEntry();
+        }
+        out.close();
+    }
+}
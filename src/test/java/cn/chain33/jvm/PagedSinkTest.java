@@ -0,0 +1,94 @@
+package cn.chain33.jvm;
+
+import cn.chain33.jvm.abi.AbiReader;
+import cn.chain33.jvm.interfaces.QueryFunction;
+import cn.chain33.jvm.interfaces.QuerySink;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class PagedSinkTest extends TestCase {
+
+    public static class Rounds {
+        static int scanned;
+
+        /**
+         * 输出 0..count-1，游标为序号
+         */
+        @QueryFunction
+        public static void rounds(int count, QuerySink sink) {
+            int start = sink.getCursor() == null ? 0 : Integer.parseInt(sink.getCursor()) + 1;
+            for (int i = start; i < count; i++) {
+                scanned++;
+                if (!sink.emit(String.valueOf(i), "round" + i)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    public void testPagination() throws Exception {
+        EntryPoint entry = EntryPoint.resolve(Rounds.class);
+        List<String> all = new ArrayList<String>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            QueryPage page = new QueryPage(cursor, 3);
+            Rounds.scanned = 0;
+            entry.query(new String[]{"rounds", "7"}, page);
+            // 每页最多多扫描一条
+            assertTrue(Rounds.scanned <= 4);
+            all.addAll(page.getItems());
+            cursor = page.getNextCursor();
+            pages++;
+        } while (cursor != null);
+        assertEquals(3, pages);
+        assertEquals(7, all.size());
+        assertEquals("round6", all.get(6));
+    }
+
+    public void testJsonStream() throws Exception {
+        StringWriter out = new StringWriter();
+        PagedSink.Json sink = new PagedSink.Json(out, null, 2);
+        EntryPoint.resolve(Rounds.class).query(new String[]{"rounds", "5"}, sink);
+        // 结束前结果已经写出
+        assertEquals("{\"items\":[\"round0\",\"round1\"", out.toString());
+        sink.finish();
+        assertEquals("{\"items\":[\"round0\",\"round1\"],\"next\":\"1\"}", out.toString());
+
+        out = new StringWriter();
+        sink = new PagedSink.Json(out, "3", 2);
+        EntryPoint.resolve(Rounds.class).query(new String[]{"rounds", "5"}, sink);
+        sink.finish();
+        assertEquals("{\"items\":[\"round4\"],\"next\":null}", out.toString());
+    }
+
+    public void testBinaryStream() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PagedSink.Binary sink = new PagedSink.Binary(out, null, 2);
+        EntryPoint.resolve(Rounds.class).query(new String[]{"rounds", "5"}, sink);
+        sink.finish();
+        AbiReader reader = new AbiReader(out.toByteArray());
+        assertTrue(reader.readBoolean());
+        assertEquals("round0", reader.readString());
+        assertTrue(reader.readBoolean());
+        assertEquals("round1", reader.readString());
+        assertFalse(reader.readBoolean());
+        assertTrue(reader.readBoolean());
+        assertEquals("1", reader.readString());
+        assertFalse(reader.hasRemaining());
+    }
+
+    public void testSinkRequired() throws Exception {
+        try {
+            EntryPoint.resolve(Rounds.class).query(new String[]{"rounds", "5"});
+            fail();
+        } catch (InvocationTargetException e) {
+            assertTrue(e.getCause().getMessage().contains("needs a result sink"));
+        }
+    }
+}
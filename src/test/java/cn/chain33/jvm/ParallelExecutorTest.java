@@ -0,0 +1,194 @@
+package cn.chain33.jvm;
+
+import cn.chain33.jvm.state.ChainState;
+import cn.chain33.jvm.state.MemoryState;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 并行执行与串行执行的等价性测试
+ * 用内存状态代替链上状态，随机生成区块，分别串行和并行执行，比较每笔交易的状态和最终状态
+ */
+public class ParallelExecutorTest extends TestCase {
+    private static final long TICKET_PRICE = 100;
+
+    /**
+     * 类似Guess.playGame的合约，状态都经过ChainState
+     * play 号码 张数: 扣减发送者余额，累加发送者在该号码上的票数
+     * transfer 接收者 金额: 账户间转账
+     * pool 金额: 向公共奖池转账，所有pool交易互相冲突
+     * fail: 写入后抛出异常，写入不提交
+     */
+    private static final ParallelExecutor.TxRunner GAME = new ParallelExecutor.TxRunner() {
+        @Override
+        public void run(String[] tx) {
+            String from = ChainState.getFrom();
+            String op = tx[1];
+            if ("play".equals(op)) {
+                long amount = Long.parseLong(tx[3]) * TICKET_PRICE;
+                if (!ChainState.execFrozen(from, amount)) {
+                    throw new IllegalStateException("lack of balance! need amount:" + amount);
+                }
+                String key = "record/" + from + "/" + tx[2];
+                String count = ChainState.getFromStateInStr(key);
+                long total = (count == null ? 0 : Long.parseLong(count)) + Long.parseLong(tx[3]);
+                ChainState.setStateInStr(key, String.valueOf(total));
+            } else if ("transfer".equals(op)) {
+                if (!ChainState.execTransfer(from, tx[2], Long.parseLong(tx[3]))) {
+                    throw new IllegalStateException("lack of balance");
+                }
+            } else if ("pool".equals(op)) {
+                ChainState.execTransfer(from, "pool", Long.parseLong(tx[2]));
+                ChainState.setLocalInStr("LastRound", String.valueOf(ChainState.getCurrentHeight()));
+            } else {
+                ChainState.setStateInStr("broken", from);
+                throw new IllegalStateException("fail");
+            }
+        }
+    };
+
+    private static MemoryState genesis(int players) {
+        MemoryState state = new MemoryState();
+        for (int i = 0; i < players; i++) {
+            state.put(ChainState.balanceKey("player" + i), ChainState.encodeLong(20 * TICKET_PRICE));
+        }
+        return state;
+    }
+
+    private static List<ParallelExecutor.Tx> randomBlock(Random random, int size, int players) {
+        List<ParallelExecutor.Tx> txs = new ArrayList<ParallelExecutor.Tx>(size);
+        for (int i = 0; i < size; i++) {
+            String from = "player" + random.nextInt(players);
+            int kind = random.nextInt(100);
+            if (kind < 75) {
+                txs.add(new ParallelExecutor.Tx(from, "game", "play", String.valueOf(random.nextInt(10)),
+                        String.valueOf(1 + random.nextInt(5))));
+            } else if (kind < 90) {
+                txs.add(new ParallelExecutor.Tx(from, "game", "transfer", "player" + random.nextInt(players),
+                        String.valueOf(random.nextInt(1000))));
+            } else if (kind < 97) {
+                txs.add(new ParallelExecutor.Tx(from, "game", "pool", String.valueOf(random.nextInt(300))));
+            } else {
+                txs.add(new ParallelExecutor.Tx(from, "game", "fail"));
+            }
+        }
+        return txs;
+    }
+
+    private static void assertSameResult(TxBatchResult serial, TxBatchResult parallel) {
+        assertEquals(serial.size(), parallel.size());
+        assertEquals(serial.getFailed(), parallel.getFailed());
+        for (int i = 0; i < serial.size(); i++) {
+            assertEquals("tx " + i, serial.getStatus(i), parallel.getStatus(i));
+            assertEquals("tx " + i, serial.getError(i), parallel.getError(i));
+        }
+    }
+
+    public void testSerialEquivalence() throws InterruptedException {
+        ParallelExecutor executor = new ParallelExecutor(4, GAME);
+        try {
+            for (int seed = 0; seed < 20; seed++) {
+                Random random = new Random(seed);
+                int players = 2 + random.nextInt(60);
+                MemoryState serialState = genesis(players);
+                MemoryState parallelState = new MemoryState(serialState);
+                for (int height = 1; height <= 3; height++) {
+                    List<ParallelExecutor.Tx> block = randomBlock(random, 200, players);
+                    TxBatchResult serial = ParallelExecutor.executeSerial(GAME, serialState, height, block);
+                    TxBatchResult parallel = executor.execute(parallelState, height, block);
+                    assertSameResult(serial, parallel);
+                    assertTrue("seed " + seed + " height " + height, serialState.sameAs(parallelState));
+                }
+            }
+            assertTrue(executor.getReexecuted() > 0);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public void testIndependentPlayersDoNotReexecute() throws InterruptedException {
+        ParallelExecutor executor = new ParallelExecutor(4, GAME);
+        try {
+            List<ParallelExecutor.Tx> block = new ArrayList<ParallelExecutor.Tx>();
+            for (int i = 0; i < 100; i++) {
+                block.add(new ParallelExecutor.Tx("player" + i, "game", "play", "7", "1"));
+            }
+            MemoryState state = genesis(100);
+            TxBatchResult result = executor.execute(state, 1, block);
+            assertEquals(0, result.getFailed());
+            assertEquals(0, executor.getReexecuted());
+            assertEquals("1", new String(state.get(ChainState.STATE + "record/player42/7")));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public void testFallsBackToSerialOnConflicts() throws InterruptedException {
+        ParallelExecutor executor = new ParallelExecutor(4, GAME, 0.5, 2);
+        try {
+            // 所有pool交易都写奖池余额，除第一笔外全部冲突
+            List<ParallelExecutor.Tx> block = new ArrayList<ParallelExecutor.Tx>();
+            for (int i = 0; i < 50; i++) {
+                block.add(new ParallelExecutor.Tx("player" + i, "game", "pool", "10"));
+            }
+            MemoryState serialState = genesis(50);
+            MemoryState parallelState = new MemoryState(serialState);
+            for (int height = 1; height <= 4; height++) {
+                TxBatchResult serial = ParallelExecutor.executeSerial(GAME, serialState, height, block);
+                TxBatchResult parallel = executor.execute(parallelState, height, block);
+                assertSameResult(serial, parallel);
+                assertTrue("height " + height, serialState.sameAs(parallelState));
+            }
+            // 第1个区块并行，第2、3个区块串行，第4个区块重新尝试并行
+            assertEquals(2, executor.getSerialExecuted());
+            assertEquals(100, executor.getExecuted());
+            assertEquals(98, executor.getReexecuted());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public void testErrorsOnReexecutionFailOneTx() throws InterruptedException {
+        // 试执行读到完整的余额，前面的转账提交后重新执行时才抛出Error
+        ParallelExecutor.TxRunner runner = new ParallelExecutor.TxRunner() {
+            @Override
+            public void run(String[] tx) throws Exception {
+                if ("spin".equals(tx[1]) || "link".equals(tx[1])) {
+                    if (ChainState.getBalance(ChainState.getFrom()) < 20 * TICKET_PRICE) {
+                        if ("spin".equals(tx[1])) {
+                            throw new MeterExhaustedError(1);
+                        }
+                        throw new NoClassDefFoundError("cn/chain33/jvm/dapp/Missing");
+                    }
+                    return;
+                }
+                GAME.run(tx);
+            }
+        };
+        ParallelExecutor executor = new ParallelExecutor(4, runner);
+        try {
+            List<ParallelExecutor.Tx> block = new ArrayList<ParallelExecutor.Tx>();
+            block.add(new ParallelExecutor.Tx("player0", "game", "transfer", "player2", "100"));
+            block.add(new ParallelExecutor.Tx("player1", "game", "transfer", "player2", "100"));
+            block.add(new ParallelExecutor.Tx("player0", "game", "spin"));
+            block.add(new ParallelExecutor.Tx("player1", "game", "link"));
+            block.add(new ParallelExecutor.Tx("player3", "game", "play", "7", "1"));
+            MemoryState state = genesis(4);
+            TxBatchResult result = executor.execute(state, 1, block);
+            // 第二笔转账也读过player2的余额
+            assertEquals(3, executor.getReexecuted());
+            assertEquals(2, result.getFailed());
+            assertEquals(TxBatchResult.OUT_OF_GAS, result.getStatus(2));
+            assertEquals(TxBatchResult.FAILED, result.getStatus(3));
+            assertTrue(result.getError(3), result.getError(3).contains("NoClassDefFoundError"));
+            assertTrue(result.isOk(4));
+            assertEquals(22 * TICKET_PRICE, ChainState.decodeLong(state.get(ChainState.balanceKey("player2"))));
+            assertEquals("1", new String(state.get(ChainState.STATE + "record/player3/7")));
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package cn.chain33.jvm;
+
+import cn.chain33.jvm.state.ChainState;
+import cn.chain33.jvm.api.Blockchain;
+import cn.chain33.jvm.api.MemoryLocalDB;
+import cn.chain33.jvm.api.MemoryStateDB;
+import cn.chain33.jvm.state.MemoryState;
+import cn.chain33.jvm.state.NativeState;
+import cn.chain33.jvm.state.VersionedState;
+import junit.framework.TestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+public class QueryExecutorTest extends TestCase {
+
+    public void testReadPublishedSnapshot() throws Exception {
+        QueryExecutor executor = new QueryExecutor(new QueryExecutor.QueryRunner() {
+            @Override
+            public String[] query(String[] args) {
+                ChainState.setStateInStr("ignored", "x");
+                return new String[]{ChainState.getFromStateInStr(args[1]), String.valueOf(ChainState.getCurrentHeight())};
+            }
+        }, 8, 4);
+        try {
+            MemoryState state = new MemoryState();
+            state.put(ChainState.STATE + "round", "1".getBytes("UTF-8"));
+            executor.publish(state.snapshot(), 10);
+            // 发布后的写入对查询不可见
+            state.put(ChainState.STATE + "round", "2".getBytes("UTF-8"));
+            String[] result = executor.query(new String[]{"guess", "round"}, 5000);
+            assertEquals("1", result[0]);
+            assertEquals("10", result[1]);
+            assertNull(state.get(ChainState.STATE + "ignored"));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public void testRejectNonSnapshot() {
+        QueryExecutor executor = new QueryExecutor(QueryExecutor.LOADER, 8, 4);
+        try {
+            // 可写的状态在查询执行中可能被区块执行修改
+            executor.publish(new MemoryState(), 1);
+            fail("expected rejection");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("MemoryState"));
+        } finally {
+            executor.shutdown();
+        }
+        try {
+            new MemoryState().snapshot().put("k", new byte[1]);
+            fail("snapshot is read-only");
+        } catch (UnsupportedOperationException e) {
+            // 快照不可写
+        }
+    }
+
+    public void testShedOverContractLimit() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        QueryExecutor executor = new QueryExecutor(new QueryExecutor.QueryRunner() {
+            @Override
+            public String[] query(String[] args) throws InterruptedException {
+                release.await();
+                return args;
+            }
+        }, 8, 2);
+        try {
+            executor.publish(new MemoryState().snapshot(), 1);
+            Future<String[]> first = executor.submit(new String[]{"guess"});
+            Future<String[]> second = executor.submit(new String[]{"guess"});
+            try {
+                executor.submit(new String[]{"guess"});
+                fail("expected rejection");
+            } catch (RejectedExecutionException e) {
+                assertEquals(1, executor.getRejected());
+            }
+            // 其他合约不受影响
+            Future<String[]> other = executor.submit(new String[]{"record"});
+            release.countDown();
+            assertEquals("guess", first.get()[0]);
+            assertEquals("guess", second.get()[0]);
+            assertEquals("record", other.get()[0]);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public void testNativeStateSnapshot() throws Exception {
+        QueryExecutor executor = new QueryExecutor(new QueryExecutor.QueryRunner() {
+            @Override
+            public String[] query(String[] args) {
+                return new String[]{ChainState.getFromStateInStr(args[1])};
+            }
+        }, 8, 4);
+        try {
+            VersionedState state = new VersionedState(new NativeState(new MemoryStateDB(), new MemoryLocalDB(),
+                    new Blockchain()));
+            state.put(ChainState.STATE + "round", "1".getBytes("UTF-8"));
+            executor.publish(state.snapshot(), 10);
+            // 下一个区块的写入对已发布的快照不可见
+            state.put(ChainState.STATE + "round", "2".getBytes("UTF-8"));
+            assertEquals("1", executor.query(new String[]{"guess", "round"}, 5000)[0]);
+            executor.publish(state.snapshot(), 11);
+            assertEquals("2", executor.query(new String[]{"guess", "round"}, 5000)[0]);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public void testContractNamesValidatedAndBounded() throws Exception {
+        QueryExecutor executor = new QueryExecutor(new QueryExecutor.QueryRunner() {
+            @Override
+            public String[] query(String[] args) {
+                return args;
+            }
+        }, 8, 2);
+        try {
+            executor.publish(new MemoryState().snapshot(), 1);
+            for (String[] args : new String[][]{null, {}, {null}, {""}}) {
+                try {
+                    executor.submit(args);
+                    fail("expected bad contract name");
+                } catch (IllegalArgumentException e) {
+                    // 没有合约名称
+                }
+            }
+            for (int i = 0; i < QueryExecutor.MAX_CONTRACTS * 2; i++) {
+                executor.query(new String[]{"contract" + i}, 5000);
+            }
+            assertTrue(executor.trackedContracts() <= QueryExecutor.MAX_CONTRACTS);
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package cn.chain33.jvm;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SingleFlightTest extends TestCase {
+
+    public void testConcurrentCallsRunOnce() throws Exception {
+        final SingleFlight<Integer> flight = new SingleFlight<Integer>();
+        final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Callable<Integer> load = new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                calls.incrementAndGet();
+                started.countDown();
+                release.await();
+                return 7;
+            }
+        };
+        final int[] results = new int[4];
+        Thread[] threads = new Thread[results.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        results[index] = flight.run("guess", load);
+                    } catch (Exception e) {
+                        results[index] = -1;
+                    }
+                }
+            });
+            threads[i].start();
+            if (i == 0) {
+                started.await();
+            }
+        }
+        // 所有线程都阻塞后再放行第一次调用
+        for (Thread thread : threads) {
+            while (thread.getState() != Thread.State.WAITING) {
+                Thread.sleep(1);
+            }
+        }
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(1, calls.get());
+        for (int result : results) {
+            assertEquals(7, result);
+        }
+        assertFalse(flight.isRunning("guess"));
+    }
+
+    public void testAwaitDoesNotJoin() throws Exception {
+        final SingleFlight<Integer> flight = new SingleFlight<Integer>();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Thread load = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    flight.run("guess", new Callable<Integer>() {
+                        @Override
+                        public Integer call() throws Exception {
+                            started.countDown();
+                            release.await();
+                            return 1;
+                        }
+                    });
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        load.start();
+        started.await();
+        final int[] result = new int[1];
+        Thread upgrade = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    // 等加载结束后执行自己的调用，不共享加载的结果
+                    flight.await("guess");
+                    result[0] = flight.run("upgrade:guess", new Callable<Integer>() {
+                        @Override
+                        public Integer call() {
+                            return 2;
+                        }
+                    });
+                } catch (Exception e) {
+                    result[0] = -1;
+                }
+            }
+        });
+        upgrade.start();
+        while (upgrade.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+        assertEquals(0, result[0]);
+        release.countDown();
+        upgrade.join();
+        load.join();
+        assertEquals(2, result[0]);
+        assertFalse(flight.isRunning("guess"));
+    }
+}
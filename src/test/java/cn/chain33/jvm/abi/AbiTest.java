@@ -0,0 +1,64 @@
+package cn.chain33.jvm.abi;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+public class AbiTest extends TestCase {
+
+    public void testRoundTrip() {
+        Address address = Address.fromHex("0x00112233445566778899aabbccddeeff00112233");
+        AbiWriter writer = new AbiWriter(16);
+        writer.writeSelector(AbiWriter.selector("playGame"))
+                .writeInt(0).writeInt(-1).writeInt(Integer.MAX_VALUE)
+                .writeLong(Long.MIN_VALUE).writeLong(Long.MAX_VALUE)
+                .writeBoolean(true).writeString("猜数字").writeBytes(new byte[]{1, 2, 3})
+                .writeAddress(address);
+        AbiReader reader = new AbiReader(writer.toByteArray());
+        assertEquals(AbiWriter.selector("playGame"), reader.readSelector());
+        assertEquals(0, reader.readInt());
+        assertEquals(-1, reader.readInt());
+        assertEquals(Integer.MAX_VALUE, reader.readInt());
+        assertEquals(Long.MIN_VALUE, reader.readLong());
+        assertEquals(Long.MAX_VALUE, reader.readLong());
+        assertTrue(reader.readBoolean());
+        assertEquals("猜数字", reader.readString());
+        assertTrue(Arrays.equals(new byte[]{1, 2, 3}, reader.readBytes()));
+        byte[] dst = new byte[Address.LENGTH];
+        reader.readAddress(dst);
+        assertEquals(address, new Address(dst));
+        assertFalse(reader.hasRemaining());
+    }
+
+    public void testSmallValuesAreCompact() {
+        // 一个选择子加两个小整数共6字节
+        assertEquals(6, AbiWriter.call("playGame", 3, 2).length);
+    }
+
+    public void testMalformed() {
+        try {
+            new AbiReader(new byte[]{(byte) 0x80}).readVarint();
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().startsWith("truncated"));
+        }
+        try {
+            new AbiReader(new byte[]{5, 'a'}).readString();
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().startsWith("bad length"));
+        }
+        try {
+            new AbiReader(new AbiWriter().writeLong(1L << 40).toByteArray()).readInt();
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().startsWith("int out of range"));
+        }
+        try {
+            new AbiReader(new byte[]{2}).readBoolean();
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().startsWith("not a boolean"));
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package cn.chain33.jvm.api;
+
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 不依赖宿主的LocalDB，数据保存在内存里，并记录native调用次数
+ */
+public class MemoryLocalDB extends LocalDB {
+    private static final Charset RAW = Charset.forName("ISO-8859-1");
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final Map<String, byte[]> data = new HashMap<String, byte[]>();
+    public int calls;
+
+    @Override
+    public boolean setLocal(byte[] key, byte[] value) {
+        calls++;
+        return store(key, value);
+    }
+
+    @Override
+    public byte[] getFromLocal(byte[] key) {
+        calls++;
+        return data.get(new String(key, RAW));
+    }
+
+    @Override
+    public boolean setLocalInStr(String key, String value) {
+        calls++;
+        return store(key.getBytes(UTF8), value == null ? null : value.getBytes(UTF8));
+    }
+
+    @Override
+    public String getFromLocalInStr(String key) {
+        calls++;
+        byte[] value = data.get(new String(key.getBytes(UTF8), RAW));
+        return value == null ? null : new String(value, UTF8);
+    }
+
+    @Override
+    public byte[] getFromLocalMulti(byte[] keys) {
+        calls++;
+        byte[][] items = MultiKV.unpack(keys);
+        byte[][] values = new byte[items.length][];
+        for (int i = 0; i < items.length; i++) {
+            values[i] = data.get(new String(items[i], RAW));
+        }
+        return MultiKV.pack(values);
+    }
+
+    @Override
+    public boolean setLocalMulti(byte[] entries) {
+        calls++;
+        byte[][] items = MultiKV.unpack(entries);
+        for (int i = 0; i < items.length; i += 2) {
+            store(items[i], items[i + 1]);
+        }
+        return true;
+    }
+
+    private boolean store(byte[] key, byte[] value) {
+        if (value == null || value.length == 0) {
+            data.remove(new String(key, RAW));
+        } else {
+            data.put(new String(key, RAW), value.clone());
+        }
+        return true;
+    }
+}
@@ -0,0 +1,59 @@
+package cn.chain33.jvm.api;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+public class MultiKVTest extends TestCase {
+
+    public void testRoundTrip() {
+        byte[][] items = {"a".getBytes(), null, new byte[0], new byte[]{1, 2, 3}};
+        byte[][] unpacked = MultiKV.unpack(MultiKV.pack(items));
+        assertEquals(4, unpacked.length);
+        assertTrue(Arrays.equals(items[0], unpacked[0]));
+        assertNull(unpacked[1]);
+        assertEquals(0, unpacked[2].length);
+        assertTrue(Arrays.equals(items[3], unpacked[3]));
+        assertEquals(0, MultiKV.unpack(MultiKV.pack()).length);
+    }
+
+    public void testEntries() {
+        byte[][] items = MultiKV.unpack(MultiKV.packEntries(
+                new byte[][]{"k1".getBytes(), "k2".getBytes()}, new byte[][]{"v1".getBytes(), null}));
+        assertEquals(4, items.length);
+        assertEquals("k2", new String(items[2]));
+        assertNull(items[3]);
+        try {
+            MultiKV.packEntries(new byte[1][], new byte[2][]);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // 键值个数不一致
+        }
+    }
+
+    public void testMalformed() {
+        byte[] packed = MultiKV.pack("abc".getBytes());
+        for (byte[] bad : new byte[][]{Arrays.copyOf(packed, packed.length - 1),
+                Arrays.copyOf(packed, packed.length + 1), {0, 0, 0}, {(byte) 0x7f, 0, 0, 0}}) {
+            try {
+                MultiKV.unpack(bad);
+                fail();
+            } catch (IllegalArgumentException e) {
+                // 长度不匹配
+            }
+        }
+    }
+
+    public void testStubMulti() {
+        MemoryStateDB db = new MemoryStateDB();
+        assertTrue(db.setMulti(new byte[][]{"a".getBytes(), "b".getBytes()},
+                new byte[][]{"1".getBytes(), "2".getBytes()}));
+        byte[][] values = db.getMulti(new byte[][]{"b".getBytes(), "c".getBytes(), "a".getBytes()});
+        assertEquals("2", new String(values[0]));
+        assertNull(values[1]);
+        assertEquals("1", new String(values[2]));
+        assertEquals(2, db.calls);
+        assertEquals(0, db.getMulti(new byte[0][]).length);
+        assertEquals(2, db.calls);
+    }
+}
@@ -0,0 +1,15 @@
+package cn.chain33.jvm.dapp;
+
+import cn.chain33.jvm.state.ChainState;
+
+/**
+ * 测试批量交易的合约，参数throw时抛出异常，否则写入状态
+ */
+public class BatchContract {
+    public static void tx(String[] args) {
+        if ("throw".equals(args[0])) {
+            throw new IllegalStateException("contract failed");
+        }
+        ChainState.setStateInStr("value", args[0]);
+    }
+}
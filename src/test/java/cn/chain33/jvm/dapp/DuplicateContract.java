@@ -0,0 +1,16 @@
+package cn.chain33.jvm.dapp;
+
+import cn.chain33.jvm.interfaces.TxFunction;
+
+/**
+ * 两个交易函数使用同一个名称的合约，加载时应当被拒绝
+ */
+public class DuplicateContract {
+    @TxFunction("play")
+    public static void play(String number) {
+    }
+
+    @TxFunction("play")
+    public static void playTwice(String number, int count) {
+    }
+}
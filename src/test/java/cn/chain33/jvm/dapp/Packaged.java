@@ -0,0 +1,7 @@
+package cn.chain33.jvm.dapp;
+
+/**
+ * 打包到测试合约中的类，同时也在测试的classpath上
+ */
+public class Packaged {
+}
@@ -0,0 +1,164 @@
+package cn.chain33.jvm.dapp.guess;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class NetworkClassLoaderTest extends TestCase {
+
+    /**
+     * 从网络加载的类，父加载器为null时只能从服务端取到
+     */
+    public static class Remote {
+    }
+
+    private static final String REMOTE = Remote.class.getName();
+    private static final String REMOTE_PATH = REMOTE.replace('.', '/') + ".class";
+
+    private HttpServer server;
+    private final Map<String, byte[]> files = new HashMap<String, byte[]>();
+    private final ConcurrentHashMap<String, AtomicInteger> requests = new ConcurrentHashMap<String, AtomicInteger>();
+    private File cacheDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        files.put(REMOTE_PATH, readAll(getClass().getResourceAsStream("/" + REMOTE_PATH)));
+        files.put("abi.json", "{}".getBytes("UTF-8"));
+        files.put("classes.list", (hex(files.get(REMOTE_PATH)) + " " + REMOTE_PATH + "\nabi.json\n").getBytes("UTF-8"));
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String path = exchange.getRequestURI().getPath().substring(1);
+                requests.putIfAbsent(path, new AtomicInteger());
+                requests.get(path).incrementAndGet();
+                byte[] body = files.get(path);
+                if (body == null) {
+                    exchange.sendResponseHeaders(404, -1);
+                } else {
+                    exchange.sendResponseHeaders(200, body.length);
+                    OutputStream out = exchange.getResponseBody();
+                    out.write(body);
+                    out.close();
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+        cacheDir = File.createTempFile("network", "");
+        cacheDir.delete();
+        cacheDir.mkdirs();
+    }
+
+    @Override
+    protected void tearDown() {
+        server.stop(0);
+        delete(cacheDir);
+    }
+
+    private NetworkClassLoader newLoader() {
+        NetworkClassLoader loader = new NetworkClassLoader(new URL[]{}, null);
+        loader.setBaseUrl("http://127.0.0.1:" + server.getAddress().getPort() + "/");
+        loader.setCacheDir(cacheDir);
+        return loader;
+    }
+
+    private int requests(String path) {
+        AtomicInteger count = requests.get(path);
+        return count == null ? 0 : count.get();
+    }
+
+    public void testDiskCacheAndMisses() throws Exception {
+        NetworkClassLoader loader = newLoader();
+        assertEquals(REMOTE, loader.loadClass(REMOTE).getName());
+        assertEquals(1, requests(REMOTE_PATH));
+        assertEquals("{}", new String(readAll(loader.getResource("abi.json").openStream()), "UTF-8"));
+        assertNull(loader.findResource("missing.txt"));
+        assertNull(loader.findResource("missing.txt"));
+        assertEquals(1, requests("missing.txt"));
+        assertEquals(1, loader.getMissingHits());
+
+        // 新的加载器(如进程重启)直接读本地缓存
+        NetworkClassLoader again = newLoader();
+        assertNotSame(loader.loadClass(REMOTE), again.loadClass(REMOTE));
+        assertEquals(1, requests(REMOTE_PATH));
+        assertEquals(0, again.getFetches());
+
+        // 缓存文件损坏时重新下载
+        for (File object : new File(cacheDir, "objects").listFiles()) {
+            FileOutputStream out = new FileOutputStream(object);
+            out.write(1);
+            out.close();
+        }
+        assertEquals(REMOTE, newLoader().loadClass(REMOTE).getName());
+        assertEquals(2, requests(REMOTE_PATH));
+    }
+
+    public void testPrefetch() throws Exception {
+        NetworkClassLoader loader = newLoader();
+        assertEquals(2, loader.prefetch("classes.list", 4));
+        assertEquals(1, requests(REMOTE_PATH));
+        assertEquals(1, requests("abi.json"));
+        assertEquals(REMOTE, loader.loadClass(REMOTE).getName());
+        assertNotNull(loader.getResource("abi.json"));
+        assertEquals(1, requests(REMOTE_PATH));
+        assertEquals(1, requests("abi.json"));
+    }
+
+    public void testHashMismatch() throws Exception {
+        files.put("classes.list", ("00 " + REMOTE_PATH + "\n").getBytes("UTF-8"));
+        try {
+            newLoader().prefetch("classes.list", 1);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("hash mismatch"));
+        }
+    }
+
+    private static byte[] readAll(InputStream input) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = input.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            input.close();
+        }
+    }
+
+    private static String hex(byte[] bytes) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("SHA-256").digest(bytes)) {
+            sb.append(String.format("%02x", b & 0xff));
+        }
+        return sb.toString();
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
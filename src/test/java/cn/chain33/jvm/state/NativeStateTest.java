@@ -0,0 +1,95 @@
+package cn.chain33.jvm.state;
+
+import cn.chain33.jvm.api.Blockchain;
+import cn.chain33.jvm.api.MemoryLocalDB;
+import cn.chain33.jvm.api.MemoryStateDB;
+import junit.framework.TestCase;
+
+public class NativeStateTest extends TestCase {
+    private MemoryStateDB stateDB;
+    private MemoryLocalDB localDB;
+    private NativeState state;
+
+    @Override
+    protected void setUp() {
+        stateDB = new MemoryStateDB();
+        localDB = new MemoryLocalDB();
+        state = new NativeState(stateDB, localDB, new Blockchain() {
+            @Override
+            public String getFrom() {
+                return "addr";
+            }
+
+            @Override
+            public long getCurrentHeight() {
+                return 10;
+            }
+        });
+    }
+
+    private static byte[][] keys(String prefix, int n) {
+        byte[][] keys = new byte[n][];
+        for (int i = 0; i < n; i++) {
+            keys[i] = (prefix + i).getBytes();
+        }
+        return keys;
+    }
+
+    public void testCommitIsOneCallPerDatabase() {
+        TxContext context = new TxContext(state, state.getFrom(), state.getCurrentHeight());
+        TxContext previous = TxContext.bind(context);
+        try {
+            for (byte[] key : keys("round", 20)) {
+                ChainState.setState(key, key);
+                ChainState.setLocal(key, key);
+            }
+        } finally {
+            TxContext.bind(previous);
+        }
+        assertEquals(0, stateDB.calls + localDB.calls);
+        assertEquals(40, context.commit(state));
+        assertEquals(1, stateDB.calls);
+        assertEquals(1, localDB.calls);
+        assertEquals("round7", new String(stateDB.getFromState("round7".getBytes())));
+        assertEquals("round7", new String(localDB.getFromLocal("round7".getBytes())));
+    }
+
+    public void testMultiGetIsOneCallPerDatabase() {
+        byte[][] keys = keys("k", 30);
+        stateDB.setMulti(new byte[][]{keys[3]}, new byte[][]{"v".getBytes()});
+        stateDB.calls = 0;
+        TxContext context = new TxContext(state, "addr", 10);
+        TxContext previous = TxContext.bind(context);
+        try {
+            ChainState.setState(keys[5], "w".getBytes());
+            byte[][] values = ChainState.getFromStateMulti(keys);
+            assertEquals("v", new String(values[3]));
+            assertEquals("w", new String(values[5]));
+            assertNull(values[0]);
+            ChainState.getFromLocalMulti(keys);
+            // 已经读过的键不再访问宿主
+            ChainState.getFromStateMulti(keys);
+            for (byte[] key : keys) {
+                ChainState.getFromState(key);
+            }
+        } finally {
+            TxContext.bind(previous);
+        }
+        assertEquals(1, stateDB.calls);
+        assertEquals(1, localDB.calls);
+        assertEquals(59, context.getReadSet().size());
+    }
+
+    public void testDeleteAndUnknownNamespace() {
+        state.put(ChainState.stateKey("a".getBytes()), "1".getBytes());
+        assertEquals("1", new String(state.get(ChainState.stateKey("a".getBytes()))));
+        state.put(ChainState.stateKey("a".getBytes()), null);
+        assertNull(state.get(ChainState.stateKey("a".getBytes())));
+        try {
+            state.get(ChainState.balanceKey("addr"));
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // 余额不经过StateDB/LocalDB
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package cn.chain33.jvm.state;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class TxContextTest extends TestCase {
+
+    /**
+     * 记录每次读写的状态存储，代替宿主的native接口
+     */
+    private static class CountingState extends MemoryState {
+        int gets;
+        List<String> puts = new ArrayList<String>();
+
+        @Override
+        public byte[] get(String key) {
+            gets++;
+            return super.get(key);
+        }
+
+        @Override
+        public void put(String key, byte[] value) {
+            puts.add(key);
+            super.put(key, value);
+        }
+    }
+
+    private static final byte[] KEY = "round".getBytes();
+
+    public void testRepeatedReadsHitBaseOnce() {
+        CountingState base = new CountingState();
+        base.put(ChainState.stateKey(KEY), new byte[]{1});
+        TxContext context = new TxContext(base, "addr", 1);
+        TxContext previous = TxContext.bind(context);
+        try {
+            for (int i = 0; i < 3; i++) {
+                assertTrue(Arrays.equals(new byte[]{1}, ChainState.getFromState(KEY)));
+                assertNull(ChainState.getFromLocal(KEY));
+            }
+        } finally {
+            TxContext.bind(previous);
+        }
+        assertEquals(2, base.gets);
+    }
+
+    public void testReadYourWritesAndSingleFlush() {
+        CountingState base = new CountingState();
+        base.put(ChainState.stateKey(KEY), new byte[]{1});
+        base.puts.clear();
+        TxContext context = new TxContext(base, "addr", 1);
+        TxContext previous = TxContext.bind(context);
+        try {
+            ChainState.setState(KEY, new byte[]{2});
+            ChainState.setState(KEY, new byte[]{3});
+            ChainState.setLocal(KEY, new byte[]{4});
+            assertTrue(Arrays.equals(new byte[]{3}, ChainState.getFromState(KEY)));
+        } finally {
+            TxContext.bind(previous);
+        }
+        assertEquals(0, base.gets);
+        assertTrue(base.puts.isEmpty());
+        assertEquals(2, context.commit(base));
+        assertEquals(Arrays.asList(ChainState.stateKey(KEY), ChainState.localKey(KEY)), base.puts);
+        assertTrue(Arrays.equals(new byte[]{3}, base.get(ChainState.stateKey(KEY))));
+    }
+
+    public void testUnchangedWritesNotFlushed() {
+        CountingState base = new CountingState();
+        base.put(ChainState.stateKey(KEY), new byte[]{1});
+        base.puts.clear();
+        TxContext context = new TxContext(base, "addr", 1);
+        TxContext previous = TxContext.bind(context);
+        try {
+            byte[] value = ChainState.getFromState(KEY);
+            ChainState.setState(KEY, value);
+        } finally {
+            TxContext.bind(previous);
+        }
+        assertEquals(0, context.commit(base));
+        assertTrue(base.puts.isEmpty());
+    }
+
+    public void testStopDiscardsWrites() {
+        CountingState base = new CountingState();
+        TxContext context = new TxContext(base, "addr", 1);
+        TxContext previous = TxContext.bind(context);
+        try {
+            assertSame(context, TxContext.peek());
+            ChainState.setState(KEY, new byte[]{1});
+            ChainState.stopTransWithErrInfo("lack of balance!");
+        } finally {
+            TxContext.bind(previous);
+        }
+        assertNull(TxContext.peek());
+        assertTrue(context.isFailed());
+        assertEquals(TxContext.STOPPED, context.getStatus());
+        assertEquals("lack of balance!", context.getError());
+        assertEquals(0, context.commit(base));
+        assertTrue(base.puts.isEmpty());
+    }
+
+    public void testReadsReturnCopies() {
+        CountingState base = new CountingState();
+        base.put(ChainState.stateKey(KEY), new byte[]{1});
+        TxContext context = new TxContext(base, "addr", 1);
+        TxContext previous = TxContext.bind(context);
+        try {
+            ChainState.getFromState(KEY)[0] = 9;
+            assertTrue(Arrays.equals(new byte[]{1}, ChainState.getFromState(KEY)));
+            ChainState.setState(KEY, new byte[]{2});
+            ChainState.getFromState(KEY)[0] = 9;
+            assertTrue(Arrays.equals(new byte[]{2}, ChainState.getFromState(KEY)));
+        } finally {
+            TxContext.bind(previous);
+        }
+        assertEquals(1, context.commit(base));
+        assertTrue(Arrays.equals(new byte[]{2}, base.get(ChainState.stateKey(KEY))));
+    }
+}
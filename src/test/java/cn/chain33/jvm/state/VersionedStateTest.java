@@ -0,0 +1,96 @@
+package cn.chain33.jvm.state;
+
+import cn.chain33.jvm.api.Blockchain;
+import cn.chain33.jvm.api.MemoryLocalDB;
+import cn.chain33.jvm.api.MemoryStateDB;
+import junit.framework.TestCase;
+
+public class VersionedStateTest extends TestCase {
+    private MemoryStateDB stateDB;
+    private VersionedState state;
+
+    @Override
+    protected void setUp() {
+        stateDB = new MemoryStateDB();
+        state = new VersionedState(new NativeState(stateDB, new MemoryLocalDB(), new Blockchain() {
+            @Override
+            public String getFrom() {
+                return "addr";
+            }
+
+            @Override
+            public long getCurrentHeight() {
+                return 10;
+            }
+        }), 2);
+    }
+
+    private static String key(String name) {
+        return ChainState.stateKey(name.getBytes());
+    }
+
+    private static String read(StateView view, String name) {
+        byte[] value = view.get(key(name));
+        return value == null ? null : new String(value);
+    }
+
+    private void commit(String... entries) {
+        TxContext context = new TxContext(state, "addr", 10);
+        TxContext previous = TxContext.bind(context);
+        try {
+            for (int i = 0; i < entries.length; i += 2) {
+                ChainState.setState(entries[i].getBytes(), entries[i + 1].getBytes());
+            }
+        } finally {
+            TxContext.bind(previous);
+        }
+        context.commit(state);
+    }
+
+    public void testSnapshotsSeeStateAtPublish() {
+        commit("a", "1");
+        // 第一个快照之前的写入不保存旧值
+        assertEquals(0, state.historySize());
+        VersionedState.Snapshot first = state.snapshot();
+        commit("a", "2", "b", "x");
+        VersionedState.Snapshot second = state.snapshot();
+        commit("a", "3");
+
+        assertEquals("1", read(first, "a"));
+        assertNull(read(first, "b"));
+        assertEquals("2", read(second, "a"));
+        assertEquals("x", read(second, "b"));
+        assertEquals("3", read(state, "a"));
+    }
+
+    public void testCommitReadsOldValuesInOneCall() {
+        state.snapshot();
+        stateDB.calls = 0;
+        commit("a", "1", "b", "2", "c", "3");
+        // 一次批量读取旧值，一次批量写入
+        assertEquals(2, stateDB.calls);
+        stateDB.calls = 0;
+        commit("a", "4");
+        // 同一个快照之后已经保存过旧值的键不再读取
+        assertEquals(1, stateDB.calls);
+    }
+
+    public void testExpiredSnapshot() {
+        VersionedState.Snapshot first = state.snapshot();
+        commit("a", "1");
+        state.snapshot();
+        commit("a", "2");
+        VersionedState.Snapshot third = state.snapshot();
+        assertEquals("2", read(third, "a"));
+        try {
+            read(first, "a");
+            fail("expected expired snapshot");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("expired"));
+        }
+        // 过期快照的旧值已被删除
+        state.snapshot();
+        state.snapshot();
+        assertEquals(0, state.historySize());
+    }
+}